@@ -0,0 +1,258 @@
+/* RefParse, the algorithm for parsing lists of bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.plugins.bibRefs.refParse;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only table of strings residing in a (usually memory mapped) byte
+ * buffer, addressed by int IDs, and with an open addressing hash index for
+ * looking up the ID of a given string. Strings are read from the buffer on
+ * demand, so multiple JVMs mapping the same file share a single copy of the
+ * table in the operating system page cache. All offsets are absolute
+ * positions in the underlying buffer.
+ * 
+ * @author sautter
+ */
+class MappedStringTable {
+	private final ByteBuffer data;
+	private final int size;
+	private final int slotCount;
+	private final int charOffsetsStart;
+	private final int slotsStart;
+	private final int charsStart;
+	private final int end;
+	
+	/** Constructor
+	 * @param data the buffer holding the table
+	 * @param start the position the table starts at
+	 */
+	MappedStringTable(ByteBuffer data, int start) {
+		this.data = data;
+		this.size = data.getInt(start);
+		this.slotCount = data.getInt(start + 4);
+		this.charOffsetsStart = (start + 8);
+		this.slotsStart = (this.charOffsetsStart + ((this.size + 1) * 4));
+		this.charsStart = (this.slotsStart + (this.slotCount * 4));
+		this.end = (this.charsStart + (data.getInt(this.charOffsetsStart + (this.size * 4)) * 2));
+	}
+	
+	/**
+	 * @return the number of strings in the table
+	 */
+	int size() {
+		return this.size;
+	}
+	
+	/**
+	 * @return the position right after the end of the table
+	 */
+	int getEnd() {
+		return this.end;
+	}
+	
+	/**
+	 * Retrieve a string by its ID.
+	 * @param id the ID of the string
+	 * @return the string with the argument ID
+	 */
+	String get(int id) {
+		int from = this.data.getInt(this.charOffsetsStart + (id * 4));
+		int to = this.data.getInt(this.charOffsetsStart + ((id + 1) * 4));
+		char[] chars = new char[to - from];
+		for (int c = 0; c < chars.length; c++)
+			chars[c] = this.data.getChar(this.charsStart + ((from + c) * 2));
+		return new String(chars);
+	}
+	
+	/**
+	 * Retrieve the ID of a string.
+	 * @param str the string to look up
+	 * @return the ID of the argument string, or -1 if it is not in the table
+	 */
+	int getId(String str) {
+		if (this.slotCount == 0)
+			return -1;
+		int mask = (this.slotCount - 1);
+		for (int s = (spread(str.hashCode()) & mask);; s = ((s + 1) & mask)) {
+			int slot = this.data.getInt(this.slotsStart + (s * 4));
+			if (slot == 0)
+				return -1;
+			if (this.equals((slot - 1), str))
+				return (slot - 1);
+		}
+	}
+	
+	private boolean equals(int id, String str) {
+		int from = this.data.getInt(this.charOffsetsStart + (id * 4));
+		int to = this.data.getInt(this.charOffsetsStart + ((id + 1) * 4));
+		if ((to - from) != str.length())
+			return false;
+		for (int c = 0; c < str.length(); c++) {
+			if (this.data.getChar(this.charsStart + ((from + c) * 2)) != str.charAt(c))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Write a string table to an output stream, in the layout read by the
+	 * constructor of this class. The strings in the argument array have to
+	 * be unique, and their IDs are their positions in the array.
+	 * @param out the stream to write to
+	 * @param strings the strings to write
+	 * @throws IOException
+	 */
+	static void write(DataOutputStream out, String[] strings) throws IOException {
+		int slotCount = getSlotCount(strings.length);
+		out.writeInt(strings.length);
+		out.writeInt(slotCount);
+		
+		//	write char offsets
+		int charOffset = 0;
+		for (int s = 0; s < strings.length; s++) {
+			out.writeInt(charOffset);
+			charOffset += strings[s].length();
+		}
+		out.writeInt(charOffset);
+		
+		//	write hash slots
+		int[] slots = new int[slotCount];
+		for (int s = 0; s < strings.length; s++)
+			addToSlots(slots, strings[s].hashCode(), s);
+		for (int s = 0; s < slots.length; s++)
+			out.writeInt(slots[s]);
+		
+		//	write chars
+		for (int s = 0; s < strings.length; s++)
+			out.writeChars(strings[s]);
+	}
+	
+	/**
+	 * Compute the number of hash slots for a given number of keys, keeping
+	 * the load factor below 0.5. The result is always a power of 2.
+	 * @param keyCount the number of keys
+	 * @return the number of slots
+	 */
+	static int getSlotCount(int keyCount) {
+		int slotCount = 1;
+		while (slotCount < (keyCount * 2))
+			slotCount <<= 1;
+		return slotCount;
+	}
+	
+	/**
+	 * Insert an ID into an array of open addressing hash slots, which store
+	 * IDs plus 1, as 0 marks an empty slot.
+	 * @param slots the slot array
+	 * @param hash the hash of the key
+	 * @param id the ID to insert
+	 */
+	static void addToSlots(int[] slots, int hash, int id) {
+		int mask = (slots.length - 1);
+		int s = (spread(hash) & mask);
+		while (slots[s] != 0)
+			s = ((s + 1) & mask);
+		slots[s] = (id + 1);
+	}
+	
+	/**
+	 * Spread the bits of a hash code, so keys whose hash codes only differ in
+	 * the higher bits do not collide in small tables.
+	 * @param hash the hash code to spread
+	 * @return the spread hash code
+	 */
+	static int spread(int hash) {
+		hash ^= ((hash >>> 20) ^ (hash >>> 12));
+		return (hash ^ (hash >>> 7) ^ (hash >>> 4));
+	}
+	
+	/**
+	 * Map a file into memory read-only.
+	 * @param file the file to map
+	 * @return a buffer holding the file content
+	 * @throws IOException
+	 */
+	static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		}
+		finally {
+			raf.close(); // mapping remains valid after closing the file
+		}
+	}
+	
+	/**
+	 * Replace a file with a newly written temporary file by renaming the
+	 * latter. JVMs that currently have the replaced file mapped keep working
+	 * on the old version.
+	 * @param tempFile the newly written file
+	 * @param file the file to replace
+	 * @throws IOException
+	 */
+	static void replaceFile(File tempFile, File file) throws IOException {
+		if (tempFile.renameTo(file))
+			return;
+		file.delete(); // renaming over an existing file fails on some platforms
+		if (tempFile.renameTo(file))
+			return;
+		tempFile.delete();
+		throw new IOException("Could not replace " + file.getAbsolutePath());
+	}
+	
+	/**
+	 * Read a string written by writeString() from a buffer.
+	 * @param data the buffer to read from
+	 * @param start the position the string starts at
+	 * @return the string
+	 */
+	static String readString(ByteBuffer data, int start) {
+		char[] chars = new char[data.getInt(start)];
+		for (int c = 0; c < chars.length; c++)
+			chars[c] = data.getChar(start + 4 + (c * 2));
+		return new String(chars);
+	}
+	
+	/**
+	 * Write a string as its length followed by its chars, for reading via
+	 * readString().
+	 * @param out the stream to write to
+	 * @param str the string to write
+	 * @throws IOException
+	 */
+	static void writeString(DataOutputStream out, String str) throws IOException {
+		out.writeInt(str.length());
+		out.writeChars(str);
+	}
+	
+	/**
+	 * Compute the number of bytes writeString() uses for a given string.
+	 * @param str the string
+	 * @return the number of bytes
+	 */
+	static int getStringBytes(String str) {
+		return (4 + (str.length() * 2));
+	}
+}
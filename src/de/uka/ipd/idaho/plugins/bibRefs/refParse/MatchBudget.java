@@ -0,0 +1,469 @@
+/* RefParse, the algorithm for parsing lists of bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.plugins.bibRefs.refParse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.Token;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.gamta.TokenSequenceUtils;
+import de.uka.ipd.idaho.stringUtils.regExUtils.RegExUtils;
+
+/**
+ * Budget of regular expression matching steps for a single reference, to
+ * keep patterns prone to catastrophic backtracking (repeated groups that in
+ * turn contain unbounded repetitions) from taking seconds on malformed input,
+ * like long runs of punctuation marks or abbreviations. Such patterns are
+ * extracted right here, the same way Gamta.extractAllMatches() does it, only
+ * on a char sequence that counts the character accesses the pattern takes. If
+ * an extraction exhausts the budget, it reports the pattern and conservatively
+ * assumes no matches, as does any further extraction of a backtracking prone
+ * pattern on the same reference.
+ * All other patterns are handed to Gamta right away.
+ * 
+ * @author sautter
+ */
+class MatchBudget {
+	private static final boolean DEBUG = false;
+	
+	/** the number of matching steps per character of a reference */
+	static final int STEPS_PER_CHAR = 2000;
+	
+	private int steps;
+	private boolean exhausted = false;
+	
+	/** Constructor
+	 * @param steps the number of matching steps (character accesses) available
+	 */
+	MatchBudget(int steps) {
+		this.steps = steps;
+	}
+	
+	/**
+	 * Create a match budget for a reference, proportional to its length.
+	 * @param tokens the tokens of the reference
+	 * @return the match budget
+	 */
+	static MatchBudget forTokens(TokenSequence tokens) {
+		int chars = ((tokens.size() == 0) ? 0 : (tokens.tokenAt(tokens.size()-1).getEndOffset() - tokens.tokenAt(0).getStartOffset()));
+		return new MatchBudget(STEPS_PER_CHAR * Math.max(chars, 100));
+	}
+	
+	/**
+	 * @return true if the budget was exhausted, i.e., if any extraction did
+	 *         return a conservative result
+	 */
+	boolean isExhausted() {
+		return this.exhausted;
+	}
+	
+	/**
+	 * Extract all matches of a regular expression pattern from a token
+	 * sequence, like Gamta.extractAllMatches(), but observing the budget.
+	 * @param tokens the token sequence to extract matches from
+	 * @param regEx the pattern to match
+	 * @param allowOverlap allow matches to overlap?
+	 * @return an array holding the matches
+	 */
+	Annotation[] extractAllMatches(TokenSequence tokens, String regEx, boolean allowOverlap) {
+		return this.extractAllMatches(tokens, regEx, allowOverlap, false, true);
+	}
+	
+	/**
+	 * Extract all matches of a regular expression pattern from a token
+	 * sequence, like Gamta.extractAllMatches(), but observing the budget.
+	 * @param tokens the token sequence to extract matches from
+	 * @param regEx the pattern to match
+	 * @param allowOverlap allow matches to overlap?
+	 * @param ignoreLinebreaks represent paragraph ends as spaces?
+	 * @param normalize normalize whitespace between tokens?
+	 * @return an array holding the matches
+	 */
+	Annotation[] extractAllMatches(TokenSequence tokens, String regEx, boolean allowOverlap, boolean ignoreLinebreaks, boolean normalize) {
+		if (!isBacktrackingProne(regEx))
+			return Gamta.extractAllMatches(tokens, regEx, allowOverlap, ignoreLinebreaks, normalize);
+		if (this.exhausted) {
+			if (DEBUG) System.out.println("Matching step budget exhausted before, assuming no matches of '" + regEx + "'");
+			return new Annotation[0];
+		}
+		try {
+			Annotation[] matches = this.doExtractAllMatches(tokens, getPatternData(regEx), allowOverlap, ignoreLinebreaks, normalize);
+			if (DEBUG) System.out.println("Extracted " + matches.length + " matches of '" + regEx + "', " + this.steps + " steps left");
+			return matches;
+		}
+		catch (StepBudgetExhaustedException sbee) {
+			this.exhausted = true;
+			if (DEBUG) System.out.println("Matching step budget exhausted, assuming no matches of '" + regEx + "' or any further backtracking prone patterns in " + TokenSequenceUtils.concatTokens(tokens, true, true));
+			return new Annotation[0];
+		}
+	}
+	
+	/* split the token sequence into runs of tokens that can be part of a
+	 * match, normalize each run, and collect the matches, exactly as Gamta
+	 * does */
+	private Annotation[] doExtractAllMatches(TokenSequence tokens, PatternData pd, boolean allowOverlap, boolean ignoreLinebreaks, boolean normalize) {
+		ArrayList preMatches = new ArrayList();
+		StringBuffer text = new StringBuffer();
+		int[] tokenStarts = new int[tokens.size()];
+		int[] tokenEnds = new int[tokens.size()];
+		int runStart = -1;
+		Token last = null;
+		for (int t = 0; t < tokens.size(); t++) {
+			Token token = tokens.tokenAt(t);
+			String value = token.getValue();
+			
+			//	current token cannot belong to a match, extract from run so far
+			if (pd.excludePunct.contains(value)) {
+				if (runStart != -1) {
+					this.addPreMatches(tokens, runStart, t, text.toString(), tokenStarts, tokenEnds, pd.pattern, allowOverlap, preMatches);
+					runStart = -1;
+					last = null;
+				}
+				continue;
+			}
+			
+			//	pattern does not match spaces, extract from run so far and start over
+			boolean addSpace = ((last != null) && (normalize ? Gamta.insertSpace(last, token) : (tokens.getWhitespaceAfter(t-1).length() != 0)));
+			if (addSpace && pd.excludeSpace && (runStart != -1)) {
+				this.addPreMatches(tokens, runStart, t, text.toString(), tokenStarts, tokenEnds, pd.pattern, allowOverlap, preMatches);
+				runStart = -1;
+				last = null;
+			}
+			
+			//	start new run, or add whitespace to current one
+			if (runStart == -1) {
+				runStart = t;
+				text.setLength(0);
+			}
+			else if (addSpace)
+				text.append((!ignoreLinebreaks && last.hasAttribute(Token.PARAGRAPH_END_ATTRIBUTE)) ? "\r\n" : " ");
+			tokenStarts[t] = text.length();
+			text.append(value);
+			tokenEnds[t] = text.length();
+			last = token;
+		}
+		if (runStart != -1)
+			this.addPreMatches(tokens, runStart, tokens.size(), text.toString(), tokenStarts, tokenEnds, pd.pattern, allowOverlap, preMatches);
+		
+		//	sort matches, and sort out overlapping ones if required
+		Collections.sort(preMatches);
+		if (allowOverlap)
+			return ((Annotation[]) preMatches.toArray(new Annotation[preMatches.size()]));
+		ArrayList matches = new ArrayList();
+		int lastEndIndex = 0;
+		for (int m = 0; m < preMatches.size(); m++) {
+			Annotation preMatch = ((Annotation) preMatches.get(m));
+			if (preMatch.getStartIndex() >= lastEndIndex) {
+				matches.add(preMatch);
+				lastEndIndex = preMatch.getEndIndex();
+			}
+		}
+		return ((Annotation[]) matches.toArray(new Annotation[matches.size()]));
+	}
+	
+	/* find matches in the normalized text of a run of tokens, and retry
+	 * prefixes ending at token ends if a match starts at a token start */
+	private void addPreMatches(TokenSequence tokens, int runStart, int runEnd, String text, int[] tokenStarts, int[] tokenEnds, Pattern pattern, boolean allowOverlap, ArrayList preMatches) {
+		CharSequence chars = new CountingCharSequence(text, 0, text.length());
+		Matcher matcher = pattern.matcher(chars);
+		for (int from = 0; (from < text.length()) && matcher.find(from);) {
+			int s = getTokenAt(matcher.start(), runStart, runEnd, tokenStarts, text.length());
+			
+			//	avoid endless loop on empty match at end of text
+			if (s == -1) {
+				from++;
+				continue;
+			}
+			
+			//	current match starts at token start
+			if (tokenStarts[s] == matcher.start()) {
+				int end = matcher.end();
+				int e = getTokenAt((end - 1), runStart, runEnd, tokenStarts, text.length());
+				if (e != -1) {
+					
+					//	current match ends at token end
+					if ((s <= e) && (tokenEnds[e] == end))
+						preMatches.add(Gamta.newAnnotation(tokens, null, s, (e - s + 1)));
+					
+					//	prefixes of current match might also match
+					if ((s < e) && (allowOverlap || (tokenEnds[e] != end)))
+						for (e--; s <= e; e--) {
+							if (pattern.matcher(chars.subSequence(tokenStarts[s], tokenEnds[e])).matches()) {
+								preMatches.add(Gamta.newAnnotation(tokens, null, s, (e - s + 1)));
+								if (!allowOverlap)
+									break;
+							}
+						}
+				}
+			}
+			
+			//	continue with next token
+			from = (((s+1) < runEnd) ? tokenStarts[s+1] : text.length());
+		}
+	}
+	
+	/* find the token whose value or trailing whitespace covers an offset in
+	 * the normalized text of a run of tokens, -1 if there is none */
+	private static int getTokenAt(int offset, int runStart, int runEnd, int[] tokenStarts, int length) {
+		if ((offset < 0) || (length <= offset))
+			return -1;
+		int low = runStart;
+		int high = (runEnd - 1);
+		while (low < high) {
+			int mid = ((low + high + 1) / 2);
+			if (tokenStarts[mid] <= offset)
+				low = mid;
+			else high = (mid - 1);
+		}
+		return low;
+	}
+	
+	private class CountingCharSequence implements CharSequence {
+		private String chars;
+		private int offset;
+		private int length;
+		CountingCharSequence(String chars, int offset, int length) {
+			this.chars = chars;
+			this.offset = offset;
+			this.length = length;
+		}
+		public int length() {
+			return this.length;
+		}
+		public char charAt(int index) {
+			if (--steps < 0)
+				throw new StepBudgetExhaustedException();
+			return this.chars.charAt(this.offset + index);
+		}
+		public CharSequence subSequence(int start, int end) {
+			return new CountingCharSequence(this.chars, (this.offset + start), (end - start));
+		}
+		public String toString() {
+			return this.chars.substring(this.offset, (this.offset + this.length));
+		}
+	}
+	
+	private static class StepBudgetExhaustedException extends RuntimeException {
+		private static final long serialVersionUID = -3408157253406916870L;
+	}
+	
+	/* compiled pattern, together with the punctuation marks and whitespace it
+	 * cannot match according to the heuristics Gamta uses to split up token
+	 * sequences before matching */
+	private static class PatternData {
+		final Pattern pattern;
+		final HashSet excludePunct;
+		final boolean excludeSpace;
+		PatternData(Pattern pattern, HashSet excludePunct, boolean excludeSpace) {
+			this.pattern = pattern;
+			this.excludePunct = excludePunct;
+			this.excludeSpace = excludeSpace;
+		}
+	}
+	
+	/* concurrent maps, so parsing threads do not queue on a lock for every
+	 * lookup (computing an entry twice in a race does no harm) */
+	private static ConcurrentHashMap patternDataCache = new ConcurrentHashMap();
+	private static PatternData getPatternData(String regEx) {
+		PatternData pd = ((PatternData) patternDataCache.get(regEx));
+		if (pd == null) {
+			pd = createPatternData(regEx);
+			patternDataCache.put(regEx, pd);
+		}
+		return pd;
+	}
+	
+	private static final Pattern xCharPattern = Pattern.compile("\\\\x([0-9A-Fa-f]{2})");
+	private static final Pattern xRangePattern = Pattern.compile("\\\\x([0-9A-Fa-f]{2})\\-\\\\x([0-9A-Fa-f]{2})");
+	private static final Pattern uCharPattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
+	private static final Pattern uRangePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})\\-\\\\u([0-9A-Fa-f]{4})");
+	
+	private static PatternData createPatternData(String regEx) {
+		
+		//	check for wildcards (all dots escaped if splitting at dots and at escaped dots yields the same number of parts)
+		String adeTestRegEx = regEx;
+		while (adeTestRegEx.indexOf("\\\\") != -1)
+			adeTestRegEx = adeTestRegEx.replaceAll("\\\\\\\\", "");
+		boolean allDotsEscaped = (adeTestRegEx.split("\\.").length == adeTestRegEx.split("\\\\\\.").length);
+		
+		//	collect characters matched via hex encoded characters and ranges
+		HashSet encodedMatchedChars = new HashSet();
+		if (allDotsEscaped && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1)) {
+			addEncodedRangeChars(xRangePattern, regEx, encodedMatchedChars);
+			addEncodedChars(xCharPattern, regEx, encodedMatchedChars);
+			addEncodedRangeChars(uRangePattern, regEx, encodedMatchedChars);
+			addEncodedChars(uCharPattern, regEx, encodedMatchedChars);
+		}
+		
+		//	check if whitespace matched
+		boolean excludeSpace = false;
+		if (allDotsEscaped && (regEx.indexOf("\\W") == -1) && (regEx.indexOf("\\s") == -1) && (regEx.indexOf("\\p{Blank}") == -1) && (regEx.indexOf("\\p{Space}") == -1) && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1))
+			excludeSpace = (!encodedMatchedChars.contains(" ") && !encodedMatchedChars.contains("\t") && !encodedMatchedChars.contains("\n") && !encodedMatchedChars.contains("\f") && !encodedMatchedChars.contains("\r"));
+		
+		//	collect punctuation marks neither escaped nor encoded
+		HashSet excludePunct = new HashSet();
+		if (allDotsEscaped && (regEx.indexOf("\\W") == -1) && (regEx.indexOf("\\S") == -1) && (regEx.indexOf("\\p{Punct}") == -1) && (regEx.indexOf("\\p{Graph}") == -1) && (regEx.indexOf("\\p{Print}") == -1) && (regEx.indexOf("\\p{ASCII}") == -1) && (regEx.indexOf('^') == -1)) {
+			for (int p = 0; p < Gamta.PUNCTUATION.length(); p++) {
+				String punct = Gamta.PUNCTUATION.substring(p, (p+1));
+				if ((regEx.indexOf("\\" + punct) == -1) && !encodedMatchedChars.contains(punct))
+					excludePunct.add(punct);
+			}
+		}
+		
+		//	normalize line breaks in pattern if necessary
+		if ((regEx.indexOf("\n") != -1) || (regEx.indexOf("\r") != -1) || (regEx.indexOf("\f") != -1))
+			regEx = RegExUtils.normalizeRegEx(regEx);
+		return new PatternData(Pattern.compile(regEx), excludePunct, excludeSpace);
+	}
+	
+	private static void addEncodedRangeChars(Pattern rangePattern, String regEx, HashSet encodedMatchedChars) {
+		for (Matcher m = rangePattern.matcher(regEx); m.find();) {
+			int min = Integer.parseInt(m.group(1), 16);
+			int max = Integer.parseInt(m.group(2), 16);
+			for (int c = Math.max(min, 0x09); c <= Math.min(max, 0x7E); c++)
+				encodedMatchedChars.add("" + ((char) c));
+			for (int c = Math.max(min, 0xA0); c <= Math.min(max, 0xFF); c++)
+				encodedMatchedChars.add("" + ((char) c));
+		}
+	}
+	
+	private static void addEncodedChars(Pattern charPattern, String regEx, HashSet encodedMatchedChars) {
+		for (Matcher m = charPattern.matcher(regEx); m.find();) {
+			int c = Integer.parseInt(m.group(1), 16);
+			if (((0x09 <= c) && (c <= 0x7E)) || ((0xA0 <= c) && (c <= 0xFF)))
+				encodedMatchedChars.add("" + ((char) c));
+		}
+	}
+	
+	private static ConcurrentHashMap backtrackingProneCache = new ConcurrentHashMap();
+	
+	/**
+	 * Check if a regular expression pattern is prone to catastrophic
+	 * backtracking, i.e., if it contains a group repeated via a greedy or
+	 * reluctant '*', '+', or open-ended '{n,}' quantifier that in turn
+	 * contains a non-possessive '*', '+', or open-ended '{n,}' quantifier.
+	 * Patterns without such nested repetitions run in polynomial time on the
+	 * short char sequences of references.
+	 * @param regEx the pattern to check
+	 * @return true if the pattern is prone to catastrophic backtracking
+	 */
+	static boolean isBacktrackingProne(String regEx) {
+		Boolean prone = ((Boolean) backtrackingProneCache.get(regEx));
+		if (prone == null) {
+			prone = Boolean.valueOf(checkBacktrackingProne(regEx));
+			backtrackingProneCache.put(regEx, prone);
+		}
+		return prone.booleanValue();
+	}
+	
+	private static boolean checkBacktrackingProne(String regEx) {
+		boolean[] groupRepeats = new boolean[regEx.length() + 1]; // stack of flags indicating unbounded repetitions inside open groups
+		int depth = 0;
+		for (int c = 0; c < regEx.length(); c++) {
+			char ch = regEx.charAt(c);
+			
+			//	open group
+			if (ch == '(') {
+				groupRepeats[++depth] = false;
+				continue;
+			}
+			
+			//	find end of current atom
+			boolean repeats = false;
+			if (ch == ')') {
+				if (depth == 0)
+					continue;
+				repeats = groupRepeats[depth--];
+			}
+			else if (ch == '\\') {
+				c++;
+				if (((c+1) < regEx.length()) && ((regEx.charAt(c) == 'p') || (regEx.charAt(c) == 'P')) && (regEx.charAt(c+1) == '{'))
+					c = Math.max(c, regEx.indexOf('}', c)); // skip over character class name
+			}
+			else if (ch == '[')
+				c = getCharClassEnd(regEx, c);
+			
+			//	check quantifier following current atom
+			int q = (c+1);
+			int qEnd = -1;
+			boolean unbounded = false;
+			if (q < regEx.length()) {
+				char qch = regEx.charAt(q);
+				if ((qch == '*') || (qch == '+')) {
+					unbounded = true;
+					qEnd = (q+1);
+				}
+				else if (qch == '?')
+					qEnd = (q+1);
+				else if (qch == '{') {
+					int close = regEx.indexOf('}', q);
+					if (close != -1) {
+						unbounded = (regEx.charAt(close-1) == ',');
+						qEnd = (close+1);
+					}
+				}
+			}
+			if (qEnd != -1) {
+				boolean possessive = ((qEnd < regEx.length()) && (regEx.charAt(qEnd) == '+'));
+				if ((qEnd < regEx.length()) && ((regEx.charAt(qEnd) == '+') || (regEx.charAt(qEnd) == '?')))
+					qEnd++;
+				if (possessive)
+					repeats = false; // no backtracking into possessive repetitions
+				else if (unbounded) {
+					if (repeats)
+						return true;
+					repeats = true;
+				}
+				c = (qEnd-1);
+			}
+			
+			//	propagate repetition to enclosing group
+			if (repeats && (depth != 0))
+				groupRepeats[depth] = true;
+		}
+		return false;
+	}
+	
+	/* find the index of the closing bracket of the character class opening at
+	 * the argument index, observing escapes and nested classes */
+	private static int getCharClassEnd(String regEx, int start) {
+		int depth = 0;
+		for (int c = start; c < regEx.length(); c++) {
+			char ch = regEx.charAt(c);
+			if (ch == '\\')
+				c++;
+			else if (ch == '[') {
+				depth++;
+				if (((c+1) < regEx.length()) && (regEx.charAt(c+1) == '^'))
+					c++;
+				if (((c+1) < regEx.length()) && (regEx.charAt(c+1) == ']'))
+					c++; // leading closing bracket is literal
+			}
+			else if ((ch == ']') && (--depth == 0))
+				return c;
+		}
+		return (regEx.length() - 1);
+	}
+}
@@ -19,8 +19,15 @@ package de.uka.ipd.idaho.plugins.bibRefs.refParse;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -28,9 +35,11 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -42,8 +51,11 @@ import java.util.LinkedHashSet;
 import java.util.Properties;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.CRC32;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JCheckBox;
@@ -69,6 +81,8 @@ import de.uka.ipd.idaho.gamta.util.CountingSet;
 import de.uka.ipd.idaho.gamta.util.DocumentStyle;
 import de.uka.ipd.idaho.gamta.util.DocumentStyle.ParameterGroupDescription;
 import de.uka.ipd.idaho.gamta.util.DocumentStyle.PropertiesData;
+import de.uka.ipd.idaho.gamta.util.ParallelJobRunner;
+import de.uka.ipd.idaho.gamta.util.ParallelJobRunner.ParallelFor;
 import de.uka.ipd.idaho.gamta.util.ProgressMonitor;
 import de.uka.ipd.idaho.gamta.util.ProgressMonitor.CascadingProgressMonitor;
 import de.uka.ipd.idaho.gamta.util.analyzerConfiguration.AnalyzerConfigPanel;
@@ -104,6 +118,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 	
 	public static final String GOT_FEEDBACK_ATTRIBUTE = "_gfb";
 	private static final String NO_BIB_REF_ATTRIBUTE = "_nbr";
+	private static final String MATCH_BUDGET_EXHAUSTED_ATTRIBUTE = "_mbe";
 	
 	private static final String AUTHOR_LIST_ANNOTATION_TYPE = "authorList";
 	private static final String EDITOR_LIST_ANNOTATION_TYPE = "editorList";
@@ -122,9 +137,43 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 	private static final boolean DEBUG_AUTHOR_NAME_EXTRACTION = (DEBUG && true);
 	private static final boolean DEBUG_AUTHOR_LIST_ASSEMBLY = (DEBUG && true);
 	
+	private int maxCores = 1;
+	
+	/**
+	 * Retrieve the maximum number of CPU cores used for the per-reference
+	 * stages of parsing.
+	 * @return the maximum number of cores
+	 */
+	public int getMaxCores() {
+		return this.maxCores;
+	}
+	
+	/**
+	 * Set the maximum number of CPU cores to use for the per-reference stages
+	 * of parsing. A value of 1 (the default) runs all stages in the calling
+	 * thread, a value less than 1 uses as many cores as available. Stages
+	 * that aggregate over all references of a document always run in the
+	 * calling thread.
+	 * @param maxCores the maximum number of cores to use
+	 */
+	public void setMaxCores(int maxCores) {
+		this.maxCores = maxCores;
+	}
+	
+	/* Guards the loaded lists, dictionaries, and patterns: parsing and
+	 * learning hold the read lock, so any number of documents can be parsed
+	 * concurrently, while (re-)loading and storing hold the write lock. All
+	 * state of an individual parsing run lives in the BibRef objects and the
+	 * local variables of parseBibRefs(). */
+	private ReentrantReadWriteLock configLock = new ReentrantReadWriteLock();
 	
 	private HashMap highlightAttributeCache = new HashMap();
 	private Color getAnnotationHighlight(String type) {
+		synchronized (this.highlightAttributeCache) {
+			return this.doGetAnnotationHighlight(type);
+		}
+	}
+	private Color doGetAnnotationHighlight(String type) {
 		Color color = ((Color) this.highlightAttributeCache.get(type));
 		if (color == null) {
 			if (AUTHOR_ANNOTATION_TYPE.equals(type))
@@ -196,6 +245,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 				"|" +
 				"(" + this.editorListLabelBaseRegEx + ")" +
 			")";
+	private Pattern editorListLabelPattern = Pattern.compile(this.editorListLabelRegEx);
 	
 //	private String authorLastNameBaseRegEx = 
 //			"([A-Za-z]+\\'?)?" +
@@ -362,7 +412,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 				"\\s" +
 			")?" +
 			"[1-9][0-9]{0,5}\\s*[\\-\\u2012-\\u2015]\\s*[1-9][0-9]{0,5}";
-	private String romanNumberRegEx = "((c?m+)?(c?d)?(x?c+)?(x?l)?(i?x+)?(i?v)?(i+)?)";
+	private String romanNumberRegEx = "((c?m++)?(c?d)?(x?c++)?(x?l)?(i?x++)?(i?v)?(i++)?)"; // repetitions possessive, as no later part can match what they give back
 	private String pageRangeRomanRegEx = 
 			"(" +
 				"(pp\\.|pages)" +
@@ -371,6 +421,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 			this.romanNumberRegEx +
 			"\\s*[\\-\\u2012-\\u2015]\\s*" +
 			this.romanNumberRegEx;
+	private Pattern romanNumberPattern = Pattern.compile(this.romanNumberRegEx);
 	
 	
 	private String partDesignatorRegEx = "(([1-9][0-9]*+)|([Ii]?[Xx]*[Vv]?[Ii]*)|([A-Z]))";
@@ -379,6 +430,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 	private StringVector numberingInvalidatorsTailing = new StringVector();
 	private StringVector bookContentInfoNumberingInvalidatorsTailing = new StringVector();
 	private StringVector titleNumberPatterns = new StringVector();
+	private TitleNumberMatcher titleNumberMatcher = new TitleNumberMatcher(new String[0]);
 	
 	private StringVector volumeDesignatorHints = new StringVector();
 	private StringVector issueDesignatorHints = new StringVector();
@@ -477,12 +529,13 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 	private static final String urlPathChar = "[a-zA-Z0-9\\.\\-\\_\\~\\!\\$\\&\\'\\(\\)\\[\\]\\{\\}\\*\\+\\,\\;\\=\\:\\@]";
 	private static final String urlPattern = 
 			"(https|http|ftp)\\:\\/\\/" + // protocol
-			"" + urlHostChar + "+(\\." + urlHostChar + "+)+" + // host
+			"" + urlHostChar + "++(\\." + urlHostChar + "++)++" + // host
 			"(\\:[0-9]++)?" + // port (optional)
-			"(\\/" + urlPathChar + "+(\\." + urlPathChar + "+)*)*" + // path (optional)
-			"[\\/?\\p{Graph}]*" + // arbitrary character last path step (also matches path terminating slash)
-			"(\\?[\\p{Graph}]*)?"; // query
-	private static final String urlStartPattern = "(https|http|ftp)\\:\\/\\/[\\p{Graph}]*"; // protocol followed by any non-space character
+			"(\\/" + urlPathChar + "++(\\." + urlPathChar + "++)*+)*+" + // path (optional)
+			"[\\/?\\p{Graph}]*+" + // arbitrary character last path step (also matches path terminating slash)
+			"(\\?[\\p{Graph}]*+)?"; // query
+	//	all repetitions above are possessive, as the tailing arbitrary characters absorb whatever the path might give back anyway, and none of the earlier parts can give back anything a later one might match (keeps malformed URLs from causing excessive backtracking)
+	private static final String urlStartPattern = "(https|http|ftp)\\:\\/\\/[\\p{Graph}]*+"; // protocol followed by any non-space character
 	private static final String urlFragmentPattern = "[\\p{Graph}]++";
 	private static final String doiPattern =
 				"(" +
@@ -491,6 +544,27 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 					"(doi\\:\\s?)" +
 				")?" +
 				"10\\.[0-9]++\\/[\\p{Graph}]++";
+	private static final Pattern urlRegExPattern = Pattern.compile(urlPattern);
+	private static final Pattern doiRegExPattern = Pattern.compile(doiPattern);
+	
+	//	patterns matched against individual values in per-reference loops, compiled only once instead of by String.matches() on every call
+	private static final Pattern whitespacePattern = Pattern.compile("\\s+");
+	private static final Pattern positiveNumberPattern = Pattern.compile("[1-9][0-9]*");
+	private static final Pattern fourDigitYearPattern = Pattern.compile("[12][0-9]{3}");
+	private static final Pattern lowerCaseLetterPattern = Pattern.compile("[a-z]");
+	private static final Pattern capitalLetterPattern = Pattern.compile("[A-Z]");
+	private static final Pattern partDesignatorLetterPattern = Pattern.compile("[A-Zz-z]");
+	private static final Pattern romanPartDesignatorPattern = Pattern.compile("[IVXivx]+");
+	private static final Pattern capitalizedWordPattern = Pattern.compile("[A-Z].*");
+	private static final Pattern initialOrShortWordPattern = Pattern.compile("[A-Z][a-z]?");
+	private static final Pattern authorNameSeparatorWordPattern = Pattern.compile("(and|et|e|y|und)");
+	private static final Pattern authorListStartPattern = Pattern.compile("authorList\\s.*");
+	private static final Pattern authorListYearStartPattern = Pattern.compile("authorList\\s([\\.\\,\\:\\;\\(\\[]\\s)*year.*");
+	private static final Pattern aa_dot = Pattern.compile("[a-z][a-z]\\.");
+	private static final Pattern nameStart_space_aa = Pattern.compile("[A-Z][a-z]*\\s[a-z][a-z]");
+	private static final Pattern aa_initial = Pattern.compile("[a-z][a-z][A-Z][a-z]?(\\.|\\b)");
+	private static final Pattern initial_noDot = Pattern.compile("[^a-zA-Z][A-Z][a-z]?[^\\.a-zA-Z]");
+	
 	private StringVector urlAvailableFromLabels = new StringVector();
 	
 	private StringVector relevantTypes = new StringVector();
@@ -504,18 +578,37 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 	 * @see de.uka.ipd.idaho.gamta.util.AbstractConfigurableAnalyzer#initAnalyzer()
 	 */
 	public void initAnalyzer() {
+		this.configLock.writeLock().lock();
+		try {
+			this.doInitAnalyzer();
+		}
+		finally {
+			this.configLock.writeLock().unlock();
+		}
+	}
+	private void doInitAnalyzer() {
+		
+		//	read number of cores to use in per-reference stages
+		try {
+			this.maxCores = Integer.parseInt(this.getParameter("maxCores", "1"));
+		} catch (NumberFormatException nfe) {}
+		primeAnnotationPatterns();
+		
+		//	configure lookup caches of token bag dictionaries
+		try {
+			TokenBagDictionary.setCacheConfiguration(Integer.parseInt(this.getParameter("tbdCacheSize", ("" + TokenBagDictionary.getCacheSize()))), this.getParameter("tbdCacheEvictionPolicy", TokenBagDictionary.getCacheEvictionPolicy()));
+		}
+		catch (IllegalArgumentException iae) {} // also catches NumberFormatException
 		
 		//	read stop words for title case blocks
 		this.titleCaseBlockStopWords.clear();
 		this.titleCaseBlockStopWords.addContentIgnoreDuplicates(this.readList("titleCaseBlockStopWords"));
 		
+		//	serve learned dictionaries and statistics from memory mapped files shared between JVMs?
+		boolean mappedDictionaries = "true".equals(this.getParameter("mappedDictionaries", "false"));
+		
 		//	read journal/publisher tokens
-		this.jopWordStat = new WordUseStat();
-		try {
-			BufferedReader jwsBr = new BufferedReader(new InputStreamReader(this.dataProvider.getInputStream("knownJopWords.txt"), "UTF-8"));
-			this.jopWordStat.readData(jwsBr);
-			jwsBr.close();
-		} catch (IOException fnfe) {}
+		this.jopWordStat = this.loadWordUseStat("knownJopWords", mappedDictionaries);
 		
 		//	read stop words for author names
 		this.authorNameStopWords.clear();
@@ -548,6 +641,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 					"|" +
 					"(\\,?" + this.editorListLabelBaseRegEx + ")" +
 				")";
+		this.editorListLabelPattern = Pattern.compile(this.editorListLabelRegEx);
 		
 		this.knownNonAuthorNames.addContentIgnoreDuplicates(this.readList("knownNonAuthorNames"));
 		this.knownNonAuthorNameStarts.addContentIgnoreDuplicates(this.readList("knownNonAuthorNameStarts"));
@@ -570,6 +664,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 		
 		this.titleNumberPatterns.clear();
 		this.titleNumberPatterns.addContentIgnoreDuplicates(this.readList("titleNumberPatterns"));
+		this.titleNumberMatcher = new TitleNumberMatcher(this.titleNumberPatterns.toStringArray());
 		
 		this.partDesignatorRegEx = this.readRegEx("partDesignator", this.partDesignatorRegEx);
 		
@@ -699,35 +794,14 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 		
 		this.referenceTypeSystem = BibRefTypeSystem.getInstance(this.dataProvider, "RefClassifierTypeSystem.xml", false);
 		
+		//	store learned dictionaries in compact index mode?
+		boolean compactDictionaries = "true".equals(this.getParameter("compactDictionaries", "false"));
+		
 		//	load learned authors
-		try {
-			InputStream is = this.dataProvider.getInputStream("knownAuthors.txt");
-			StringVector knownAuthors = StringVector.loadList(new InputStreamReader(is, "UTF-8"));
-			is.close();
-			
-			this.knownAuthors = new TokenBagDictionary();
-			
-			for (int a = 0; a < knownAuthors.size(); a++)
-				this.knownAuthors.addEntry(knownAuthors.get(a));
-		}
-		catch (IOException fnfe) {
-			fnfe.printStackTrace(System.out);
-		}
+		this.knownAuthors = this.loadTokenBagDictionary("knownAuthors", false, compactDictionaries, mappedDictionaries);
 		
 		//	load learned journal names and publishers
-		try {
-			InputStream is = this.dataProvider.getInputStream("knownJournalsAndPublishers.txt");
-			StringVector knownJournalsAndPublishers = StringVector.loadList(new InputStreamReader(is, "UTF-8"));
-			is.close();
-			
-			this.knownJournalsAndPublishers = new TokenBagDictionary(true);
-			
-			for (int a = 0; a < knownJournalsAndPublishers.size(); a++)
-				this.knownJournalsAndPublishers.addEntry(knownJournalsAndPublishers.get(a));
-		}
-		catch (IOException fnfe) {
-			fnfe.printStackTrace(System.out);
-		}
+		this.knownJournalsAndPublishers = this.loadTokenBagDictionary("knownJournalsAndPublishers", true, compactDictionaries, mappedDictionaries);
 		
 		//	stop words for recognition
 		this.journalPublisherStopWords.clear();
@@ -762,6 +836,145 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 		}
 	}
 	
+	/* Loads a token bag dictionary from its text file, which remains the
+	 * source of truth. A binary snapshot is used instead of tokenizing the
+	 * entries if one exists and matches the checksum of the text; otherwise,
+	 * the snapshot is (re-)built after loading the text. In mapped mode, an
+	 * index file matching the checksum of the text is memory mapped instead,
+	 * and (re-)built from the loaded dictionary if absent or outdated. */
+	private TokenBagDictionary loadTokenBagDictionary(String name, boolean orderSensitive, boolean compactIndex, boolean mappedIndex) {
+		TokenBagDictionary tbd = new TokenBagDictionary(orderSensitive, compactIndex);
+		try {
+			
+			//	read text and compute fingerprint
+			byte[] textBytes = this.readDataBytes(name + ".txt");
+			String textFingerprint = getDataFingerprint(textBytes);
+			
+			//	try mapping index file first
+			File indexFile = (mappedIndex ? this.getDataFile(name + ".tbm") : null);
+			if ((indexFile != null) && indexFile.exists()) try {
+				if (tbd.mapIndexFile(indexFile, textFingerprint))
+					return tbd;
+			}
+			catch (IOException ioe) {
+				System.out.println("Could not map index file of " + name + ": " + ioe.getMessage());
+			}
+			
+			//	try snapshot next
+			if (this.dataProvider.isDataAvailable(name + ".tbd")) try {
+				InputStream sis = new BufferedInputStream(this.dataProvider.getInputStream(name + ".tbd"));
+				boolean snapshotLoaded = tbd.readSnapshot(sis, textFingerprint);
+				sis.close();
+				if (snapshotLoaded)
+					return this.mapTokenBagDictionary(name, tbd, indexFile, textFingerprint, orderSensitive, compactIndex);
+			}
+			catch (Exception e) {
+				System.out.println("Could not load snapshot of " + name + ": " + e.getMessage());
+			}
+			
+			//	load text
+			StringVector entries = StringVector.loadList(new InputStreamReader(new ByteArrayInputStream(textBytes), "UTF-8"));
+			for (int e = 0; e < entries.size(); e++)
+				tbd.addEntry(entries.get(e));
+			tbd.compact();
+			
+			//	store snapshot for next time
+			if (this.dataProvider.isDataEditable(name + ".tbd")) try {
+				OutputStream sos = new BufferedOutputStream(this.dataProvider.getOutputStream(name + ".tbd"));
+				tbd.writeSnapshot(sos, textFingerprint);
+				sos.flush();
+				sos.close();
+			}
+			catch (IOException ioe) {
+				ioe.printStackTrace(System.out);
+			}
+			
+			//	build and map index file
+			return this.mapTokenBagDictionary(name, tbd, indexFile, textFingerprint, orderSensitive, compactIndex);
+		}
+		catch (IOException fnfe) {
+			fnfe.printStackTrace(System.out);
+		}
+		return tbd;
+	}
+	
+	private TokenBagDictionary mapTokenBagDictionary(String name, TokenBagDictionary tbd, File indexFile, String textFingerprint, boolean orderSensitive, boolean compactIndex) {
+		if (indexFile == null)
+			return tbd;
+		try {
+			tbd.writeIndexFile(indexFile, textFingerprint);
+			TokenBagDictionary mTbd = new TokenBagDictionary(orderSensitive, compactIndex);
+			if (mTbd.mapIndexFile(indexFile, textFingerprint))
+				return mTbd;
+		}
+		catch (IOException ioe) {
+			System.out.println("Could not create index file of " + name + ": " + ioe.getMessage());
+		}
+		return tbd; // keep heap based dictionary if mapping fails
+	}
+	
+	/* Loads word use statistics from their text file, which remains the
+	 * source of truth. In mapped mode, a data file matching the checksum of
+	 * the text is memory mapped instead, and (re-)built from the text if
+	 * absent or outdated. */
+	private WordUseStat loadWordUseStat(String name, boolean mapped) {
+		WordUseStat wus = new WordUseStat();
+		try {
+			byte[] textBytes = this.readDataBytes(name + ".txt");
+			String textFingerprint = getDataFingerprint(textBytes);
+			
+			//	try mapping data file first
+			File mappedFile = (mapped ? this.getDataFile(name + ".wsm") : null);
+			if ((mappedFile != null) && mappedFile.exists()) try {
+				if (wus.mapData(mappedFile, textFingerprint))
+					return wus;
+			}
+			catch (IOException ioe) {
+				System.out.println("Could not map data file of " + name + ": " + ioe.getMessage());
+			}
+			
+			//	load text
+			BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(textBytes), "UTF-8"));
+			wus.readData(br);
+			br.close();
+			
+			//	build and map data file
+			if (mappedFile != null) try {
+				wus.writeMappedData(mappedFile, textFingerprint);
+				WordUseStat mWus = new WordUseStat();
+				if (mWus.mapData(mappedFile, textFingerprint))
+					return mWus;
+			}
+			catch (IOException ioe) {
+				System.out.println("Could not create data file of " + name + ": " + ioe.getMessage());
+			}
+		} catch (IOException fnfe) {}
+		return wus;
+	}
+	
+	private byte[] readDataBytes(String name) throws IOException {
+		InputStream is = this.dataProvider.getInputStream(name);
+		ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int r; (r = is.read(buffer)) != -1;)
+			dataBytes.write(buffer, 0, r);
+		is.close();
+		return dataBytes.toByteArray();
+	}
+	
+	private static String getDataFingerprint(byte[] dataBytes) {
+		CRC32 dataCrc = new CRC32();
+		dataCrc.update(dataBytes);
+		return (dataBytes.length + "-" + Long.toHexString(dataCrc.getValue()));
+	}
+	
+	/* Resolves a data item to a file for memory mapping, which only works if
+	 * our data provider is backed by a file system folder. */
+	private File getDataFile(String name) {
+		File dataPath = new File(this.dataProvider.getAbsolutePath());
+		return (dataPath.isDirectory() ? new File(dataPath, name) : null);
+	}
+	
 	private String[] readList(String name) {
 		StringVector list = new StringVector();
 		try {
@@ -783,18 +996,33 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 			InputStream is = this.dataProvider.getInputStream(name + ".regEx.txt");
 			StringVector regEx = StringVector.loadList(new InputStreamReader(is, "UTF-8"));
 			is.close();
-			return RegExUtils.normalizeRegEx(regEx.concatStrings("\n"));
+			String normRegEx = RegExUtils.normalizeRegEx(regEx.concatStrings("\n"));
+			Pattern.compile(normRegEx); // fail right here rather than on every reference
+			return normRegEx;
 		}
 		catch (IOException ioe) {
 			System.out.println("Exception loading pattern '" + name + "': " + ioe.getMessage());
 			return def;
 		}
+		catch (PatternSyntaxException pse) {
+			System.out.println("Exception compiling pattern '" + name + "': " + pse.getMessage());
+			return def;
+		}
 	}
 	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.gamta.util.AbstractConfigurableAnalyzer#exitAnalyzer()
 	 */
 	public void exitAnalyzer() {
+		this.configLock.writeLock().lock();
+		try {
+			this.doExitAnalyzer();
+		}
+		finally {
+			this.configLock.writeLock().unlock();
+		}
+	}
+	private void doExitAnalyzer() {
 		
 		//	store learned authors
 		if (this.dataProvider.isDataEditable("knownAuthors.txt")) try {
@@ -876,6 +1104,15 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 	public void process(MutableAnnotation data, Properties parameters) {}
 	
 	AuthorListStyle parseBibRefs(MutableAnnotation data, MutableAnnotation[] bibRefAnnots, Properties parameters, AuthorListStyle authorListStyle, ProgressMonitor pm) {
+		this.configLock.readLock().lock();
+		try {
+			return this.doParseBibRefs(data, bibRefAnnots, parameters, authorListStyle, pm);
+		}
+		finally {
+			this.configLock.readLock().unlock();
+		}
+	}
+	private AuthorListStyle doParseBibRefs(MutableAnnotation data, MutableAnnotation[] bibRefAnnots, Properties parameters, AuthorListStyle authorListStyle, ProgressMonitor pm) {
 		
 		//	check arguments
 		if (bibRefAnnots.length == 0)
@@ -894,7 +1131,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 					allRefNums = false;
 					break;
 				}
-				if (bibRefAnnots[r].valueAt(n).matches("[1-9][0-9]*"))
+				if (positiveNumberPattern.matcher(bibRefAnnots[r].valueAt(n)).matches())
 					refNums[r] = Integer.parseInt(bibRefAnnots[r].valueAt(n));
 				else {
 					allRefNums = false;
@@ -948,7 +1185,7 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 		
 		//	initialize data containers
 		for (int r = 0; r < bibRefAnnots.length; r++)
-			bibRefs[r] = new BibRef(bibRefAnnots[r]);
+			bibRefs[r] = new BibRef(bibRefAnnots[r], data);
 		
 		//	get document style if available
 		DocumentStyle docStyle = DocumentStyle.getStyleFor(data);
@@ -971,27 +1208,41 @@ public abstract class RefParse extends AbstractConfigurableAnalyzer implements B
 		return als;
 	}
 	
-	AuthorListStyle parseBibRefs(BibRef[] bibRefs, AuthorListStyle authorListStyle, DocumentStyle bibRefStyle, ProgressMonitor pm) {
+	//	author name style data, derived from document style only once per document and shared by all its references
+	private static class AuthorNameStyle {
+		final NameStyle nameStyle;
+		final String namePartOrder;
+		final String listSeparatorPattern;
+		final String listEndSeparatorPattern;
+		AuthorNameStyle(DocumentStyle authorNameStyle) {
+			this.nameStyle = NameStyle.createFromTemplate(authorNameStyle);
+			this.namePartOrder = authorNameStyle.getStringProperty("namePartOrder", null);
+			this.listSeparatorPattern = authorNameStyle.getStringProperty("nameListSeparatorPattern", "(\\,|\\;|\\&|and|et|e|y|und)");
+			this.listEndSeparatorPattern = authorNameStyle.getStringProperty("nameListEndSeparatorPattern", "((\\,\\;\\s*\\&)|(\\,\\s*and)|\\,|\\;|\\&|and|et|e|y|und)");
+		}
+	}
+	AuthorListStyle parseBibRefs(final BibRef[] bibRefs, AuthorListStyle authorListStyle, DocumentStyle bibRefStyle, ProgressMonitor pm) {
 		long start;
 		
 		//	get and wrap author name style
-		DocumentStyle authorNameStyle = bibRefStyle.getSubset(AUTHOR_ANNOTATION_TYPE);
-		NameStyle nameStyle = NameStyle.createFromTemplate(authorNameStyle);
+		final AuthorNameStyle authorNameStyle = new AuthorNameStyle(bibRefStyle.getSubset(AUTHOR_ANNOTATION_TYPE));
+		final NameStyle nameStyle = authorNameStyle.nameStyle;
 		
 		//	initialize data containers and extract basic details (collect evidence on name form along the way)
 		pm.setStep("Extracting basic details");
 		pm.setBaseProgress(0);
 		pm.setMaxProgress(35);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			
-			//	mark numbers in contexts like "VLDB-11", "VLDB '11", "of the 2011 Joint Conference", etc.
-			this.markTitleNumbers(bibRefs[r]);
-			
-			//	mark base details if necessary
-			this.getBaseDetails(bibRefs[r], nameStyle);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				
+				//	mark numbers in contexts like "VLDB-11", "VLDB '11", "of the 2011 Joint Conference", etc.
+				markTitleNumbers(bibRef);
+				
+				//	mark base details if necessary
+				getBaseDetails(bibRef, nameStyle);
+			}
+		}, pm);
 		System.out.println("TIME: Base details extracted after " + (System.currentTimeMillis() - start) + "ms");
 		
 		/* TODO
@@ -1047,16 +1298,18 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(38);
 		pm.setMaxProgress(39);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].preExistingStructure)
-				continue;
-			if (DEBUG) System.out.println("Filtering number details in " + bibRefs[r].annotation.toXML());
-			if (filterByNumberDetailBlocks)
-				this.filterBaseDetailNumbersByBlocks(bibRefs[r]);
-			else this.filterBaseDetailNumbersByDashes(bibRefs[r]);
-			this.filterBaseDetailNumbersByPageRanges(bibRefs[r]);
-		}
+		final boolean filterNumberDetailsByBlocks = filterByNumberDetailBlocks;
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.preExistingStructure)
+					return;
+				if (DEBUG) System.out.println("Filtering number details in " + bibRef.annotation.toXML());
+				if (filterNumberDetailsByBlocks)
+					filterBaseDetailNumbersByBlocks(bibRef);
+				else filterBaseDetailNumbersByDashes(bibRef);
+				filterBaseDetailNumbersByPageRanges(bibRef);
+			}
+		}, pm);
 		System.out.println("TIME: Base details filtered after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	classify part designators
@@ -1064,12 +1317,13 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(39);
 		pm.setMaxProgress(40);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].preExistingStructure)
-				continue;
-			this.classifyPartDesignators(bibRefs[r], true);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.preExistingStructure)
+					return;
+				classifyPartDesignators(bibRef, true);
+			}
+		}, pm);
 		System.out.println("TIME: Base details classified after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	mark author lists
@@ -1077,10 +1331,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(40);
 		pm.setMaxProgress(45);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			bibRefs[r].authorLists = this.getAuthorLists(bibRefs[r], bibRefs[r].annotation, bibRefs[r].authorNames, authorNameStyle);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				bibRef.authorLists = getAuthorLists(bibRef, bibRef.annotation, bibRef.authorNames, authorNameStyle);
+			}
+		}, pm);
 		System.out.println("TIME: Author lists extracted after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	filter author lists based on style
@@ -1098,19 +1353,24 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(50);
 		pm.setMaxProgress(55);
 		start = System.currentTimeMillis();
-		CountingSet structureCounts = new CountingSet();
-		HashMap typeElementSets = new HashMap();
-		HashMap summaryElementSets = new HashMap();
-		HashMap punctSummaryElementSets = new HashMap();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			
-			//	get structures
-			this.getStructures(bibRefs[r]);
-			
-			//	index structures
-			this.indexStructures(bibRefs[r], structureCounts, punctSummaryElementSets, punctSummaryElementSets, typeElementSets);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				getStructures(bibRef);
+			}
+		}, pm);
+		
+		//	index structures (needs to be in reference order, as counts depend on it)
+		final StructureSignatureTable structureSignatures = new StructureSignatureTable();
+		final StructureSignatureTable.Group typeSignatures = new StructureSignatureTable.Group();
+		final StructureSignatureTable.Group summarySignatures = new StructureSignatureTable.Group();
+		final StructureSignatureTable.Group punctSummarySignatures = new StructureSignatureTable.Group();
+		for (int r = 0; r < bibRefs.length; r++)
+			this.indexStructures(bibRefs[r], structureSignatures, punctSummarySignatures, punctSummarySignatures, typeSignatures);
+		
+		//	index subsumption (counts are final now, and selection only reads the index)
+		structureSignatures.indexSubsumers(typeSignatures);
+		structureSignatures.indexSubsumers(summarySignatures);
+		structureSignatures.indexSubsumers(punctSummarySignatures);
 		System.out.println("TIME: Structures generated after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	select best structure for each bibliographic reference, using global context
@@ -1118,10 +1378,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(55);
 		pm.setMaxProgress(60);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			this.selectStructure(bibRefs[r], bibRefs.length, structureCounts, punctSummaryElementSets, summaryElementSets, typeElementSets);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				selectStructure(bibRef, bibRefs.length, structureSignatures, punctSummarySignatures, summarySignatures, typeSignatures);
+			}
+		}, pm);
 		System.out.println("TIME: Structures selected after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	fill in author list gaps (now that we have a structure established, we can work with more fault tolerance)
@@ -1133,21 +1394,27 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		int authorListTerminated = 0;
 		for (int r = 0; r < bibRefs.length; r++) {
 			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].structure.punctSummaryString.matches("authorList\\s.*"))
+			if (authorListStartPattern.matcher(bibRefs[r].structure.getPunctSummaryString()).matches())
 				authorListLeading++;
 			if (bibRefs[r].parentRef == null) {
-				if (bibRefs[r].structure.punctSummaryString.matches("authorList\\s([\\.\\,\\:\\;\\(\\[]\\s)*year.*"))
+				if (authorListYearStartPattern.matcher(bibRefs[r].structure.getPunctSummaryString()).matches())
 					authorListTerminated++;
 			}
 			else {
-				if (bibRefs[r].structure.punctSummaryString.matches("authorList\\s.*") && (bibRefs[r].editorListLabels.length != 0))
+				if (authorListStartPattern.matcher(bibRefs[r].structure.getPunctSummaryString()).matches() && (bibRefs[r].editorListLabels.length != 0))
 					authorListTerminated++;
 			}
 		}
 		if (DEBUG) System.out.println("Author list is leading in " + authorListLeading + " references of " + bibRefs.length);
 		if (DEBUG) System.out.println("Author list is terminated in " + authorListTerminated + " references of " + bibRefs.length);
-		for (int r = 0; r < bibRefs.length; r++)
-			this.completeAuthorLists(bibRefs[r], bibRefs.length, nameStyle, authorListStyle, ((authorListLeading * 3) > (bibRefs.length * 2)), ((authorListTerminated * 3) > (bibRefs.length * 2)));
+		final AuthorListStyle fAuthorListStyle = authorListStyle;
+		final boolean isAuthorListLeading = ((authorListLeading * 3) > (bibRefs.length * 2));
+		final boolean isAuthorListTerminated = ((authorListTerminated * 3) > (bibRefs.length * 2));
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				completeAuthorLists(bibRef, bibRefs.length, nameStyle, fAuthorListStyle, isAuthorListLeading, isAuthorListTerminated);
+			}
+		}, pm);
 		System.out.println("TIME: author lists completed after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	now that we're doing title, volume title, and journal/publisher together, we don't need to handle volume references any further
@@ -1159,19 +1426,20 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(65);
 		pm.setMaxProgress(66);
 		start = System.currentTimeMillis();
-		String primarySeparator = this.selectPrimarySeparator(bibRefs);
+		final String primarySeparator = this.selectPrimarySeparator(bibRefs);
 		
 		//	identify volume references
 		pm.setStep("Extracting volume references");
 		pm.setBaseProgress(66);
 		pm.setMaxProgress(70);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].preExistingStructure)
-				continue;
-			this.extractVolumeReference(bibRefs[r], primarySeparator, authorListStyle, nameStyle, authorNameStyle);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.preExistingStructure)
+					return;
+				extractVolumeReference(bibRef, primarySeparator, fAuthorListStyle, nameStyle, authorNameStyle);
+			}
+		}, pm);
 		System.out.println("TIME: Volume references extracted after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	have to recurse even before getting title and origin, so to handle references whose origin lies outside an embedded volume reference
@@ -1189,15 +1457,16 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(75);
 		pm.setMaxProgress(80);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			this.getWordBlocks(bibRefs[r], bibRefs[r].structure.details);
-			if (DEBUG) {
-				System.out.println("Word blocks:");
-				for (int b = 0; b < bibRefs[r].wordBlocks.length; b++)
-					System.out.println(" - " + bibRefs[r].wordBlocks[b].getValue());
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				getWordBlocks(bibRef, bibRef.structure.details);
+				if (DEBUG) {
+					System.out.println("Word blocks:");
+					for (int b = 0; b < bibRef.wordBlocks.length; b++)
+						System.out.println(" - " + bibRef.wordBlocks[b].getValue());
+				}
 			}
-		}
+		}, pm);
 		System.out.println("TIME: Word blocks extracted after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	find most frequent after-title separator
@@ -1205,8 +1474,8 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(80);
 		pm.setMaxProgress(81);
 		start = System.currentTimeMillis();
-		String tJopSeparator = this.selectTitleJournalPublisherSeparator(bibRefs);
-		TokenSequence tJopSeparatorTokens = ((tJopSeparator.length() == 0) ? null : Gamta.newTokenSequence(tJopSeparator, bibRefs[0].annotation.getTokenizer()));
+		final String tJopSeparator = this.selectTitleJournalPublisherSeparator(bibRefs);
+		final TokenSequence tJopSeparatorTokens = ((tJopSeparator.length() == 0) ? null : Gamta.newTokenSequence(tJopSeparator, bibRefs[0].annotation.getTokenizer()));
 		System.out.println("TIME: T-JoP separator selected after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	classify word blocks as title, volume title, and journal/publisher
@@ -1214,12 +1483,14 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(81);
 		pm.setMaxProgress(85);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].preExistingStructure)
-				continue;
-			this.selectTitleJournalPublisher(bibRefs[r], tJopSeparator, tJopSeparatorTokens, bibRefs, false);
-		}
+		final SurroundingTypeIndex surroundingTypes = new SurroundingTypeIndex(bibRefs);
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.preExistingStructure)
+					return;
+				selectTitleJournalPublisher(bibRef, tJopSeparator, tJopSeparatorTokens, surroundingTypes, false);
+			}
+		}, pm);
 		System.out.println("TIME: Title and JoP selected after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	filter paginations and part designators spanned by title or volume title
@@ -1227,12 +1498,13 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(85);
 		pm.setMaxProgress(88);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].preExistingStructure)
-				continue;
-			this.filterBaseDetailNumbersByPosition(bibRefs[r]);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.preExistingStructure)
+					return;
+				filterBaseDetailNumbersByPosition(bibRef);
+			}
+		}, pm);
 		System.out.println("TIME: Part designators and paginations filered after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	clean up any remaining volume reference
@@ -1240,13 +1512,15 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(88);
 		pm.setMaxProgress(90);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].preExistingStructure)
-				continue;
-			if (bibRefs[r].volumeRef != null)
-				AnnotationFilter.removeAnnotations(bibRefs[r].annotation, VOLUME_REFERENCE_ANNOTATION_TYPE);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.preExistingStructure)
+					return;
+				if (bibRef.volumeRef != null) synchronized (bibRef.documentLock) {
+					AnnotationFilter.removeAnnotations(bibRef.annotation, VOLUME_REFERENCE_ANNOTATION_TYPE);
+				}
+			}
+		}, pm);
 		System.out.println("TIME: Volume references cleaned up after " + (System.currentTimeMillis() - start) + "ms");
 //		
 //		/* TODOnot
@@ -1336,12 +1610,13 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(90);
 		pm.setMaxProgress(95);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].type != null)
-				continue;
-			this.classify(bibRefs[r]);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.type != null)
+					return;
+				classify(bibRef);
+			}
+		}, pm);
 		System.out.println("TIME: References classified after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	further split or classify origin (not in volume references, as main call gets here after returning from integrated recursion, and generic origin passes on more easily)
@@ -1350,10 +1625,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			pm.setBaseProgress(93);
 			pm.setMaxProgress(98);
 			start = System.currentTimeMillis();
-			for (int r = 0; r < bibRefs.length; r++) {
-				pm.setProgress((r * 100) / bibRefs.length);
-				this.parseOrigin(bibRefs[r], primarySeparator);
-			}
+			this.runBibRefStage(bibRefs, new BibRefStage() {
+				void process(BibRef bibRef) {
+					parseOrigin(bibRef, primarySeparator);
+				}
+			}, pm);
 			System.out.println("TIME: Origins parsed after " + (System.currentTimeMillis() - start) + "ms");
 		}
 		
@@ -1362,18 +1638,80 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		pm.setBaseProgress(95);
 		pm.setMaxProgress(100);
 		start = System.currentTimeMillis();
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].preExistingStructure)
-				continue;
-			this.annotateDetails(bibRefs[r]);
-		}
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.preExistingStructure)
+					return;
+				synchronized (bibRef.documentLock) {
+					annotateDetails(bibRef);
+				}
+			}
+		}, pm);
 		System.out.println("TIME: Details annotated after " + (System.currentTimeMillis() - start) + "ms");
 		
 		//	finally ...
 		return authorListStyle;
 	}
 	
+	/**
+	 * Run a parsing stage on every reference in an array, spreading the
+	 * references out over up to <code>maxCores</code> threads. Stages run
+	 * through here must only modify the reference handed to them; anything
+	 * that aggregates over all references has to happen between two calls
+	 * to this method. Any writes to the document a reference belongs to have
+	 * to synchronize on the reference's document lock.
+	 * @param bibRefs the references to process
+	 * @param stage the stage to run
+	 * @param pm the progress monitor to report to
+	 */
+	private void runBibRefStage(final BibRef[] bibRefs, final BibRefStage stage, final ProgressMonitor pm) {
+		final int[] processed = {0};
+		ParallelFor pf = new ParallelFor() {
+			public void doFor(int r) throws Exception {
+				stage.process(bibRefs[r]);
+				synchronized (processed) {
+					processed[0]++;
+					pm.setProgress((processed[0] * 100) / bibRefs.length);
+				}
+			}
+		};
+		ParallelJobRunner.runParallelFor(pf, bibRefs.length, ((bibRefs.length < minParallelStageBibRefs) ? 1 : this.maxCores));
+		if (pf.hasException()) {
+			Exception e = pf.getException();
+			if (e instanceof RuntimeException)
+				throw ((RuntimeException) e);
+			else throw new RuntimeException(e);
+		}
+	}
+	private static final int minParallelStageBibRefs = 8;
+	
+	private static abstract class BibRefStage {
+		abstract void process(BibRef bibRef);
+	}
+	
+	//	AnnotationPatternMatcher caches parsed patterns in an unsynchronized map, so we have to fill it before any parallel stage gets to it
+	private static synchronized void primeAnnotationPatterns() {
+		if (annotationPatternsPrimed)
+			return;
+		ArrayList patterns = new ArrayList();
+		patterns.add(brokenUrlPattern);
+		patterns.add(labeledUrlPattern);
+		patterns.add(authorListExpansionPattern);
+		patterns.add(authorListCompletionPattern);
+		patterns.add(etAlAuthorListPattern);
+		patterns.add(leadingEditorListLabelPattern);
+		patterns.add(tailingEditorListLabelPattern);
+		patterns.addAll(Arrays.asList(labeledDatePatterns));
+		patterns.addAll(Arrays.asList(datePatterns));
+		patterns.addAll(Arrays.asList(subPartDesignatorPatterns));
+		patterns.addAll(Arrays.asList(numberDetailBlockPatterns));
+		TokenSequence tokens = Gamta.newTokenSequence("", Gamta.INNER_PUNCTUATION_TOKENIZER);
+		for (int p = 0; p < patterns.size(); p++)
+			AnnotationPatternMatcher.getMatchTrees(tokens, new AnnotationIndex(), ((String) patterns.get(p)));
+		annotationPatternsPrimed = true;
+	}
+	private static boolean annotationPatternsPrimed = false;
+	
 	private boolean filterNumberDetailsByDetailOrder(BibRef bibRef, String[] detailTypes) {
 		boolean detailsChangedInRound;
 		boolean detailsChanged = false;
@@ -1434,8 +1772,8 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		
 		//	collect surrounding punctuation
-		String punctuationBefore = (((detail.getStartIndex() != 0) && Gamta.isPunctuation(bibRef.annotation.valueAt(detail.getStartIndex()-1))) ? bibRef.annotation.valueAt(detail.getStartIndex()-1) : null);
-		String punctuationAfter = (((detail.getEndIndex() < bibRef.annotation.size()) && Gamta.isPunctuation(bibRef.annotation.valueAt(detail.getEndIndex()))) ? bibRef.annotation.valueAt(detail.getEndIndex()) : null);
+		String punctuationBefore = (((detail.getStartIndex() != 0) && bibRef.hasShape((detail.getStartIndex()-1), PUNCTUATION_SHAPE)) ? bibRef.annotation.valueAt(detail.getStartIndex()-1) : null);
+		String punctuationAfter = (((detail.getEndIndex() < bibRef.annotation.size()) && bibRef.hasShape(detail.getEndIndex(), PUNCTUATION_SHAPE)) ? bibRef.annotation.valueAt(detail.getEndIndex()) : null);
 		
 		//	check detail for removal or re-designation
 		String newDetailType = null;
@@ -1471,7 +1809,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		else {
 			
 			//	re-designate single page number immediately preceded by JoP as part designator in absence of both volume reference and other part designator: a journal volume is a lot more of a citable entity than a single untitled page in a book ...
-			if ((detail.size() == 1) && detail.firstValue().matches("[1-9][0-9]*") && !detailTypesAll.contains(PART_DESIGNATOR_ANNOTATION_TYPE) && (JOURNAL_NAME_OR_PUBLISHER_ANNOTATION_TYPE.equals(detailTypeBefore) || JOURNAL_NAME_ANNOTATION_TYPE.equals(detailTypeBefore))) {
+			if ((detail.size() == 1) && bibRef.hasShape(detail.getStartIndex(), POSITIVE_NUMBER_SHAPE) && !detailTypesAll.contains(PART_DESIGNATOR_ANNOTATION_TYPE) && (JOURNAL_NAME_OR_PUBLISHER_ANNOTATION_TYPE.equals(detailTypeBefore) || JOURNAL_NAME_ANNOTATION_TYPE.equals(detailTypeBefore))) {
 				newDetailType = PART_DESIGNATOR_ANNOTATION_TYPE;
 				detail.changeTypeTo(PART_DESIGNATOR_ANNOTATION_TYPE);
 				detail.setAttribute(TYPE_ATTRIBUTE, VOLUME_DESIGNATOR_TYPE);
@@ -1674,15 +2012,30 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		for (int b = 1; b < bibRef.wordBlocks.length; b++) {
 			if (!this.hasCapWord(bibRef.wordBlocks[b]))
 				continue;
-			if (this.knownJournalsAndPublishers.lookup(TokenSequenceUtils.concatTokens(bibRef.wordBlocks[b], true, true))) {
+			
+			//	look up block together with subsequent adjacent blocks in a single pass
+			int[] ends = new int[bibRef.wordBlocks.length - b];
+			ends[0] = bibRef.wordBlocks[b].getEndIndex();
+			int endCount = 1;
+			for (int l = (b+1); l < bibRef.wordBlocks.length; l++) {
+				if ((bibRef.wordBlocks[l].getStartIndex() - bibRef.wordBlocks[l-1].getEndIndex()) > 1)
+					break;
+				ends[endCount++] = bibRef.wordBlocks[l].getEndIndex();
+			}
+			if (endCount < ends.length) {
+				int[] allEnds = ends;
+				ends = new int[endCount];
+				System.arraycopy(allEnds, 0, ends, 0, endCount);
+			}
+			int[] matches = this.knownJournalsAndPublishers.lookupMatchSpans(bibRef.annotation, bibRef.wordBlocks[b].getStartIndex(), ends);
+			
+			if (matches[0] != TokenBagDictionary.NOT_MATCHED) {
 				if (DEBUG) System.out.println("    - " + bibRef.wordBlocks[b]);
 				bibRef.wordBlocks[b].setAttribute("isKnown", "true");
 				knownJopList.add(bibRef.wordBlocks[b]);
 			}
-			for (int l = (b+1); l < bibRef.wordBlocks.length; l++) {
-				if ((bibRef.wordBlocks[l].getStartIndex() - bibRef.wordBlocks[l-1].getEndIndex()) > 1)
-					break;
-				if (this.knownJournalsAndPublishers.lookup(TokenSequenceUtils.concatTokens(bibRef.annotation, bibRef.wordBlocks[b].getStartIndex(), (bibRef.wordBlocks[l].getEndIndex() - bibRef.wordBlocks[b].getStartIndex()), true, true))) {
+			for (int l = (b+1); l < (b + ends.length); l++) {
+				if (matches[l - b] != TokenBagDictionary.NOT_MATCHED) {
 					Annotation knownJop = Gamta.newAnnotation(bibRef.annotation, null, bibRef.wordBlocks[b].getStartIndex(), (bibRef.wordBlocks[l].getEndIndex() - bibRef.wordBlocks[b].getStartIndex()));
 					if (DEBUG) System.out.println("    - " + knownJop);
 					knownJop.setAttribute("isKnown", "true");
@@ -1695,6 +2048,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		return ((Annotation[]) knownJopList.toArray(new Annotation[knownJopList.size()]));
 	}
 	
+	private static final String proceedingsTitleRegEx = "(Proc(\\.|eedings))[^0-9]+[0-9]+"; // year checked numerically afterwards
 	private Annotation[] getProceedingsTitles(BibRef bibRef) {
 		ArrayList knownJopList = new ArrayList();
 		
@@ -1703,40 +2057,58 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		Annotation yearAnnot = ((bibRef.parentRef == null) ? bibRef.year : bibRef.parentRef.year);
 		
 		//	use pattern to find proceedings title from correct year
-		if ((yearAnnots != null) && (yearAnnot != null) && (yearAnnot.length() == 4)) {
-			String year = yearAnnot.getValue();
-			String yearRegEx;
-			if (yearAnnots.length > 1)
-				yearRegEx = (year + "|\\'?" + year.substring(2));
-			else yearRegEx = ("\\'?" + year.substring(2));
-			Annotation[] proceedingsTitles = Gamta.extractAllMatches(bibRef.annotation, ("(Proc(\\.|eedings))[^0-9]+(" + yearRegEx + ")"), true);
+		if ((yearAnnots != null) && (yearAnnot != null) && (yearAnnot.length() == 4)) try {
+			int year = Integer.parseInt(yearAnnot.getValue());
+			
+			//	get proceedings titles ending in any number (the first one after the start, as the gap cannot contain digits)
+			Annotation[] proceedingsTitleCandidates = Gamta.extractAllMatches(bibRef.annotation, proceedingsTitleRegEx, true);
+			
+			//	check tailing numbers against year, and year before if the latter fails
+			Annotation[] proceedingsTitles = getProceedingsTitles(proceedingsTitleCandidates, year, (yearAnnots.length > 1));
 			if (DEBUG) {
 				System.out.println("  - proceedings titles for year " + year + ":");
 				for (int p = 0; p < proceedingsTitles.length; p++)
 					System.out.println("    - " + proceedingsTitles[p]);
 			}
-			if (proceedingsTitles.length == 0) try {
-				year = ("" + (Integer.parseInt(yearAnnot.getValue()) - 1));
-				if (yearAnnots.length > 1)
-					yearRegEx = (year + "|\\'?" + year.substring(2));
-				else yearRegEx = ("\\'?" + year.substring(2));
-				proceedingsTitles = Gamta.extractAllMatches(bibRef.annotation, ("(Proc(\\.|eedings))[^0-9]+(" + yearRegEx + ")"), true);
+			if (proceedingsTitles.length == 0) {
+				proceedingsTitles = getProceedingsTitles(proceedingsTitleCandidates, (year - 1), (yearAnnots.length > 1));
 				if (DEBUG) {
-					System.out.println("  - proceedings titles for year " + year + ":");
+					System.out.println("  - proceedings titles for year " + (year - 1) + ":");
 					for (int p = 0; p < proceedingsTitles.length; p++)
 						System.out.println("    - " + proceedingsTitles[p]);
 				}
-			} catch (NumberFormatException nfe) {}
+			}
 			for (int p = 0; p < proceedingsTitles.length; p++) {
 				proceedingsTitles[p].setAttribute("isProceedings", "true");
 				knownJopList.add(proceedingsTitles[p]);
 			}
-		}
+		} catch (NumberFormatException nfe) {}
 		
 		Collections.sort(knownJopList);
 		return ((Annotation[]) knownJopList.toArray(new Annotation[knownJopList.size()]));
 	}
 	
+	private static Annotation[] getProceedingsTitles(Annotation[] proceedingsTitleCandidates, int year, boolean allowFullYear) {
+		ArrayList proceedingsTitles = new ArrayList();
+		for (int p = 0; p < proceedingsTitleCandidates.length; p++) {
+			
+			//	get tailing digits (the match ends with them, and they are the only ones in the match)
+			String lastValue = proceedingsTitleCandidates[p].lastValue();
+			int digitStart = lastValue.length();
+			while ((digitStart != 0) && ('0' <= lastValue.charAt(digitStart-1)) && (lastValue.charAt(digitStart-1) <= '9'))
+				digitStart--;
+			int digitCount = (lastValue.length() - digitStart);
+			if ((digitCount != 2) && (digitCount != 4))
+				continue;
+			int number = Integer.parseInt(lastValue.substring(digitStart));
+			
+			//	full year only counts if reference has multiple years, two-digit year always
+			if ((digitCount == 4) ? (allowFullYear && (number == year)) : (number == (year % 100)))
+				proceedingsTitles.add(proceedingsTitleCandidates[p]);
+		}
+		return ((Annotation[]) proceedingsTitles.toArray(new Annotation[proceedingsTitles.size()]));
+	}
+	
 	private float getJopScore(Annotation wordBlock) {
 		float js = 0;
 		int jwc = 0;
@@ -1786,36 +2158,60 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 	}
 	private static class WordUseStat {
-		TreeMap wordStats = new TreeMap(String.CASE_INSENSITIVE_ORDER);
+		TreeMap wordStats = new TreeMap(String.CASE_INSENSITIVE_ORDER); // only holds words counted since mapping if mapped data present
+		MappedWordUseData mappedWordStats = null;
 		boolean dirty = false;
-		void count(String word, boolean inJop, boolean jopStart, boolean jopEnd) {
+		synchronized void count(String word, boolean inJop, boolean jopStart, boolean jopEnd) {
 			WordUseData wud = ((WordUseData) this.wordStats.get(word));
-			if (wud == null) {
+			if ((wud == null) && (this.mappedWordStats != null))
+				wud = this.mappedWordStats.get(word);
+			if (wud == null)
 				wud = new WordUseData(word);
-				this.wordStats.put(word, wud);
-			}
+			this.wordStats.put(word, wud);
 			wud.count(inJop, jopStart, jopEnd);
 			this.dirty = true;
 		}
-		float getScore(String word, boolean jopStart, boolean jopEnd) {
+		synchronized float getScore(String word, boolean jopStart, boolean jopEnd) {
 			WordUseData wud = ((WordUseData) this.wordStats.get(word));
+			if ((wud == null) && (this.mappedWordStats != null))
+				wud = this.mappedWordStats.get(word);
 			if (wud == null)
 				return 0;
 			return wud.getScore(jopStart, jopEnd);
 		}
-		boolean isDirty() {
+		synchronized boolean isDirty() {
 			return this.dirty;
 		}
-		void writeData(BufferedWriter bw) throws IOException {
-			for (Iterator wit = this.wordStats.keySet().iterator(); wit.hasNext();) {
-				WordUseData wud = ((WordUseData) this.wordStats.get(wit.next()));
+		synchronized void writeData(BufferedWriter bw) throws IOException {
+			Iterator wit = this.wordStats.values().iterator();
+			WordUseData wud = (wit.hasNext() ? ((WordUseData) wit.next()) : null);
+			
+			//	merge mapped data with words counted since (both are sorted case insensitively)
+			for (int w = 0; (this.mappedWordStats != null) && (w < this.mappedWordStats.size()); w++) {
+				WordUseData mWud = this.mappedWordStats.get(w);
+				while ((wud != null) && (String.CASE_INSENSITIVE_ORDER.compare(wud.word, mWud.word) < 0)) {
+					bw.write(wud.toDataString());
+					bw.newLine();
+					wud = (wit.hasNext() ? ((WordUseData) wit.next()) : null);
+				}
+				if ((wud != null) && (String.CASE_INSENSITIVE_ORDER.compare(wud.word, mWud.word) == 0)) {
+					bw.write(wud.toDataString());
+					wud = (wit.hasNext() ? ((WordUseData) wit.next()) : null);
+				}
+				else bw.write(mWud.toDataString());
+				bw.newLine();
+			}
+			
+			//	write (remaining) words
+			while (wud != null) {
 				bw.write(wud.toDataString());
 				bw.newLine();
+				wud = (wit.hasNext() ? ((WordUseData) wit.next()) : null);
 			}
 			bw.flush();
 			this.dirty = false;
 		}
-		void readData(BufferedReader br) throws IOException {
+		synchronized void readData(BufferedReader br) throws IOException {
 			String dl;
 			while ((dl = br.readLine()) != null) {
 				String[] d = dl.split("\\|");
@@ -1823,6 +2219,98 @@ Observe in the long haul if any of these rules does more harm than good !!!
 					this.wordStats.put(d[0], new WordUseData(d[0], Integer.parseInt(d[1]), Integer.parseInt(d[2]), Integer.parseInt(d[3]), Integer.parseInt(d[4])));
 			}
 		}
+		synchronized void writeMappedData(File file, String sourceFingerprint) throws IOException {
+			MappedWordUseData.write(file, sourceFingerprint, ((WordUseData[]) this.wordStats.values().toArray(new WordUseData[this.wordStats.size()])));
+		}
+		synchronized boolean mapData(File file, String sourceFingerprint) throws IOException {
+			if ((this.mappedWordStats != null) || (this.wordStats.size() != 0))
+				return false;
+			this.mappedWordStats = MappedWordUseData.map(file, sourceFingerprint);
+			return (this.mappedWordStats != null);
+		}
+	}
+	
+	/* Word use statistics residing in a memory mapped file, sorted case
+	 * insensitively like the word use statistics proper, and looked up by
+	 * words normalized so they are equal exactly if the case insensitive
+	 * order considers them equal. */
+	private static class MappedWordUseData {
+		private static final int MAGIC = 0x4A57534D; // 'JWSM'
+		private static final int VERSION = 1;
+		private final ByteBuffer data;
+		private final MappedStringTable keys;
+		private final MappedStringTable words;
+		private final int countsStart;
+		private MappedWordUseData(ByteBuffer data, int start) {
+			this.data = data;
+			this.keys = new MappedStringTable(data, start);
+			this.words = new MappedStringTable(data, this.keys.getEnd());
+			this.countsStart = this.words.getEnd();
+		}
+		int size() {
+			return this.words.size();
+		}
+		WordUseData get(String word) {
+			int id = this.keys.getId(normalize(word));
+			return ((id == -1) ? null : this.get(id));
+		}
+		WordUseData get(int id) {
+			int pos = (this.countsStart + (id * 16));
+			return new WordUseData(this.words.get(id), this.data.getInt(pos), this.data.getInt(pos + 4), this.data.getInt(pos + 8), this.data.getInt(pos + 12));
+		}
+		private static String normalize(String word) {
+			char[] chars = new char[word.length()];
+			for (int c = 0; c < chars.length; c++)
+				chars[c] = Character.toLowerCase(Character.toUpperCase(word.charAt(c)));
+			return new String(chars);
+		}
+		static void write(File file, String sourceFingerprint, WordUseData[] wuds) throws IOException {
+			String[] keys = new String[wuds.length];
+			String[] words = new String[wuds.length];
+			for (int w = 0; w < wuds.length; w++) {
+				keys[w] = normalize(wuds[w].word);
+				words[w] = wuds[w].word;
+			}
+			file = file.getAbsoluteFile();
+			File tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				MappedStringTable.writeString(out, sourceFingerprint);
+				MappedStringTable.write(out, keys);
+				MappedStringTable.write(out, words);
+				for (int w = 0; w < wuds.length; w++) {
+					out.writeInt(wuds[w].count);
+					out.writeInt(wuds[w].jopCount);
+					out.writeInt(wuds[w].jopStartCount);
+					out.writeInt(wuds[w].jopEndCount);
+				}
+				out.flush();
+			}
+			finally {
+				out.close();
+			}
+			MappedStringTable.replaceFile(tempFile, file);
+		}
+		static MappedWordUseData map(File file, String sourceFingerprint) throws IOException {
+			ByteBuffer data = MappedStringTable.map(file);
+			try {
+				if ((data.getInt(0) != MAGIC) || (data.getInt(4) != VERSION))
+					return null;
+				String fingerprint = MappedStringTable.readString(data, 8);
+				if (!sourceFingerprint.equals(fingerprint))
+					return null;
+				MappedWordUseData mwud = new MappedWordUseData(data, (8 + MappedStringTable.getStringBytes(fingerprint)));
+				return (((mwud.countsStart + (mwud.size() * 16)) == data.capacity()) ? mwud : null);
+			}
+			catch (IndexOutOfBoundsException ioobe) {
+				return null; // truncated file
+			}
+			catch (NegativeArraySizeException nase) {
+				return null; // broken file
+			}
+		}
 	}
 	
 	private void getWordBlocks(BibRef bibRef, String[] detailTypes) {
@@ -1864,7 +2352,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		//	handle other details
 		for (int t = 0; t < detailTypes.length; t++)
 			if (!"_".equals(detailTypes[t])) {
-				if (PART_DESIGNATOR_ANNOTATION_TYPE.equals(detailTypes[t]) && bibRef.annotation.valueAt(t).matches("[A-Zz-z]")) {
+				if (PART_DESIGNATOR_ANNOTATION_TYPE.equals(detailTypes[t]) && bibRef.hasShape(t, PART_DESIGNATOR_LETTER_SHAPE)) {
 					if (DEBUG) System.out.println(" - ignoring part designator letter '" + bibRef.annotation.valueAt(t) + "'");
 					continue;
 				}
@@ -1879,8 +2367,8 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		//	also filter plain book content info labels, but only if not embedded in plain word sequence
 		Annotation[] bookContentInfoLabels = Gamta.extractAllContained(bibRef.annotation, this.bookContentInfoNumberingInvalidatorsTailing, true);
 		for (int l = 0; l < bookContentInfoLabels.length; l++) {
-			boolean nonWordLeft = ((bookContentInfoLabels[l].getStartIndex() > 0) && !Gamta.isWord(bibRef.annotation.valueAt(bookContentInfoLabels[l].getStartIndex() - 1)));
-			boolean nonWordRight = ((bookContentInfoLabels[l].getEndIndex() < bibRef.annotation.size()) && !Gamta.isWord(bibRef.annotation.valueAt(bookContentInfoLabels[l].getEndIndex())));
+			boolean nonWordLeft = ((bookContentInfoLabels[l].getStartIndex() > 0) && !bibRef.hasShape((bookContentInfoLabels[l].getStartIndex() - 1), WORD_SHAPE));
+			boolean nonWordRight = ((bookContentInfoLabels[l].getEndIndex() < bibRef.annotation.size()) && !bibRef.hasShape(bookContentInfoLabels[l].getEndIndex(), WORD_SHAPE));
 			if (nonWordLeft || nonWordRight)
 				augmentFilteredTokens(bibRef.wordBlockExcluded, bookContentInfoLabels[l], "book content info label");
 		}
@@ -1889,7 +2377,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		Annotation[] wordBlockExcluded = Gamta.extractAllContained(bibRef.annotation, this.wordBlockExcluded, false);
 		augmentFilteredTokens(bibRef.wordBlockExcluded, wordBlockExcluded, "custom phrase");
 		for (int p = 0; p < this.wordBlockExcludePatterns.size(); p++) {
-			wordBlockExcluded = Gamta.extractAllMatches(bibRef.annotation, this.wordBlockExcludePatterns.get(p), false);
+			wordBlockExcluded = bibRef.matchBudget.extractAllMatches(bibRef.annotation, this.wordBlockExcludePatterns.get(p), false);
 			augmentFilteredTokens(bibRef.wordBlockExcluded, wordBlockExcluded, "custom pattern phrase");
 		}
 		
@@ -1898,7 +2386,10 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		Arrays.fill(bibRef.boldToken, false);
 		bibRef.italicsToken = new boolean[bibRef.annotation.size()];
 		Arrays.fill(bibRef.italicsToken, false);
-		Annotation[] emphases = bibRef.annotation.getAnnotations(EMPHASIS_TYPE);
+		Annotation[] emphases;
+		synchronized (bibRef.documentLock) {
+			emphases = bibRef.annotation.getAnnotations(EMPHASIS_TYPE);
+		}
 		for (int e = 0; e < emphases.length; e++) {
 			Arrays.fill(bibRef.boldToken, emphases[e].getStartIndex(), emphases[e].getEndIndex(), emphases[e].hasAttribute(BOLD_ATTRIBUTE));
 			Arrays.fill(bibRef.italicsToken, emphases[e].getStartIndex(), emphases[e].getEndIndex(), emphases[e].hasAttribute(ITALICS_ATTRIBUTE));
@@ -1909,7 +2400,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		ArrayList wordBlocks = new ArrayList();
 		
 		//	we've seen this one before, use what's there
-		if (bibRef.preExistingStructure) {
+		if (bibRef.preExistingStructure) synchronized (bibRef.documentLock) {
 			wordBlocks.addAll(Arrays.asList(bibRef.annotation.getAnnotations(TITLE_ANNOTATION_TYPE)));
 			wordBlocks.addAll(Arrays.asList(bibRef.annotation.getAnnotations(VOLUME_TITLE_ANNOTATION_TYPE)));
 			wordBlocks.addAll(Arrays.asList(bibRef.annotation.getAnnotations(JOURNAL_NAME_OR_PUBLISHER_ANNOTATION_TYPE)));
@@ -1923,14 +2414,14 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		else {
 			
 			//	get abbreviation blocks as a whole
-			wordBlocks.addAll(Arrays.asList(this.getTitleCaseAbbreviationBlocks(bibRef.annotation, bibRef.wordBlockExcluded)));
+			wordBlocks.addAll(Arrays.asList(this.getTitleCaseAbbreviationBlocks(bibRef.annotation, bibRef.wordBlockExcluded, bibRef.matchBudget)));
 			
 			//	get word blocks delimited by punctuation
 			int wordBlockStart = -1;
 			for (int t = 0; t < bibRef.annotation.size(); t++) {
 				if (DEBUG && bibRef.wordBlockExcluded[t])
 					System.out.println(" - skipping over non-title token '" + bibRef.annotation.valueAt(t) + "'");
-				if (Gamta.isPunctuation(bibRef.annotation.valueAt(t)) || bibRef.wordBlockExcluded[t]) {
+				if (bibRef.hasShape(t, PUNCTUATION_SHAPE) || bibRef.wordBlockExcluded[t]) {
 					if (wordBlockStart != -1)
 						wordBlocks.add(Gamta.newAnnotation(bibRef.annotation, null, wordBlockStart, (t-wordBlockStart)));
 					wordBlockStart = -1;
@@ -1946,8 +2437,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				Annotation wb = ((Annotation) wordBlocks.get(w));
 				boolean punctuationOnly = true;
 				for (int t = wb.getStartIndex(); t < wb.getEndIndex(); t++) {
-					String v = bibRef.annotation.valueAt(t);
-					if ((Gamta.isWord(v) && !v.matches("[a-z]")) || Gamta.isNumber(v)) {
+					if ((bibRef.hasShape(t, WORD_SHAPE) && !bibRef.hasShape(t, LOWER_CASE_LETTER_SHAPE)) || bibRef.hasShape(t, NUMBER_SHAPE)) {
 						punctuationOnly = false;
 						break;
 					}
@@ -1965,11 +2455,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 					continue;
 				if (wb.getStartIndex() < 1)
 					continue;
-				if (!wb.firstValue().matches("[a-z]"))
+				if (!bibRef.hasShape(wb.getStartIndex(), LOWER_CASE_LETTER_SHAPE))
 					continue;
-				if (!wb.valueAt(1).matches("[A-Z].*"))
+				if (!bibRef.hasShape((wb.getStartIndex() + 1), CAPITALIZED_SHAPE))
 					continue;
-				if (!bibRef.annotation.valueAt(wb.getStartIndex()-1).matches("[12][0-9]{3}"))
+				if (!bibRef.hasShape((wb.getStartIndex()-1), FOUR_DIGIT_YEAR_SHAPE))
 					continue;
 				if (DEBUG) System.out.println(" - truncating index letter off word block '" + wb.getValue() + "'");
 				wb = Gamta.newAnnotation(bibRef.annotation, null, (wb.getStartIndex() + 1), (wb.size() - 1));
@@ -2063,7 +2553,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			//	TODO also sort out lone numbers leading in reference
 			for (int w = 0; w < wordBlocks.size(); w++) {
 				Annotation wb = ((Annotation) wordBlocks.get(w));
-				if ((wb.size() == 1) && Gamta.isNumber(wb.firstValue()))
+				if ((wb.size() == 1) && bibRef.hasShape(wb.getStartIndex(), NUMBER_SHAPE))
 					wordBlocks.remove(w--);
 			}
 			
@@ -2128,10 +2618,10 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		return ((Annotation[]) bracketBlockList.toArray(new Annotation[bracketBlockList.size()]));
 	}
 	
-	private Annotation[] getTitleCaseAbbreviationBlocks(Annotation bibRef, boolean[] isNonTitle) {
+	private Annotation[] getTitleCaseAbbreviationBlocks(Annotation bibRef, boolean[] isNonTitle, MatchBudget matchBudget) {
 		
 		//	find abbreviated blocks
-		Annotation[] abbreviationBlocks = Gamta.extractAllMatches(bibRef, this.titleCaseAbbreviationBlockRegEx, true, true, false);
+		Annotation[] abbreviationBlocks = matchBudget.extractAllMatches(bibRef, this.titleCaseAbbreviationBlockRegEx, true, true, false);
 		ArrayList abbreviationBlockList = new ArrayList();
 		
 		//	filter blocks
@@ -2245,7 +2735,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				if (pageNumber != null)
 					volumeRef.setAttribute(PAGE_NUMBER_ATTRIBUTE, pageNumber);
 				
-				bibRefs[r].volumeRef = new BibRef(volumeRef);
+				bibRefs[r].volumeRef = new BibRef(volumeRef, bibRefs[r].documentLock);
 				bibRefs[r].volumeRef.parentRef = bibRefs[r];
 				volumeRefList.add(bibRefs[r].volumeRef);
 			}
@@ -2318,12 +2808,99 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 	}
 	
+	//	base detail candidates shared between extraction steps: one pass over the tokens records if characters required by URL, DOI, and year patterns occur at all (no use extracting otherwise), and matches used in several steps are extracted only once, on demand
+	private class BaseDetailScan {
+		final TokenSequence tokens;
+		final MatchBudget matchBudget;
+		final boolean gotDigit;
+		final boolean gotColon;
+		final boolean gotSlash;
+		private Annotation[] yearCandidates = null;
+		private HashMap numberingInvalidatorsLeading = null;
+		private HashMap numberingInvalidatorsTailing = null;
+		private Annotation[] dateDays = null;
+		private Annotation[] dateMonths = null;
+		
+		BaseDetailScan(TokenSequence tokens, MatchBudget matchBudget) {
+			this.tokens = tokens;
+			this.matchBudget = matchBudget;
+			boolean gotDigit = false;
+			boolean gotColon = false;
+			boolean gotSlash = false;
+			for (int t = 0; t < tokens.size(); t++) {
+				String value = tokens.valueAt(t);
+				for (int c = 0; c < value.length(); c++) {
+					char ch = value.charAt(c);
+					if (('0' <= ch) && (ch <= '9'))
+						gotDigit = true;
+					else if (ch == ':')
+						gotColon = true;
+					else if (ch == '/')
+						gotSlash = true;
+				}
+			}
+			this.gotDigit = gotDigit;
+			this.gotColon = gotColon;
+			this.gotSlash = gotSlash;
+		}
+		
+		Annotation[] getUrls() {
+			return ((this.gotColon && this.gotSlash) ? this.matchBudget.extractAllMatches(this.tokens, urlPattern, false, true, false) : new Annotation[0]);
+		}
+		
+		Annotation[] getDois() {
+			return (this.gotSlash ? this.matchBudget.extractAllMatches(this.tokens, doiPattern, false, true, false) : new Annotation[0]);
+		}
+		
+		Annotation[] getUrlStarts() {
+			return (this.gotColon ? this.matchBudget.extractAllMatches(this.tokens, urlStartPattern, false, true, false) : new Annotation[0]);
+		}
+		
+		Annotation[] getYearCandidates() {
+			if (this.yearCandidates == null)
+				this.yearCandidates = (this.gotDigit ? this.matchBudget.extractAllMatches(this.tokens, RefParse.this.yearRegEx, false) : new Annotation[0]);
+			return this.yearCandidates;
+		}
+		
+		HashMap getNumberingInvalidatorsLeading() {
+			if (this.numberingInvalidatorsLeading == null)
+				this.numberingInvalidatorsLeading = indexByStartIndex(Gamta.extractAllContained(this.tokens, RefParse.this.numberingInvalidatorsLeading, false));
+			return this.numberingInvalidatorsLeading;
+		}
+		
+		HashMap getNumberingInvalidatorsTailing() {
+			if (this.numberingInvalidatorsTailing == null)
+				this.numberingInvalidatorsTailing = indexByStartIndex(Gamta.extractAllContained(this.tokens, RefParse.this.numberingInvalidatorsTailing, false));
+			return this.numberingInvalidatorsTailing;
+		}
+		
+		Annotation[] getDateDays() {
+			if (this.dateDays == null)
+				this.dateDays = Gamta.extractAllContained(this.tokens, RefParse.this.dateDays, false);
+			return this.dateDays;
+		}
+		
+		Annotation[] getDateMonths() {
+			if (this.dateMonths == null)
+				this.dateMonths = Gamta.extractAllContained(this.tokens, RefParse.this.dateMonths, false);
+			return this.dateMonths;
+		}
+	}
+	
+	private static HashMap indexByStartIndex(Annotation[] annots) {
+		HashMap index = new HashMap();
+		for (int a = 0; a < annots.length; a++)
+			index.put(new Integer(annots[a].getStartIndex()), annots[a]);
+		return index;
+	}
+	
 	private void getBaseDetails(BibRef bibRef, NameStyle nameStyle) {
 		if (DEBUG) System.out.println("Parsing bibliographic reference " + bibRef.annotation.toXML());
+		BaseDetailScan scan = new BaseDetailScan(bibRef.annotation, bibRef.matchBudget);
 		
 		//	annotate URLs & DOIs (helps filtering numerical attributes)
-		bibRef.urls = Gamta.extractAllMatches(bibRef.annotation, urlPattern, false, true, false);
-		bibRef.dois = Gamta.extractAllMatches(bibRef.annotation, doiPattern, false, true, false);
+		bibRef.urls = scan.getUrls();
+		bibRef.dois = scan.getDois();
 		if ((bibRef.urls.length + bibRef.dois.length) != 0) {
 			if (DEBUG) System.out.println(" - URLs/DOIs:");
 			for (int u = 0; u < bibRef.urls.length; u++) {
@@ -2337,7 +2914,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		
 		//	this one's been parsed before, use existing annotations
-		if (bibRef.preExistingStructure) {
+		if (bibRef.preExistingStructure) synchronized (bibRef.documentLock) {
 			if (DEBUG) System.out.println(" ==> done with pre-existing structure");
 			
 			//	- year (four digit number between 1500 and 2100)
@@ -2369,7 +2946,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		
 		//	get labeled dates (URL access dates, publication dates, etc.)
-		bibRef.labeledDates = this.getLabeledDates(bibRef.annotation);
+		bibRef.labeledDates = this.getLabeledDates(bibRef.annotation, scan);
 		if (DEBUG) System.out.println(" - labeled dates: " + Arrays.toString(bibRef.labeledDates));
 		
 		//	create initial filters from highly secure matches
@@ -2378,7 +2955,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		augmentFilteredTokens(urlDoiFilter, bibRef.dois, null);
 		
 		//	get URLs and DOIs split up by spaces (mostly resulting from line wrapping)
-		this.getBrokenURLsAndDOIs(bibRef, labeledDateFilter, urlDoiFilter);
+		this.getBrokenURLsAndDOIs(bibRef, scan, labeledDateFilter, urlDoiFilter);
 		
 		//	- year (four digit number between 1500 and 2100)
 		if (bibRef.parentRef != null) {
@@ -2386,10 +2963,10 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			if (DEBUG) System.out.println(" - years: " + Arrays.toString(bibRef.years));
 		}
 		else {
-			bibRef.years = this.getYears(bibRef, urlDoiFilter, true);
+			bibRef.years = this.getYears(bibRef, scan, urlDoiFilter, true);
 			if (DEBUG) System.out.println(" - years: " + Arrays.toString(bibRef.years));
 			if (bibRef.years.length == 0) {
-				bibRef.years = this.getYears(bibRef, urlDoiFilter, false);
+				bibRef.years = this.getYears(bibRef, scan, urlDoiFilter, false);
 				if (DEBUG) System.out.println(" - all years: " + Arrays.toString(bibRef.years));
 			}
 		}
@@ -2409,11 +2986,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		if (DEBUG) System.out.println(" - page ranges: " + Arrays.toString(bibRef.pageRanges));
 		
 		//	- page numbers ("p." or "page" followed by a number)
-		bibRef.pageNumbers = ((bibRef.parentRef != null) ? new Annotation[0] : this.getPageNumbers(bibRef, urlDoiFilter));
+		bibRef.pageNumbers = ((bibRef.parentRef != null) ? new Annotation[0] : this.getPageNumbers(bibRef, scan, urlDoiFilter));
 		if (DEBUG) System.out.println(" - page numbers: " + Arrays.toString(bibRef.pageNumbers));
 		
 		//	- volume/issue numbers ("no.", "vol.", etc. followed by a number)
-		bibRef.partDesignators = (((bibRef.parentRef != null) && (bibRef.parentRef.numberDetailBlock != null)) ? new Annotation[0] : this.getPartDesignators(bibRef, urlDoiFilter));
+		bibRef.partDesignators = (((bibRef.parentRef != null) && (bibRef.parentRef.numberDetailBlock != null)) ? new Annotation[0] : this.getPartDesignators(bibRef, scan, urlDoiFilter));
 		if (DEBUG) System.out.println(" - part designators: " + Arrays.toString(bibRef.partDesignators));
 		
 		//	forget about page numbers and part designators if there are book content infos and no page ranges (if page range present along with part designators, we have a rare mixture ...)
@@ -2433,7 +3010,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		
 		//	get dates in general (also part of title, etc.)
-		Annotation[] dates = this.getDates(bibRef.annotation);
+		Annotation[] dates = this.getDates(bibRef.annotation, scan);
 		if (DEBUG) System.out.println(" - dates: " + Arrays.toString(dates));
 		
 		//	use dates for filtering years, page numbers, and part designators
@@ -2471,8 +3048,9 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 	}
 	
-	private void getBrokenURLsAndDOIs(BibRef bibRef, boolean[] labeledDateFilter, boolean[] urlDoiFilter) {
-		Annotation[] urlStarts = Gamta.extractAllMatches(bibRef.annotation, urlStartPattern, false, true, false);
+	private static final String brokenUrlPattern = "<start> <fragment>+";
+	private void getBrokenURLsAndDOIs(BibRef bibRef, BaseDetailScan scan, boolean[] labeledDateFilter, boolean[] urlDoiFilter) {
+		Annotation[] urlStarts = scan.getUrlStarts();
 		if (urlStarts.length == 0)
 			return;
 		AnnotationIndex urlPartIndex = new AnnotationIndex();
@@ -2488,7 +3066,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		if (DEBUG) System.out.println(" - URL starts: " + Arrays.toString(urlStarts));
 		
 		//	add fragments (trim where required)
-		Annotation[] urlFragments = Gamta.extractAllMatches(bibRef.annotation, urlFragmentPattern, false, true, false);
+		Annotation[] urlFragments = bibRef.matchBudget.extractAllMatches(bibRef.annotation, urlFragmentPattern, false, true, false);
 		if (DEBUG) System.out.println(" - URL fragments: " + Arrays.toString(urlFragments));
 		urlFragments = filterOverlapping(urlFragments, labeledDateFilter, true);
 		if (DEBUG) System.out.println(" - URL fragments filtered to: " + Arrays.toString(urlFragments));
@@ -2509,7 +3087,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		
 		//	get restored URLs
-		Annotation[] urls = AnnotationPatternMatcher.getMatches(bibRef.annotation, urlPartIndex, "<start> <fragment>+");
+		Annotation[] urls = AnnotationPatternMatcher.getMatches(bibRef.annotation, urlPartIndex, brokenUrlPattern);
 		if (urls.length == 0)
 			return;
 		
@@ -2522,12 +3100,12 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			if (urls[u] == null)
 				continue;
 			if (DEBUG) System.out.println("   - " + urls[u].getValue());
-			String rUrl = urls[u].getValue().replaceAll("\\s+", "");
-			if (rUrl.matches(urlPattern)) {
+			String rUrl = whitespacePattern.matcher(urls[u].getValue()).replaceAll("");
+			if (urlRegExPattern.matcher(rUrl).matches()) {
 				rUrls.add(urls[u]);
 				if (DEBUG) System.out.println("     ==> URL");
 			}
-			if (rUrl.matches(doiPattern)) {
+			if (doiRegExPattern.matcher(rUrl).matches()) {
 				rDois.add(urls[u]);
 				if (DEBUG) System.out.println("     ==> DOI");
 			}
@@ -2709,10 +3287,12 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		
 		//	TODO_ne figure out if this is (a) more helpful, e.g. in references to single pages, or (b) more harmful with numbers in references to whole books
 		//	==> seems so, at least with URL filter for numbers
-		//	unify page indicators
-		for (int i = 0; i < pageIndicators.length; i++) {
-			pageIndicators[i].changeTypeTo(PAGINATION_ANNOTATION_TYPE);
-			pageIndicators[i].setAttribute("type", ((bibRef.pageRanges.length == 0) ? "pageNumber" : "pageRange"));
+		//	unify page indicators (might be document annotations in pre-existing structures)
+		synchronized (bibRef.documentLock) {
+			for (int i = 0; i < pageIndicators.length; i++) {
+				pageIndicators[i].changeTypeTo(PAGINATION_ANNOTATION_TYPE);
+				pageIndicators[i].setAttribute("type", ((bibRef.pageRanges.length == 0) ? "pageNumber" : "pageRange"));
+			}
 		}
 		
 		//	prepare bridging part designator hints
@@ -2814,7 +3394,6 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		//	TODO consider creating blocks out of adjacent years that differ by one
 		
 		//	set up structure relevant details
-		String[] workingStructure = new String[bibRef.annotation.size()];
 		Annotation[][] details = {
 				authorLists,
 				bibRef.years,
@@ -2828,16 +3407,52 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				(!bibRef.preExistingStructure && (bibRef.numberDetailBlock == null)),
 			};
 		
+		//	compute token spans of details
+		BitSet[][] detailSpans = new BitSet[details.length][];
+		for (int t = 0; t < details.length; t++) {
+			detailSpans[t] = new BitSet[details[t].length];
+			for (int d = 0; d < details[t].length; d++)
+				if (details[t][d] != null) {
+					detailSpans[t][d] = new BitSet();
+					detailSpans[t][d].set(details[t][d].getStartIndex(), details[t][d].getEndIndex());
+				}
+		}
+		
 		//	get structures
-		this.getStructures(bibRef, details, 0, tryWithoutIfGiven, workingStructure);
+		int[] workingDetails = new int[details.length];
+		String[] workingStructure = new String[bibRef.annotation.size()];
+		this.getStructures(bibRef, details, detailSpans, 0, tryWithoutIfGiven, new BitSet(), workingDetails, workingStructure, new HashSet());
+		if (DEBUG && (bibRef.structures.size() >= maxStructuresPerBibRef))
+			System.out.println("Stopped generating structures at " + maxStructuresPerBibRef + " in " + bibRef.annotation.getValue());
 	}
 	
-	private void getStructures(BibRef bibRef, Annotation[][] details, int detailTypeIndex, boolean[] tryWithoutIfGiven, String[] workingStructure) {
+	/* maximum number of candidate structures to generate for a single reference
+	 * (references with many numbers easily produce tens of thousands otherwise) */
+	private static final int maxStructuresPerBibRef = 4096;
+	
+	private boolean getStructures(BibRef bibRef, Annotation[][] details, BitSet[][] detailSpans, int detailTypeIndex, boolean[] tryWithoutIfGiven, BitSet occupied, int[] workingDetails, String[] workingStructure, HashSet workingStructureKeys) {
 		
 		//	we're done here
 		if (detailTypeIndex == details.length) {
-			bibRef.structures.add(new Structure(bibRef.annotation, workingStructure));
-			return;
+			
+			//	skip over duplicates (can only ever tie with the original in selectStructure(), and never win the tie)
+			StringBuffer workingStructureKey = new StringBuffer();
+			for (int t = 0; t < details.length; t++) {
+				if (workingDetails[t] == -1)
+					workingStructureKey.append("-;");
+				else workingStructureKey.append(details[t][workingDetails[t]].getStartIndex() + "-" + details[t][workingDetails[t]].getEndIndex() + ";");
+			}
+			if (!workingStructureKeys.add(workingStructureKey.toString()))
+				return true;
+			
+			//	fill in working structure only for surviving structures, and clean up afterwards
+			for (int t = 0; t < details.length; t++) {
+				if (workingDetails[t] != -1)
+					Arrays.fill(workingStructure, details[t][workingDetails[t]].getStartIndex(), details[t][workingDetails[t]].getEndIndex(), details[t][workingDetails[t]].getType());
+			}
+			bibRef.structures.add(new Structure(bibRef.annotation, bibRef.tokenShapes, workingStructure));
+			Arrays.fill(workingStructure, null);
+			return (bibRef.structures.size() < maxStructuresPerBibRef);
 		}
 		
 		//	try all options for current detail type
@@ -2846,70 +3461,68 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				continue;
 			
 			//	check if current detail fits
-			boolean fits = true;
-			for (int s = details[detailTypeIndex][d].getStartIndex(); s < details[detailTypeIndex][d].getEndIndex(); s++)
-				fits = (fits && (workingStructure[s] == null));
+			if (occupied.intersects(detailSpans[detailTypeIndex][d]))
+				continue;
 			
-			//	it fits
-			if (fits) {
-				
-				//	put current detail
-				for (int s = details[detailTypeIndex][d].getStartIndex(); s < details[detailTypeIndex][d].getEndIndex(); s++)
-					workingStructure[s] = details[detailTypeIndex][d].getType();
-				
-				//	proceed with current detail
-				this.getStructures(bibRef, details, (detailTypeIndex+1), tryWithoutIfGiven, workingStructure);
-				
-				//	clean up
-				for (int s = details[detailTypeIndex][d].getStartIndex(); s < details[detailTypeIndex][d].getEndIndex(); s++)
-					workingStructure[s] = null;
-			}
+			//	put current detail
+			occupied.or(detailSpans[detailTypeIndex][d]);
+			workingDetails[detailTypeIndex] = d;
+			
+			//	proceed with current detail
+			boolean proceed = this.getStructures(bibRef, details, detailSpans, (detailTypeIndex+1), tryWithoutIfGiven, occupied, workingDetails, workingStructure, workingStructureKeys);
+			
+			//	clean up
+			occupied.andNot(detailSpans[detailTypeIndex][d]);
+			
+			//	maximum number of structures reached
+			if (!proceed)
+				return false;
 		}
 		
 		//	also try proceeding without current detail type (allows for trying out more at the same time)
-		if ((details[detailTypeIndex].length == 0) || tryWithoutIfGiven[detailTypeIndex])
-			this.getStructures(bibRef, details, (detailTypeIndex+1), tryWithoutIfGiven, workingStructure);
+		if ((details[detailTypeIndex].length == 0) || tryWithoutIfGiven[detailTypeIndex]) {
+			workingDetails[detailTypeIndex] = -1;
+			return this.getStructures(bibRef, details, detailSpans, (detailTypeIndex+1), tryWithoutIfGiven, occupied, workingDetails, workingStructure, workingStructureKeys);
+		}
+		else return true;
 	}
 	
-	private void indexStructures(BibRef bibRef, CountingSet structureCounts, HashMap punctSummaryElementSets, HashMap summaryElementSets, HashMap typeElementSets) {
+	private void indexStructures(BibRef bibRef, StructureSignatureTable structureSignatures, StructureSignatureTable.Group punctSummarySignatures, StructureSignatureTable.Group summarySignatures, StructureSignatureTable.Group typeSignatures) {
 		
 		//	set up auxiliary data structures
-		StringVector typeStrings = new StringVector();
-		StringVector summaryStrings = new StringVector();
-		StringVector punctSummaryStrings = new StringVector();
+		BitSet bibRefTypeSignatures = new BitSet();
+		BitSet bibRefSummarySignatures = new BitSet();
+		BitSet bibRefPunctSummarySignatures = new BitSet();
 		
-		//	count structures
+		//	intern signatures
 		if (DEBUG) System.out.println(bibRef.annotation.toXML());
 		for (int s = 0; s < bibRef.structures.size(); s++) {
 			Structure structure = ((Structure) bibRef.structures.get(s));
-			if (structure.detailTypes.contains(PAGE_NUMBER_TYPE) && structure.detailTypes.contains(PAGE_RANGE_ANNOTATION_TYPE)) {
-				bibRef.structures.remove(s--);
-				continue;
-			}
 			
-			typeStrings.addElementIgnoreDuplicates(structure.typeString);
-			if (!typeElementSets.containsKey(structure.typeString))
-				typeElementSets.put(structure.typeString, new LinkedHashSet(Arrays.asList(structure.types)));
+			structure.typeSignature = structureSignatures.getId(structure.types);
+			bibRefTypeSignatures.set(structure.typeSignature);
+			typeSignatures.add(structure.typeSignature);
 			
-			summaryStrings.addElementIgnoreDuplicates(structure.summaryString);
-			if (!summaryElementSets.containsKey(structure.summaryString))
-				summaryElementSets.put(structure.summaryString, new LinkedHashSet(Arrays.asList(structure.summary)));
+			structure.summarySignature = structureSignatures.getId(structure.summary);
+			bibRefSummarySignatures.set(structure.summarySignature);
+			summarySignatures.add(structure.summarySignature);
 			
-			punctSummaryStrings.addElementIgnoreDuplicates(structure.punctSummaryString);
-			if (!punctSummaryElementSets.containsKey(structure.punctSummaryString))
-				punctSummaryElementSets.put(structure.punctSummaryString, new LinkedHashSet(Arrays.asList(structure.punctSummary)));
+			structure.punctSummarySignature = structureSignatures.getId(structure.punctSummary);
+			bibRefPunctSummarySignatures.set(structure.punctSummarySignature);
+			punctSummarySignatures.add(structure.punctSummarySignature);
 		}
 		
-		for (int s = 0; s < typeStrings.size(); s++)
-			structureCounts.add(typeStrings.get(s));
-		for (int s = 0; s < summaryStrings.size(); s++)
-			structureCounts.add(summaryStrings.get(s));
-		for (int s = 0; s < punctSummaryStrings.size(); s++)
-			structureCounts.add(punctSummaryStrings.get(s));
+		//	count signatures (once per reference)
+		for (int s = bibRefTypeSignatures.nextSetBit(0); s != -1; s = bibRefTypeSignatures.nextSetBit(s+1))
+			structureSignatures.count(s);
+		for (int s = bibRefSummarySignatures.nextSetBit(0); s != -1; s = bibRefSummarySignatures.nextSetBit(s+1))
+			structureSignatures.count(s);
+		for (int s = bibRefPunctSummarySignatures.nextSetBit(0); s != -1; s = bibRefPunctSummarySignatures.nextSetBit(s+1))
+			structureSignatures.count(s);
 	}
 	
 //	private void selectStructure(BibRef bibRef, int bibRefCount, StringVector structures, final StringIndex structureCounts, StringVector separators, StringIndex separatorFrequencies, HashMap punctSummaryElementSets, HashMap summaryElementSets, HashMap typeElementSets) {
-	private void selectStructure(BibRef bibRef, int bibRefCount, final CountingSet structureCounts, HashMap punctSummaryElementSets, HashMap summaryElementSets, HashMap typeElementSets) {
+	private void selectStructure(BibRef bibRef, int bibRefCount, final StructureSignatureTable structureSignatures, StructureSignatureTable.Group punctSummarySignatures, StructureSignatureTable.Group summarySignatures, StructureSignatureTable.Group typeSignatures) {
 		if (DEBUG) System.out.println(bibRef.annotation.toXML());
 		
 		if (false && DEBUG_STRUCTURE_SCORING) {
@@ -2917,36 +3530,36 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				public int compare(Object o1, Object o2) {
 					Structure s1 = ((Structure) o1);
 					Structure s2 = ((Structure) o2);
-					return (structureCounts.getCount(s2.punctSummaryString) - structureCounts.getCount(s1.punctSummaryString));
+					return (structureSignatures.getCount(s2.punctSummarySignature) - structureSignatures.getCount(s1.punctSummarySignature));
 				}
 			});
 			for (int s = 0; s < bibRef.structures.size(); s++) {
 				Structure structure = ((Structure) bibRef.structures.get(s));
-				if (DEBUG_STRUCTURE_SCORING) System.out.println("PSS: " + structureCounts.getCount(structure.punctSummaryString) + "/" + bibRefCount + ": " + structure.punctSummaryString);
+				if (DEBUG_STRUCTURE_SCORING) System.out.println("PSS: " + structureSignatures.getCount(structure.punctSummarySignature) + "/" + bibRefCount + ": " + structure.getPunctSummaryString());
 			}
 			
 			Collections.sort(bibRef.structures, new Comparator() {
 				public int compare(Object o1, Object o2) {
 					Structure s1 = ((Structure) o1);
 					Structure s2 = ((Structure) o2);
-					return (structureCounts.getCount(s2.summaryString) - structureCounts.getCount(s1.summaryString));
+					return (structureSignatures.getCount(s2.summarySignature) - structureSignatures.getCount(s1.summarySignature));
 				}
 			});
 			for (int s = 0; s < bibRef.structures.size(); s++) {
 				Structure structure = ((Structure) bibRef.structures.get(s));
-				if (DEBUG_STRUCTURE_SCORING) System.out.println("SS:  " + structureCounts.getCount(structure.summaryString) + "/" + bibRefCount + ": " + structure.summaryString);
+				if (DEBUG_STRUCTURE_SCORING) System.out.println("SS:  " + structureSignatures.getCount(structure.summarySignature) + "/" + bibRefCount + ": " + structure.getSummaryString());
 			}
 			
 			Collections.sort(bibRef.structures, new Comparator() {
 				public int compare(Object o1, Object o2) {
 					Structure s1 = ((Structure) o1);
 					Structure s2 = ((Structure) o2);
-					return (structureCounts.getCount(s2.typeString) - structureCounts.getCount(s1.typeString));
+					return (structureSignatures.getCount(s2.typeSignature) - structureSignatures.getCount(s1.typeSignature));
 				}
 			});
 			for (int s = 0; s < bibRef.structures.size(); s++) {
 				Structure structure = ((Structure) bibRef.structures.get(s));
-				if (DEBUG_STRUCTURE_SCORING) System.out.println("TS:  " + structureCounts.getCount(structure.typeString) + "/" + bibRefCount + ": " + structure.typeString);
+				if (DEBUG_STRUCTURE_SCORING) System.out.println("TS:  " + structureSignatures.getCount(structure.typeSignature) + "/" + bibRefCount + ": " + structure.getTypeString());
 			}
 		}
 		
@@ -2961,16 +3574,16 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			
 			//	this scoring function seems to work very well !!!
 			//	TODOne: experiment with exponents of |detailType| power ==> seems to work very well with square
-			int psScore = (((int) Math.pow(structure.detailTypes.size(), 2)) * structureCounts.getCount(structure.punctSummaryString));
-			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.punctSummaryString + " -PSS-> " + psScore);
+			int psScore = (structure.detailTypeCountSquare * structureSignatures.getCount(structure.punctSummarySignature));
+			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.getPunctSummaryString() + " -PSS-> " + psScore);
 			score += psScore;
 			
-			int sScore = (((int) Math.pow(structure.detailTypes.size(), 2)) * structureCounts.getCount(structure.summaryString));
-			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.summaryString + " -SS-> " + sScore);
+			int sScore = (structure.detailTypeCountSquare * structureSignatures.getCount(structure.summarySignature));
+			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.getSummaryString() + " -SS-> " + sScore);
 			score += sScore;
 			
-			int tScore = (((int) Math.pow(structure.detailTypes.size(), 2)) * structureCounts.getCount(structure.typeString));
-			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.typeString + " -TS-> " + tScore);
+			int tScore = (structure.detailTypeCountSquare * structureSignatures.getCount(structure.typeSignature));
+			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.getTypeString() + " -TS-> " + tScore);
 			score += tScore;
 			
 			//	score longes block of '_' (rewards having recognized features close together, thus catch mis-recoginitions in middle of reference)
@@ -2978,13 +3591,8 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			score += structure.maxVoidBlockLength;
 			
 			//	score long author lists (overcomes problems when selecting small sub list of long author list voids long block)
-			int authorListLength = 0;
-			for (int d = 0; d < structure.details.length; d++) {
-				if (AUTHOR_LIST_ANNOTATION_TYPE.equals(structure.details[d]))
-					authorListLength++;
-			}
-			if (DEBUG_STRUCTURE_SCORING) System.out.println(" -AL-> " + authorListLength);
-			score += authorListLength;
+			if (DEBUG_STRUCTURE_SCORING) System.out.println(" -AL-> " + structure.authorListLength);
+			score += structure.authorListLength;
 			
 			if (DEBUG_STRUCTURE_SCORING) System.out.println(" =SCORE=> " + score);
 			if (score > maxScore) {
@@ -2994,36 +3602,12 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			}
 			else if (score == maxScore) {
 				
-				//	compare order of part designator and page numbers, and length of author list
-				int sPageDataIndex = -1;
-				int sPartDesIndex = -1;
-				int sAuthorListLength = 0;
-				for (int d = 0; d < structure.details.length; d++) {
-					if ((sPageDataIndex == -1 && PAGINATION_ANNOTATION_TYPE.equals(structure.details[d])))
-						sPageDataIndex = d;
-					else if ((sPartDesIndex == -1 && PART_DESIGNATOR_ANNOTATION_TYPE.equals(structure.details[d])))
-						sPartDesIndex = d;
-					else if (AUTHOR_LIST_ANNOTATION_TYPE.equals(structure.details[d]))
-						sAuthorListLength++;
-				}
-				int mssPageDataIndex = -1;
-				int mssPartDesIndex = -1;
-				int mssAuthorListLength = 0;
-				for (int d = 0; d < maxScoreStructure.details.length; d++) {
-					if ((mssPageDataIndex == -1 && PAGINATION_ANNOTATION_TYPE.equals(maxScoreStructure.details[d])))
-						mssPageDataIndex = d;
-					else if ((mssPartDesIndex == -1 && PART_DESIGNATOR_ANNOTATION_TYPE.equals(maxScoreStructure.details[d])))
-						mssPartDesIndex = d;
-					else if (AUTHOR_LIST_ANNOTATION_TYPE.equals(maxScoreStructure.details[d]))
-						mssAuthorListLength++;
-				}
-				
 				//	prefer part designator left of page number
-				if ((mssPageDataIndex != -1) && (sPageDataIndex > mssPageDataIndex) && (sPartDesIndex != -1) && (sPartDesIndex < mssPartDesIndex))
+				if ((maxScoreStructure.firstPaginationIndex != -1) && (structure.firstPaginationIndex > maxScoreStructure.firstPaginationIndex) && (structure.firstPartDesignatorIndex != -1) && (structure.firstPartDesignatorIndex < maxScoreStructure.firstPartDesignatorIndex))
 					maxScoreStructure = structure;
 				
 				//	prefer longer author list
-				else if (sAuthorListLength > mssAuthorListLength)
+				else if (structure.authorListLength > maxScoreStructure.authorListLength)
 					maxScoreStructure = structure;
 			}
 			
@@ -3032,23 +3616,20 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			
 			//	compare punctuated summary
 //			System.out.println(" - " + structure.punctSummaryString + " vs.:");
-			LinkedHashSet sPunctSummaryElements = ((LinkedHashSet) punctSummaryElementSets.get(structure.punctSummaryString));
-			int psFuzzyScore = getFuzzyScore(structure.detailTypes.size(), structure.punctSummaryString, sPunctSummaryElements, structureCounts, punctSummaryElementSets);
-			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.punctSummaryString + " -PSS-F-> " + psFuzzyScore);
+			int psFuzzyScore = getFuzzyScore(structure.detailTypes.size(), structure.punctSummarySignature, structureSignatures, punctSummarySignatures);
+			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.getPunctSummaryString() + " -PSS-F-> " + psFuzzyScore);
 			fuzzyScore += psFuzzyScore;
 			
 			//	compare summary
 //			System.out.println(" - " + structure.summaryString + " vs.:");
-			LinkedHashSet sSummaryElements = ((LinkedHashSet) summaryElementSets.get(structure.summaryString));
-			int sFuzzyScore = getFuzzyScore(structure.detailTypes.size(), structure.summaryString, sSummaryElements, structureCounts, summaryElementSets);
-			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.summaryString + " -SS-F-> " + sFuzzyScore);
+			int sFuzzyScore = getFuzzyScore(structure.detailTypes.size(), structure.summarySignature, structureSignatures, summarySignatures);
+			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.getSummaryString() + " -SS-F-> " + sFuzzyScore);
 			fuzzyScore += sFuzzyScore;
 			
 			//	compare types
 //			System.out.println(" - " + structure.typeString + " vs.:");
-			LinkedHashSet sTypeElements = ((LinkedHashSet) typeElementSets.get(structure.typeString));
-			int tFuzzyScore = getFuzzyScore(structure.detailTypes.size(), structure.typeString, sTypeElements, structureCounts, typeElementSets);
-			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.typeString + " -TS-F-> " + tFuzzyScore);
+			int tFuzzyScore = getFuzzyScore(structure.detailTypes.size(), structure.typeSignature, structureSignatures, typeSignatures);
+			if (DEBUG_STRUCTURE_SCORING) System.out.println(" - " + structure.getTypeString() + " -TS-F-> " + tFuzzyScore);
 			fuzzyScore += tFuzzyScore;
 			
 			//	score longest block of '_' (rewards having recognized features close together, thus catch mis-recoginitions in middle of reference)
@@ -3060,8 +3641,8 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			fuzzyScore += structure.detailTokenCount;
 			
 			//	score long author lists (overcomes problems when selecting small sub list of long author list voids long block)
-			if (DEBUG_STRUCTURE_SCORING) System.out.println(" -AL-F-> " + authorListLength);
-			fuzzyScore += authorListLength;
+			if (DEBUG_STRUCTURE_SCORING) System.out.println(" -AL-F-> " + structure.authorListLength);
+			fuzzyScore += structure.authorListLength;
 			
 			//	got a new leader?
 			if (DEBUG_STRUCTURE_SCORING) System.out.println(" =SCORE-F=> " + fuzzyScore);
@@ -3071,36 +3652,12 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			}
 			else if (fuzzyScore == maxFuzzyScore) {
 				
-				//	compare order or part designator and page numbers
-				int sPageDataIndex = -1;
-				int sPartDesIndex = -1;
-				int sAuthorListLength = 0;
-				for (int d = 0; d < structure.details.length; d++) {
-					if ((sPageDataIndex == -1 && PAGINATION_ANNOTATION_TYPE.equals(structure.details[d])))
-						sPageDataIndex = d;
-					else if ((sPartDesIndex == -1 && PART_DESIGNATOR_ANNOTATION_TYPE.equals(structure.details[d])))
-						sPartDesIndex = d;
-					else if (AUTHOR_LIST_ANNOTATION_TYPE.equals(structure.details[d]))
-						sAuthorListLength++;
-				}
-				int mssPageDataIndex = -1;
-				int mssPartDesIndex = -1;
-				int mssAuthorListLength = 0;
-				for (int d = 0; d < maxFuzzyScoreStructure.details.length; d++) {
-					if ((mssPageDataIndex == -1 && PAGINATION_ANNOTATION_TYPE.equals(maxFuzzyScoreStructure.details[d])))
-						mssPageDataIndex = d;
-					else if ((mssPartDesIndex == -1 && PART_DESIGNATOR_ANNOTATION_TYPE.equals(maxFuzzyScoreStructure.details[d])))
-						mssPartDesIndex = d;
-					else if (AUTHOR_LIST_ANNOTATION_TYPE.equals(maxFuzzyScoreStructure.details[d]))
-						mssAuthorListLength++;
-				}
-				
 				//	prefer part designator left of page number
-				if ((mssPageDataIndex != -1) && (sPageDataIndex > mssPageDataIndex) && (sPartDesIndex != -1) && (sPartDesIndex < mssPartDesIndex))
+				if ((maxFuzzyScoreStructure.firstPaginationIndex != -1) && (structure.firstPaginationIndex > maxFuzzyScoreStructure.firstPaginationIndex) && (structure.firstPartDesignatorIndex != -1) && (structure.firstPartDesignatorIndex < maxFuzzyScoreStructure.firstPartDesignatorIndex))
 					maxFuzzyScoreStructure = structure;
 				
 				//	prefer longer author list
-				else if (sAuthorListLength > mssAuthorListLength)
+				else if (structure.authorListLength > maxFuzzyScoreStructure.authorListLength)
 					maxFuzzyScoreStructure = structure;
 			}
 		}
@@ -3113,13 +3670,13 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			String[] dummyWorkingStructure = new String[bibRef.annotation.size()];
 			for (int s = 0; s < dummyWorkingStructure.length; s++)
 				dummyWorkingStructure[s] = "_";
-			bibRef.structure = new Structure(bibRef.annotation, dummyWorkingStructure);
+			bibRef.structure = new Structure(bibRef.annotation, bibRef.tokenShapes, dummyWorkingStructure);
 		}
 		
 		if (DEBUG) {
-			System.out.println(" =plain=> (" + maxScore + ") " + ((maxScoreStructure == null) ? "not found" : maxScoreStructure.punctSummaryString));
-			System.out.println(" =fuzzy=> (" + maxFuzzyScore + ") " + ((maxFuzzyScoreStructure == null) ? "not found" : maxFuzzyScoreStructure.punctSummaryString));
-			System.out.println("   ==> (" + maxFuzzyScore + ") " + bibRef.structure.punctSummaryString);
+			System.out.println(" =plain=> (" + maxScore + ") " + ((maxScoreStructure == null) ? "not found" : maxScoreStructure.getPunctSummaryString()));
+			System.out.println(" =fuzzy=> (" + maxFuzzyScore + ") " + ((maxFuzzyScoreStructure == null) ? "not found" : maxFuzzyScoreStructure.getPunctSummaryString()));
+			System.out.println("   ==> (" + maxFuzzyScore + ") " + bibRef.structure.getPunctSummaryString());
 		}
 		
 		//	this one's been parsed before, no annotation to add
@@ -3141,7 +3698,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				for (int t = proceedingsTitles[pt].getStartIndex(); t < proceedingsTitles[pt].getEndIndex(); t++)
 					bibRef.structure.details[t] = "_";
 			}
-			bibRef.structure = new Structure(bibRef.annotation, bibRef.structure.details);
+			bibRef.structure = new Structure(bibRef.annotation, bibRef.tokenShapes, bibRef.structure.details);
 		}
 		
 		//	transform details into annotations
@@ -3230,29 +3787,22 @@ Observe in the long haul if any of these rules does more harm than good !!!
 	//	TODOne adjust exponents values SEEMS TO WORK LIKE THIS
 	private static final int matchExp = 3;
 	private static final int subsumeExp = 2;
-	private static final int getFuzzyScore(int sSize, String sString, LinkedHashSet sElements, CountingSet structureCounts, HashMap structureElementSets) {
+	private static final int getFuzzyScore(int sSize, int sSignature, StructureSignatureTable structureSignatures, StructureSignatureTable.Group candidateSignatures) {
 		int fuzzyScore = 0;
-		for (Iterator csit = structureElementSets.keySet().iterator(); csit.hasNext();) {
-			String cString = ((String) csit.next());
-			int fScore;
-			
-			//	structures equal, score like above
-			if (cString.equals(sString))
-//				fScore = (((int) Math.pow(sPunctSummaryElements.size(), 2)) * structureCounts.getCount(structure.typeString));
-				fScore = (((int) Math.pow(sSize, matchExp)) * structureCounts.getCount(cString));
-			
-			//	try subsumption match
-			else {
-				LinkedHashSet cElements = ((LinkedHashSet) structureElementSets.get(cString));
-				if (subsumes(cElements, sElements))
-//					fScore = (((int) Math.pow(sSummaryElements.size(), 2)) * structureCounts.getCount(typeString));
-//					fScore = (((int) Math.pow(structure.detailTypes.size(), 2)) * structureCounts.getCount(typeString));
-					fScore = (((((int) Math.pow(sSize, subsumeExp)) * structureCounts.getCount(cString)) * sElements.size()) / cElements.size());
-				else fScore = 0;
-			}
-			
-			//	add score
-//			fuzzyScore += fScore;
+		int matchFactor = ((int) Math.pow(sSize, matchExp));
+		int subsumeFactor = ((int) Math.pow(sSize, subsumeExp));
+		
+		//	structures equal, score like above
+		if (candidateSignatures.contains(sSignature))
+//			fScore = (((int) Math.pow(sPunctSummaryElements.size(), 2)) * structureCounts.getCount(structure.typeString));
+			fuzzyScore = (matchFactor * structureSignatures.getCount(sSignature));
+		
+		//	try subsumption match (scores below are proportional to ratio of count to size of subsuming structure, so best subsumer yields maximum)
+		int cSignature = candidateSignatures.getBestSubsumer(sSignature);
+		if (cSignature != -1) {
+//			fScore = (((int) Math.pow(sSummaryElements.size(), 2)) * structureCounts.getCount(typeString));
+//			fScore = (((int) Math.pow(structure.detailTypes.size(), 2)) * structureCounts.getCount(typeString));
+			int fScore = (((subsumeFactor * structureSignatures.getCount(cSignature)) * structureSignatures.getElementSetSize(sSignature)) / structureSignatures.getElementSetSize(cSignature));
 			fuzzyScore = Math.max(fuzzyScore, fScore);
 		}
 		
@@ -3260,40 +3810,6 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		return fuzzyScore;
 	}
 	
-	private static boolean subsumes(LinkedHashSet higherStructure, LinkedHashSet lowerStructure) {
-		
-		//	lower structure larger than higher structure
-		//	==> subsumption match impossible
-		if (higherStructure.size() <= lowerStructure.size())
-			return false;
-		
-		//	lower structure has elements not contained in higher structure
-		//	==> subsumption match impossible
-		if (!higherStructure.containsAll(lowerStructure))
-			return false;
-		
-		//	check element order
-		for (Iterator hsit = higherStructure.iterator(), lsit = lowerStructure.iterator(); hsit.hasNext();) {
-			
-			//	get next element of higher structure
-			String hsElement = ((String) hsit.next());
-			
-			//	element not contained in lower structure
-			//	==> ignore it
-			if (!lowerStructure.contains(hsElement))
-				continue;
-			
-			//	element contained in lower structure, has to be next in latter to not violate ordering condition
-			//	==> if not, higher structure does not subsume lower structure
-			if (!lsit.hasNext() || !hsElement.equals(lsit.next()))
-				return false;
-		}
-		
-		//	due to containsAll() pre-condition, there cannot be left anything in lower structure
-		//	==> we have a subsumption match
-		return true;
-	}
-	
 	private String selectPrimarySeparator(BibRef[] bibRefs) {
 		CountingSet separators = new CountingSet(new LinkedHashMap());
 		
@@ -3343,7 +3859,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				continue;
 			boolean elementsBetween = false;
 			for (int t = bibRefs[r].wordBlocks[0].getEndIndex(); t < bibRefs[r].wordBlocks[1].getStartIndex(); t++)
-				if (bibRefs[r].wordBlockExcluded[t] || Gamta.isWord(bibRefs[r].annotation.valueAt(t)) || Gamta.isNumber(bibRefs[r].annotation.valueAt(t))) {
+				if (bibRefs[r].wordBlockExcluded[t] || bibRefs[r].hasShape(t, (WORD_SHAPE | NUMBER_SHAPE))) {
 					elementsBetween = true;
 					break;
 				}
@@ -3382,7 +3898,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		return tJopSeparator;
 	}
 	
-	private void extractVolumeReference(BibRef bibRef, String primarySeparator, AuthorListStyle authorListStyle, NameStyle nameStyle, DocumentStyle authorNameStyle) {
+	private void extractVolumeReference(BibRef bibRef, String primarySeparator, AuthorListStyle authorListStyle, NameStyle nameStyle, AuthorNameStyle authorNameStyle) {
 		
 		//	get volume reference prefixes
 		Annotation[] volumeReferencePrefixes = Gamta.extractAllMatches(bibRef.annotation, "[IiEe][Nn]\\:?", 2);
@@ -3556,7 +4072,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 						gotOpeningBracket = true;
 						break;
 					}
-					else if (Gamta.isClosingBracket(bibRef.annotation.valueAt(t)))
+					else if (bibRef.hasShape(t, CLOSING_BRACKET_SHAPE))
 						break;
 				}
 				if (gotOpeningBracket)
@@ -3664,16 +4180,18 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		return partDesignator;
 	}
 	
-	private void selectTitleJournalPublisher(BibRef bibRef, String tJopSeparator, TokenSequence tJopSeparatorTokens, BibRef[] bibRefs, boolean isRecursiveCall) {
+	private void selectTitleJournalPublisher(BibRef bibRef, String tJopSeparator, TokenSequence tJopSeparatorTokens, SurroundingTypeIndex surroundingTypes, boolean isRecursiveCall) {
 		if (!isRecursiveCall && DEBUG) System.out.println("Getting title and JoP from " + bibRef.annotation.toXML());
 		
 		//	select title, journal/publisher, and volume title
-		this.selectTitleJournalPublisher(bibRef, tJopSeparator, tJopSeparatorTokens, bibRefs);
+		this.selectTitleJournalPublisher(bibRef, tJopSeparator, tJopSeparatorTokens, surroundingTypes);
 		
 		//	trim punctuation
-		bibRef.title = this.truncatePunctuation(bibRef.annotation, bibRef.title, "", "?!");
-		bibRef.volumeTitle = this.truncatePunctuation(bibRef.annotation, bibRef.volumeTitle, "", "?!");
-		bibRef.journalOrPublisher = this.truncatePunctuation(bibRef.annotation, bibRef.journalOrPublisher, "", "");
+		synchronized (bibRef.documentLock) {
+			bibRef.title = this.truncatePunctuation(bibRef.annotation, bibRef.title, "", "?!");
+			bibRef.volumeTitle = this.truncatePunctuation(bibRef.annotation, bibRef.volumeTitle, "", "?!");
+			bibRef.journalOrPublisher = this.truncatePunctuation(bibRef.annotation, bibRef.journalOrPublisher, "", "");
+		}
 		
 		//	include tailing question and exclamation marks in title (they do have some semantics)
 		bibRef.title = this.includeTailingPunctuation(bibRef, bibRef.title, "?!");
@@ -3715,7 +4233,9 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		
 		//	get rid of volume reference (or whatever is left of it)
-		AnnotationFilter.removeAnnotations(bibRef.annotation, VOLUME_REFERENCE_ANNOTATION_TYPE);
+		synchronized (bibRef.documentLock) {
+			AnnotationFilter.removeAnnotations(bibRef.annotation, VOLUME_REFERENCE_ANNOTATION_TYPE);
+		}
 		for (int t = 0; t < bibRef.annotation.size(); t++) {
 			if (VOLUME_REFERENCE_ANNOTATION_TYPE.equals(detailTypes[t]))
 				detailTypes[t] = "_";
@@ -3776,10 +4296,10 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		
 		//	start over
-		this.selectTitleJournalPublisher(bibRef, tJopSeparator, tJopSeparatorTokens, bibRefs, true);
+		this.selectTitleJournalPublisher(bibRef, tJopSeparator, tJopSeparatorTokens, surroundingTypes, true);
 	}
 	
-	private void selectTitleJournalPublisher(BibRef bibRef, String tJopSeparator, TokenSequence tJopSeparatorTokens, BibRef[] bibRefs) {
+	private void selectTitleJournalPublisher(BibRef bibRef, String tJopSeparator, TokenSequence tJopSeparatorTokens, SurroundingTypeIndex surroundingTypes) {
 		if (bibRef.wordBlocks.length == 0)
 			return;
 		
@@ -4025,7 +4545,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 					break;
 				boolean gotNumber = false;
 				for (int t = 0; t < bibRef.wordBlocks[b].size(); t++)
-					if ((bibRef.wordBlocks[b].valueAt(t).length() > 1) && Gamta.isNumber(bibRef.wordBlocks[b].valueAt(t))) {
+					if ((bibRef.wordBlocks[b].valueAt(t).length() > 1) && bibRef.hasShape((bibRef.wordBlocks[b].getStartIndex() + t), NUMBER_SHAPE)) {
 						gotNumber = true;
 						break;
 					}
@@ -4054,7 +4574,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				break;
 			boolean gotWord = false;
 			for (int t = 0; t < bibRef.wordBlocks[b].size(); t++)
-				if ((bibRef.wordBlocks[b].valueAt(t).length() > 1) && Gamta.isWord(bibRef.wordBlocks[b].valueAt(t))) {
+				if ((bibRef.wordBlocks[b].valueAt(t).length() > 1) && bibRef.hasShape((bibRef.wordBlocks[b].getStartIndex() + t), WORD_SHAPE)) {
 					gotWord = true;
 					break;
 				}
@@ -4130,7 +4650,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 						continue;
 					if ((partDesCount != 0) && (bibRef.wordBlocks[b].getEndIndex() > maxJournalEnd) && (bibRef.wordBlocks[lJopBlockIndex].getStartIndex() < maxJournalEnd))
 						continue;
-					if (!bibRef.wordBlocks[b].firstValue().matches("[A-Z].*"))
+					if (!bibRef.hasShape(bibRef.wordBlocks[b].getStartIndex(), CAPITALIZED_SHAPE))
 						continue;
 					if (this.hasCapWord(bibRef.wordBlocks[b])) {
 						lJopBlockIndex = b;
@@ -4153,7 +4673,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 							if (DEBUG) System.out.println(" - giving up at block starting before " + Math.max(minJournalStart, minPublisherStart) + ": '" + bibRef.wordBlocks[b].getValue() + "'");
 							break;
 						}
-						if (!bibRef.wordBlocks[b].firstValue().matches("[A-Z].*")) {
+						if (!bibRef.hasShape(bibRef.wordBlocks[b].getStartIndex(), CAPITALIZED_SHAPE)) {
 							if (DEBUG) System.out.println(" - cannot start JoP with '" + bibRef.wordBlocks[b].firstValue() + "'");
 							continue;
 						}
@@ -4178,11 +4698,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 						if (DEBUG) System.out.println(" - giving up at block starting before " + Math.max(minJournalStart, minPublisherStart) + ": '" + bibRef.wordBlocks[b].getValue() + "'");
 						break;
 					}
-					if (!bibRef.wordBlocks[b].firstValue().matches("[A-Z].*")) {
+					if (!bibRef.hasShape(bibRef.wordBlocks[b].getStartIndex(), CAPITALIZED_SHAPE)) {
 						if (DEBUG) System.out.println(" - cannot start JoP with '" + bibRef.wordBlocks[b].firstValue() + "'");
 						continue;
 					}
-					if (((bibRef.wordBlocks[b].size() != 1) || !bibRef.wordBlocks[b].firstValue().matches("[A-Z][a-z]?") || bibRef.titleNumberToken[bibRef.wordBlocks[b].getStartIndex()]) && !this.hasCapWord(bibRef.wordBlocks[b])) {
+					if (((bibRef.wordBlocks[b].size() != 1) || !bibRef.hasShape(bibRef.wordBlocks[b].getStartIndex(), INITIAL_OR_SHORT_WORD_SHAPE) || bibRef.titleNumberToken[bibRef.wordBlocks[b].getStartIndex()]) && !this.hasCapWord(bibRef.wordBlocks[b])) {
 						if (DEBUG) System.out.println(" - cannot start JoP without cap words");
 						continue;
 					}
@@ -4285,7 +4805,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 					continue;
 				if ((partDesCount != 0) && (bibRef.wordBlocks[b].getEndIndex() > maxJournalEnd) && (lJopBlockIndex < bibRef.wordBlocks.length) && (bibRef.wordBlocks[lJopBlockIndex].getStartIndex() < maxJournalEnd))
 					continue;
-				if (!bibRef.wordBlocks[b].firstValue().matches("[A-Z].*"))
+				if (!bibRef.hasShape(bibRef.wordBlocks[b].getStartIndex(), CAPITALIZED_SHAPE))
 					continue;
 				if (this.hasCapWord(bibRef.wordBlocks[b])) {
 					lJopBlockIndex = b;
@@ -4309,7 +4829,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 						if (DEBUG) System.out.println(" - giving up at block starting before " + Math.max(minJournalStart, minPublisherStart) + ": '" + bibRef.wordBlocks[b].getValue() + "'");
 						break;
 					}
-					if (!bibRef.wordBlocks[b].firstValue().matches("[A-Z].*")) {
+					if (!bibRef.hasShape(bibRef.wordBlocks[b].getStartIndex(), CAPITALIZED_SHAPE)) {
 						if (DEBUG) System.out.println(" - cannot start JoP with '" + bibRef.wordBlocks[b].firstValue() + "'");
 						continue;
 					}
@@ -4334,11 +4854,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 					if (DEBUG) System.out.println(" - giving up at block starting before " + Math.max(minJournalStart, minPublisherStart) + ": '" + bibRef.wordBlocks[b].getValue() + "'");
 					break;
 				}
-				if (!bibRef.wordBlocks[b].firstValue().matches("[A-Z].*")) {
+				if (!bibRef.hasShape(bibRef.wordBlocks[b].getStartIndex(), CAPITALIZED_SHAPE)) {
 					if (DEBUG) System.out.println(" - cannot start JoP with '" + bibRef.wordBlocks[b].firstValue() + "'");
 					continue;
 				}
-				if (((bibRef.wordBlocks[b].size() != 1) || !bibRef.wordBlocks[b].firstValue().matches("[A-Z][a-z]?") || bibRef.titleNumberToken[bibRef.wordBlocks[b].getStartIndex()]) && !this.hasCapWord(bibRef.wordBlocks[b])) {
+				if (((bibRef.wordBlocks[b].size() != 1) || !bibRef.hasShape(bibRef.wordBlocks[b].getStartIndex(), INITIAL_OR_SHORT_WORD_SHAPE) || bibRef.titleNumberToken[bibRef.wordBlocks[b].getStartIndex()]) && !this.hasCapWord(bibRef.wordBlocks[b])) {
 					if (DEBUG) System.out.println(" - cannot start JoP without cap words");
 					continue;
 				}
@@ -4417,7 +4937,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			
 			//	compare to element order in other references
 			for (int t = 0; t < titles.size(); t++)
-				this.assessSurroundingTypes(bibRef, ((Annotation) titles.get(t)), bibRefs);
+				this.assessSurroundingTypes(bibRef, ((Annotation) titles.get(t)), surroundingTypes);
 			
 			//	handle titles assigned to other types
 			this.assignTypedWordBlocks(bibRef, titles);
@@ -4459,7 +4979,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			//	compare to element order in other references
 			for (int j = 0; j < jops.size(); j++) {
 				Annotation jop = ((Annotation) jops.get(j));
-				this.assessSurroundingTypes(bibRef, jop, bibRefs);
+				this.assessSurroundingTypes(bibRef, jop, surroundingTypes);
 				//	TODO also consider word block score
 				
 				//	TODO insist on capitalized word
@@ -4491,7 +5011,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			for (int t = (titles.size() - 1); t >= 0; t--) {
 				Annotation title = ((Annotation) titles.get(t));
 				if (DEBUG) System.out.println(" - " + title.toXML());
-				if (!title.firstValue().matches("[A-Z].*")) {
+				if (!bibRef.hasShape(title.getStartIndex(), CAPITALIZED_SHAPE)) {
 					if (DEBUG) System.out.println(" --> cannot attach, lower case start");
 					continue;
 				}
@@ -4501,7 +5021,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				}
 				boolean canMerge = true;
 				for (int b = title.getEndIndex(); b < bibRef.journalOrPublisher.getStartIndex(); b++)
-					if (!"_".equals(bibRef.structure.details[b]) && !Gamta.isPunctuation(bibRef.annotation.valueAt(b))) {
+					if (!"_".equals(bibRef.structure.details[b]) && !bibRef.hasShape(b, PUNCTUATION_SHAPE)) {
 						canMerge = false;
 						if (DEBUG) System.out.println(" --> cannot attach due to intermediate " + bibRef.structure.details[b] + ": " + bibRef.annotation.valueAt(b));
 						break;
@@ -4526,7 +5046,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			for (int t = (volumeTitles.size() - 1); t >= 0; t--) {
 				Annotation volumeTitle = ((Annotation) volumeTitles.get(t));
 				if (DEBUG) System.out.println(" - " + volumeTitle.toXML());
-				if (!volumeTitle.firstValue().matches("[A-Z].*")) {
+				if (!bibRef.hasShape(volumeTitle.getStartIndex(), CAPITALIZED_SHAPE)) {
 					if (DEBUG) System.out.println(" --> cannot attach, lower case start");
 					continue;
 				}
@@ -4536,7 +5056,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				}
 				boolean canMerge = true;
 				for (int b = volumeTitle.getEndIndex(); b < bibRef.journalOrPublisher.getStartIndex(); b++)
-					if (!"_".equals(bibRef.structure.details[b]) && !Gamta.isPunctuation(bibRef.annotation.valueAt(b))) {
+					if (!"_".equals(bibRef.structure.details[b]) && !bibRef.hasShape(b, PUNCTUATION_SHAPE)) {
 						canMerge = false;
 						if (DEBUG) System.out.println(" --> cannot attach due to intermediate " + bibRef.structure.details[b] + ": " + bibRef.annotation.valueAt(b));
 						break;
@@ -4556,7 +5076,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			for (int j = 0; j < jops.size(); j++) {
 				Annotation jop = ((Annotation) jops.get(j));
 				if (DEBUG) System.out.println(" - " + jop.toXML());
-				if (!jop.firstValue().matches("[A-Z].*")) {
+				if (!bibRef.hasShape(jop.getStartIndex(), CAPITALIZED_SHAPE)) {
 					if (DEBUG) System.out.println(" --> cannot attach, lower case start");
 					continue;
 				}
@@ -4574,7 +5094,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				if ((bibRef.title != null) && (bibRef.title.getEndIndex() <= jop.getStartIndex())) {
 					boolean canMerge = true;
 					for (int b = bibRef.title.getEndIndex(); b < jop.getStartIndex(); b++)
-						if (!"_".equals(bibRef.structure.details[b]) && !Gamta.isPunctuation(bibRef.annotation.valueAt(b))) {
+						if (!"_".equals(bibRef.structure.details[b]) && !bibRef.hasShape(b, PUNCTUATION_SHAPE)) {
 							canMerge = false;
 							if (DEBUG) System.out.println(" --> cannot attach to title due to intermediate " + bibRef.structure.details[b] + ": " + bibRef.annotation.valueAt(b));
 							break;
@@ -4592,7 +5112,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				if ((bibRef.volumeTitle != null) && (bibRef.volumeTitle.getEndIndex() <= jop.getStartIndex())) {
 					boolean canMerge = true;
 					for (int b = bibRef.volumeTitle.getEndIndex(); b < jop.getStartIndex(); b++)
-						if (!"_".equals(bibRef.structure.details[b]) && !Gamta.isPunctuation(bibRef.annotation.valueAt(b))) {
+						if (!"_".equals(bibRef.structure.details[b]) && !bibRef.hasShape(b, PUNCTUATION_SHAPE)) {
 							canMerge = false;
 							if (DEBUG) System.out.println(" --> cannot attach to volume title due to intermediate " + bibRef.structure.details[b] + ": " + bibRef.annotation.valueAt(b));
 							break;
@@ -4609,7 +5129,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 	}
 	
-	private void assessSurroundingTypes(BibRef bibRef, Annotation wordBlock, BibRef[] bibRefs) {
+	private void assessSurroundingTypes(BibRef bibRef, Annotation wordBlock, SurroundingTypeIndex surroundingTypes) {
 		
 		//	TODO also consider word block score
 		
@@ -4617,7 +5137,6 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		
 		String beforeType = "|";
 		String afterType = "|";
-		CountingSet types = new CountingSet();
 		if (DEBUG) System.out.println(" - investigating '" + wordBlock.getValue() + "'");
 		for (int b = (wordBlock.getStartIndex()-1); b >= 0; b--)
 			if (!"_".equals(bibRef.structure.details[b])) {
@@ -4631,26 +5150,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				if (DEBUG) System.out.println("   - after type is " + afterType);
 				break;
 			}
-		for (int s = 0; s < bibRefs.length; s++) {
-			if (bibRefs[s] == bibRef)
-				continue;
-			for (int i = 0; i < bibRefs[s].structure.punctSummary.length; i++) {
-				if (beforeType.equals(bibRefs[s].structure.punctSummary[i])) {
-					for (int a = (i+1); a < bibRefs[s].structure.punctSummary.length; a++)
-						if ("_".equals(bibRefs[s].structure.punctSummary[a]) || !Gamta.isPunctuation(bibRefs[s].structure.punctSummary[a])) {
-							types.add(bibRefs[s].structure.punctSummary[a]);
-							break;
-						}
-				}
-				if (afterType.equals(bibRefs[s].structure.punctSummary[i])) {
-					for (int b = (i-1); b >= 0; b--)
-						if ("_".equals(bibRefs[s].structure.punctSummary[b]) || !Gamta.isPunctuation(bibRefs[s].structure.punctSummary[b])) {
-							types.add(bibRefs[s].structure.punctSummary[b]);
-							break;
-						}
-				}
-			}
-		}
+		CountingSet types = surroundingTypes.getSurroundingTypes(bibRef, beforeType, afterType);
 		if (DEBUG) System.out.println(" - types after " + beforeType + " / before " + afterType + ":");
 		int inferredTypeScore = 0;
 		for (Iterator tit = types.iterator(); tit.hasNext();) {
@@ -4666,6 +5166,161 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 	}
 	
+	/**
+	 * Document wide index of the types following and preceding each element
+	 * in the punctuated summaries of the selected reference structures, i.e.,
+	 * the first non-punctuation element (or '_') after or before each
+	 * occurrence of an element. Collecting the surrounding types of a word
+	 * block from all references but its own thus only requires subtracting the
+	 * contribution of its own reference, instead of scanning all the others.
+	 * The index also records where each type first occurs, and the surrounding
+	 * types are added to the result in that order, just as the scan adds them.
+	 * As CountingSet is backed by a HashMap, this does not make the result
+	 * iterate in scan order; it only keeps types whose keys land in the same
+	 * hash bucket in the same relative order as with the scan, so ties in the
+	 * type vote resolve exactly the same way.
+	 */
+	private static class SurroundingTypeIndex {
+		private HashMap bibRefIndices = new HashMap();
+		private HashMap followingTypes = new HashMap();
+		private HashMap precedingTypes = new HashMap();
+		
+		SurroundingTypeIndex(BibRef[] bibRefs) {
+			for (int r = 0; r < bibRefs.length; r++) {
+				this.bibRefIndices.put(bibRefs[r], new Integer(r));
+				String[] punctSummary = bibRefs[r].structure.punctSummary;
+				for (int i = 0; i < punctSummary.length; i++) {
+					int a = getNextType(punctSummary, i);
+					if (a != -1)
+						getTypeCount(this.followingTypes, punctSummary[i], punctSummary[a]).add(r, ((i * 2) + 0));
+					int b = getPreviousType(punctSummary, i);
+					if (b != -1)
+						getTypeCount(this.precedingTypes, punctSummary[i], punctSummary[b]).add(r, ((i * 2) + 1));
+				}
+			}
+		}
+		
+		/**
+		 * Collect the types following a given type and preceding another
+		 * given type in all references but a given one.
+		 * @param bibRef the reference to exclude
+		 * @param beforeType the type to collect the following types of
+		 * @param afterType the type to collect the preceding types of
+		 * @return the types with their counts
+		 */
+		CountingSet getSurroundingTypes(BibRef bibRef, String beforeType, String afterType) {
+			Integer bibRefIndex = ((Integer) this.bibRefIndices.get(bibRef));
+			int r = ((bibRefIndex == null) ? -1 : bibRefIndex.intValue());
+			
+			//	collect contribution of argument reference
+			CountingSet ownTypes = new CountingSet();
+			if (r != -1) {
+				String[] punctSummary = bibRef.structure.punctSummary;
+				for (int i = 0; i < punctSummary.length; i++) {
+					int a = (beforeType.equals(punctSummary[i]) ? getNextType(punctSummary, i) : -1);
+					if (a != -1)
+						ownTypes.add(punctSummary[a]);
+					int b = (afterType.equals(punctSummary[i]) ? getPreviousType(punctSummary, i) : -1);
+					if (b != -1)
+						ownTypes.add(punctSummary[b]);
+				}
+			}
+			
+			//	combine following and preceding types, excluding argument reference
+			HashMap typeCounts = new HashMap();
+			HashMap typeFirstOccurrences = new HashMap();
+			this.addTypeCounts(((HashMap) this.followingTypes.get(beforeType)), r, typeCounts, typeFirstOccurrences);
+			this.addTypeCounts(((HashMap) this.precedingTypes.get(afterType)), r, typeCounts, typeFirstOccurrences);
+			ArrayList typeList = new ArrayList();
+			for (Iterator tit = typeCounts.keySet().iterator(); tit.hasNext();) {
+				String type = ((String) tit.next());
+				if ((((Integer) typeCounts.get(type)).intValue() - ownTypes.getCount(type)) > 0)
+					typeList.add(type);
+			}
+			
+			//	add types in order of first occurrence, just as a scan would
+			final HashMap sortFirstOccurrences = typeFirstOccurrences;
+			Collections.sort(typeList, new Comparator() {
+				public int compare(Object o1, Object o2) {
+					long fo1 = ((Long) sortFirstOccurrences.get(o1)).longValue();
+					long fo2 = ((Long) sortFirstOccurrences.get(o2)).longValue();
+					return ((fo1 < fo2) ? -1 : ((fo1 == fo2) ? 0 : 1));
+				}
+			});
+			CountingSet types = new CountingSet();
+			for (int t = 0; t < typeList.size(); t++) {
+				String type = ((String) typeList.get(t));
+				types.add(type, (((Integer) typeCounts.get(type)).intValue() - ownTypes.getCount(type)));
+			}
+			return types;
+		}
+		
+		private void addTypeCounts(HashMap surroundingTypeCounts, int r, HashMap typeCounts, HashMap typeFirstOccurrences) {
+			if (surroundingTypeCounts == null)
+				return;
+			for (Iterator tit = surroundingTypeCounts.keySet().iterator(); tit.hasNext();) {
+				String type = ((String) tit.next());
+				SurroundingTypeCount stc = ((SurroundingTypeCount) surroundingTypeCounts.get(type));
+				Integer count = ((Integer) typeCounts.get(type));
+				typeCounts.put(type, new Integer(((count == null) ? 0 : count.intValue()) + stc.count));
+				long firstOccurrence = stc.getFirstOccurrence(r);
+				Long typeFirstOccurrence = ((Long) typeFirstOccurrences.get(type));
+				if ((typeFirstOccurrence == null) || (firstOccurrence < typeFirstOccurrence.longValue()))
+					typeFirstOccurrences.put(type, new Long(firstOccurrence));
+			}
+		}
+		
+		private SurroundingTypeCount getTypeCount(HashMap surroundingTypes, String type, String surroundingType) {
+			HashMap surroundingTypeCounts = ((HashMap) surroundingTypes.get(type));
+			if (surroundingTypeCounts == null) {
+				surroundingTypeCounts = new HashMap();
+				surroundingTypes.put(type, surroundingTypeCounts);
+			}
+			SurroundingTypeCount stc = ((SurroundingTypeCount) surroundingTypeCounts.get(surroundingType));
+			if (stc == null) {
+				stc = new SurroundingTypeCount();
+				surroundingTypeCounts.put(surroundingType, stc);
+			}
+			return stc;
+		}
+		
+		/* get the index of the first non-punctuation element (or '_') after some index, -1 if there is none */
+		private int getNextType(String[] punctSummary, int i) {
+			for (int a = (i+1); a < punctSummary.length; a++) {
+				if ("_".equals(punctSummary[a]) || !Gamta.isPunctuation(punctSummary[a]))
+					return a;
+			}
+			return -1;
+		}
+		
+		/* get the index of the last non-punctuation element (or '_') before some index, -1 if there is none */
+		private int getPreviousType(String[] punctSummary, int i) {
+			for (int b = (i-1); b >= 0; b--) {
+				if ("_".equals(punctSummary[b]) || !Gamta.isPunctuation(punctSummary[b]))
+					return b;
+			}
+			return -1;
+		}
+	}
+	
+	/* count of a surrounding type, with its first occurrences in the first two references it occurs in (as reference index and position) */
+	private static class SurroundingTypeCount {
+		int count = 0;
+		long first = Long.MAX_VALUE;
+		long second = Long.MAX_VALUE;
+		void add(int r, int pos) {
+			this.count++;
+			long occurrence = ((((long) r) << 32) | pos);
+			if (this.first == Long.MAX_VALUE)
+				this.first = occurrence;
+			else if ((this.second == Long.MAX_VALUE) && ((this.first >> 32) != r))
+				this.second = occurrence;
+		}
+		long getFirstOccurrence(int r) {
+			return (((this.first >> 32) == r) ? this.second : this.first);
+		}
+	}
+	
 	private void assignTypedWordBlocks(BibRef bibRef, ArrayList wordBlocks) {
 		for (int w = 0; w < wordBlocks.size(); w++) {
 			Annotation wordBlock = ((Annotation) wordBlocks.get(w));
@@ -4717,7 +5372,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			eWordBlock = Gamta.newAnnotation(bibRef.annotation, wordBlock.getType(), wordBlock.getStartIndex(), (wordBlock.size() + 1));
 			eWordBlock.copyAttributes(wordBlock);
 		}
-		else {
+		else synchronized (bibRef.documentLock) {
 			eWordBlock = bibRef.annotation.addAnnotation(wordBlock.getType(), wordBlock.getStartIndex(), (wordBlock.size() + 1));
 			eWordBlock.copyAttributes(wordBlock);
 			bibRef.annotation.removeAnnotation(wordBlock);
@@ -4738,7 +5393,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			tWordBlock = Gamta.newAnnotation(bibRef.annotation, wordBlock.getType(), wordBlock.getStartIndex(), (wordBlock.size() - 1));
 			tWordBlock.copyAttributes(wordBlock);
 		}
-		else {
+		else synchronized (bibRef.documentLock) {
 			tWordBlock = bibRef.annotation.addAnnotation(wordBlock.getType(), wordBlock.getStartIndex(), (wordBlock.size() - 1));
 			tWordBlock.copyAttributes(wordBlock);
 			bibRef.annotation.removeAnnotation(wordBlock);
@@ -4827,7 +5482,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		//	truncate and unify page data
 		if (bibRef.pagination != null) {
 			int start = bibRef.pagination.getStartIndex();
-			while ((start < bibRef.pagination.getEndIndex()) && !Gamta.isNumber(bibRef.annotation.valueAt(start)))
+			while ((start < bibRef.pagination.getEndIndex()) && !bibRef.hasShape(start, NUMBER_SHAPE))
 				start++;
 			if ((start != bibRef.pagination.getStartIndex()) && (start < bibRef.pagination.getEndIndex()))
 				bibRef.pagination = Gamta.newAnnotation(bibRef.annotation, bibRef.pagination.getType(), start, (bibRef.pagination.getEndIndex() - start));
@@ -4868,6 +5523,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		if (bibRef.type != null)
 			bibRef.annotation.setAttribute(PUBLICATION_TYPE_ATTRIBUTE, bibRef.type.name);
 		
+		//	flag references some patterns ran out of matching steps on
+		if (bibRef.matchBudget.isExhausted())
+			bibRef.annotation.setAttribute(MATCH_BUDGET_EXHAUSTED_ATTRIBUTE, MATCH_BUDGET_EXHAUSTED_ATTRIBUTE);
+		else bibRef.annotation.removeAttribute(MATCH_BUDGET_EXHAUSTED_ATTRIBUTE);
+		
 		if (DEBUG) System.out.println("Result for reference " + bibRef.annotation.toXML());
 		
 		//	annotate DOIs ...
@@ -5020,6 +5680,15 @@ Observe in the long haul if any of these rules does more harm than good !!!
 	}
 	
 	void learnDetails(MutableAnnotation bibRef) {
+		this.configLock.readLock().lock();
+		try {
+			this.doLearnDetails(bibRef);
+		}
+		finally {
+			this.configLock.readLock().unlock();
+		}
+	}
+	private void doLearnDetails(MutableAnnotation bibRef) {
 		
 		//	learn author names, and also editor names, might be authors somewhere else
 		Annotation[] feedbackAuthors = bibRef.getAnnotations(AUTHOR_ANNOTATION_TYPE);
@@ -5079,9 +5748,62 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 	}
 	
+	//	token shape flags, computed once per reference token and stored in BibRef.tokenShapes
+	private static final int WORD_SHAPE = 0x0001;
+	private static final int NUMBER_SHAPE = 0x0002;
+	private static final int PUNCTUATION_SHAPE = 0x0004;
+	private static final int CLOSING_BRACKET_SHAPE = 0x0008;
+	private static final int CAPITALIZED_SHAPE = 0x0010; // [A-Z].*
+	private static final int INITIAL_OR_SHORT_WORD_SHAPE = 0x0020; // [A-Z][a-z]?
+	private static final int LOWER_CASE_LETTER_SHAPE = 0x0040; // [a-z]
+	private static final int CAPITAL_LETTER_SHAPE = 0x0080; // [A-Z]
+	private static final int PART_DESIGNATOR_LETTER_SHAPE = 0x0100; // [A-Zz-z]
+	private static final int ROMAN_PART_DESIGNATOR_SHAPE = 0x0200; // [IVXivx]+
+	private static final int POSITIVE_NUMBER_SHAPE = 0x0400; // [1-9][0-9]*
+	private static final int FOUR_DIGIT_YEAR_SHAPE = 0x0800; // [12][0-9]{3}
+	private static final int ROMAN_PAGE_NUMBER_SHAPE = 0x1000; // romanNumberRegEx
+	
+	private int[] getTokenShapes(TokenSequence tokens) {
+		int[] tokenShapes = new int[tokens.size()];
+		for (int t = 0; t < tokens.size(); t++) {
+			String value = tokens.valueAt(t);
+			int shape = 0;
+			if (Gamta.isWord(value))
+				shape |= WORD_SHAPE;
+			if (Gamta.isNumber(value))
+				shape |= NUMBER_SHAPE;
+			if (Gamta.isPunctuation(value))
+				shape |= PUNCTUATION_SHAPE;
+			if (Gamta.isClosingBracket(value))
+				shape |= CLOSING_BRACKET_SHAPE;
+			if (capitalizedWordPattern.matcher(value).matches())
+				shape |= CAPITALIZED_SHAPE;
+			if (initialOrShortWordPattern.matcher(value).matches())
+				shape |= INITIAL_OR_SHORT_WORD_SHAPE;
+			if (lowerCaseLetterPattern.matcher(value).matches())
+				shape |= LOWER_CASE_LETTER_SHAPE;
+			if (capitalLetterPattern.matcher(value).matches())
+				shape |= CAPITAL_LETTER_SHAPE;
+			if (partDesignatorLetterPattern.matcher(value).matches())
+				shape |= PART_DESIGNATOR_LETTER_SHAPE;
+			if (romanPartDesignatorPattern.matcher(value).matches())
+				shape |= ROMAN_PART_DESIGNATOR_SHAPE;
+			if (positiveNumberPattern.matcher(value).matches())
+				shape |= POSITIVE_NUMBER_SHAPE;
+			if (fourDigitYearPattern.matcher(value).matches())
+				shape |= FOUR_DIGIT_YEAR_SHAPE;
+			if (this.romanNumberPattern.matcher(value).matches())
+				shape |= ROMAN_PAGE_NUMBER_SHAPE;
+			tokenShapes[t] = shape;
+		}
+		return tokenShapes;
+	}
+	
 	//	use array of instances of this class as data containers instead of individual arrays ==> facilitates splitting 1,000 line parsing method
 	private class BibRef {
 		MutableAnnotation annotation;
+		int[] tokenShapes;
+		MatchBudget matchBudget;
 		
 		boolean[] nobleTitleToken;
 		boolean[] nameListSeparator;
@@ -5150,8 +5872,13 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		ArrayList structures = new ArrayList();
 		Structure structure;
 		
-		BibRef(MutableAnnotation annot) {
+		final Object documentLock;
+		
+		BibRef(MutableAnnotation annot, Object documentLock) {
 			this.annotation = annot;
+			this.tokenShapes = getTokenShapes(annot);
+			this.matchBudget = MatchBudget.forTokens(annot);
+			this.documentLock = documentLock;
 			
 			int preExistingStructureScore = 0;
 			if (this.annotation.getAnnotations(AUTHOR_ANNOTATION_TYPE).length != 0)
@@ -5162,26 +5889,37 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				preExistingStructureScore++;
 			this.preExistingStructure = (preExistingStructureScore >= 2);
 		}
+		
+		boolean hasShape(int t, int shape) {
+			return ((this.tokenShapes[t] & shape) != 0);
+		}
 	}
 	
 	private class Structure {
 		Annotation bibRef;
+		int[] tokenShapes;
 		String[] details;
 		
 		String[] types;
-		String typeString;
+		int typeSignature = -1;
 		String[] summary;
-		String summaryString;
+		int summarySignature = -1;
 		String[] punctSummary;
-		String punctSummaryString;
+		int punctSummarySignature = -1;
 		
 		String firstDetail;
 		StringVector detailTypes = new StringVector();
+		int detailTypeCountSquare;
 		int detailTokenCount = 0;
 		int maxVoidBlockLength = 0;
 		
-		Structure(Annotation bibRef, String[] workingStructure) {
+		int firstPaginationIndex = -1;
+		int firstPartDesignatorIndex = -1;
+		int authorListLength = 0;
+		
+		Structure(Annotation bibRef, int[] tokenShapes, String[] workingStructure) {
 			this.bibRef = bibRef;
+			this.tokenShapes = tokenShapes;
 			
 			this.details = new String[workingStructure.length];
 			System.arraycopy(workingStructure, 0, this.details, 0, workingStructure.length);
@@ -5197,6 +5935,16 @@ Observe in the long haul if any of these rules does more harm than good !!!
 						this.firstDetail = this.details[d];
 					this.detailTypes.addElementIgnoreDuplicates(this.details[d]);
 					this.detailTokenCount++;
+					if (PAGINATION_ANNOTATION_TYPE.equals(this.details[d])) {
+						if (this.firstPaginationIndex == -1)
+							this.firstPaginationIndex = d;
+					}
+					else if (PART_DESIGNATOR_ANNOTATION_TYPE.equals(this.details[d])) {
+						if (this.firstPartDesignatorIndex == -1)
+							this.firstPartDesignatorIndex = d;
+					}
+					else if (AUTHOR_LIST_ANNOTATION_TYPE.equals(this.details[d]))
+						this.authorListLength++;
 					if (voidBlockLength > this.maxVoidBlockLength)
 						this.maxVoidBlockLength = voidBlockLength;
 					voidBlockLength = 0;
@@ -5206,7 +5954,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				this.maxVoidBlockLength = voidBlockLength;
 			
 			this.types = this.detailTypes.toStringArray();
-			this.typeString = this.detailTypes.concatStrings(" ");
+			this.detailTypeCountSquare = (this.types.length * this.types.length);
 			
 			StringVector summary = new StringVector();
 			String summaryLast = null;
@@ -5215,7 +5963,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			String punctSummaryLast = null;
 			
 			for (int d = 0; d < this.details.length; d++) {
-				if ((d != 0) && YEAR_ANNOTATION_TYPE.equals(this.details[d-1]) && "_".equals(this.details[d]) && this.bibRef.valueAt(d).matches("[a-z]"))
+				if ((d != 0) && YEAR_ANNOTATION_TYPE.equals(this.details[d-1]) && "_".equals(this.details[d]) && ((this.tokenShapes[d] & LOWER_CASE_LETTER_SHAPE) != 0))
 					continue; // skip over single lower case letters following year of publication
 				
 				String summaryAdd = this.details[d];
@@ -5224,7 +5972,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 					summaryLast = summaryAdd;
 				}
 				
-				String punctSummaryAdd = (("_".equals(this.details[d]) && Gamta.isPunctuation(this.bibRef.valueAt(d))) ? this.bibRef.valueAt(d) : this.details[d]);
+				String punctSummaryAdd = (("_".equals(this.details[d]) && ((this.tokenShapes[d] & PUNCTUATION_SHAPE) != 0)) ? this.bibRef.valueAt(d) : this.details[d]);
 				if ((d == 0) || !punctSummaryLast.equals(punctSummaryAdd)) {
 					punctSummary.addElement(punctSummaryAdd);
 					punctSummaryLast = punctSummaryAdd;
@@ -5232,7 +5980,6 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			}
 			
 			this.summary = summary.toStringArray();
-			this.summaryString = summary.concatStrings(" ");
 			
 			for (int p = 0; p < punctSummary.size(); p++)
 				if ("_".equals(punctSummary.get(p))) {
@@ -5249,7 +5996,26 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				}
 			
 			this.punctSummary = punctSummary.toStringArray();
-			this.punctSummaryString = punctSummary.concatStrings(" ");
+		}
+		
+		//	signature strings are only needed for the selected structure and for debug output, so concatenate them on demand
+		String getTypeString() {
+			return concatSignature(this.types);
+		}
+		String getSummaryString() {
+			return concatSignature(this.summary);
+		}
+		String getPunctSummaryString() {
+			return concatSignature(this.punctSummary);
+		}
+		private String concatSignature(String[] signature) {
+			StringBuffer signatureString = new StringBuffer();
+			for (int s = 0; s < signature.length; s++) {
+				if (s != 0)
+					signatureString.append(' ');
+				signatureString.append(signature[s]);
+			}
+			return signatureString.toString();
 		}
 	}
 	
@@ -5432,7 +6198,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		//	filter out editor list labels
 		for (int a = 0; a < authorNameList.size(); a++) {
 			Annotation authorName = ((Annotation) authorNameList.get(a));
-			if (authorName.getValue().matches(this.editorListLabelRegEx))
+			if (this.editorListLabelPattern.matcher(authorName.getValue()).matches())
 				authorNameList.remove(a--);
 		}
 		
@@ -5560,7 +6326,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			return bibRef.nobleTitleToken;
 		
 		//	mark tokens belonging to noble titles
-		Annotation[] nobleTitles = Gamta.extractAllMatches(bibRefAnnot, this.nobleTitleNameRegEx, false);
+		Annotation[] nobleTitles = ((bibRef == null) ? Gamta.extractAllMatches(bibRefAnnot, this.nobleTitleNameRegEx, false) : bibRef.matchBudget.extractAllMatches(bibRefAnnot, this.nobleTitleNameRegEx, false));
 		boolean[] isNobleTitleToken = createTokenFilter(bibRefAnnot, null);
 		if (DEBUG_AUTHOR_LIST_ASSEMBLY) System.out.println("  - possible noble titles:");
 		for (int n = 0; n < nobleTitles.length; n++) {
@@ -5599,13 +6365,18 @@ Observe in the long haul if any of these rules does more harm than good !!!
 	
 	//	TODO TEST revistaPeruanaBiologia.22.3.289-296.pdf.xml (name part order flip)
 	//	TODO TEST jPalaeogeography.s42501-018-0014-2.pdf.xml (name part order flip)
-	private AuthorList[] getAuthorLists(BibRef bibRef, Annotation bibRefAnnot, Annotation[] authorNames, DocumentStyle authorNameStyle) {
+	private static final String authorListExpansionPattern = "<authorList expandable=\"true\"> <separator> <cAuthorName>";
+	private static final String authorListCompletionPattern = "<authorList> ((<separator>|<endSeparator>) (<cAuthorName>|<eAuthorName>))?";
+	private static final String etAlAuthorListPattern = "<authorList> <etAlAuthorName>";
+	private static final String leadingEditorListLabelPattern = "<lEditorListLabel> ':'? <authorList>";
+	private static final String tailingEditorListLabelPattern = "<authorList> ','? <tEditorListLabel>";
+	private AuthorList[] getAuthorLists(BibRef bibRef, Annotation bibRefAnnot, Annotation[] authorNames, AuthorNameStyle authorNameStyle) {
 		
 		//	make sure to have noble title tokens marked
 		boolean[] isNobleTitleToken = this.markNobleTitleTokens(bibRef, bibRefAnnot);
 		
 		//	get name part order (if any)
-		String namePartOrder = authorNameStyle.getStringProperty("namePartOrder", null);
+		String namePartOrder = authorNameStyle.namePartOrder;
 		
 		//	sort author names in startAuthorName, continueAuthorName, and endAuthorName categories
 		ArrayList singleAuthorNames = new ArrayList();
@@ -5666,10 +6437,8 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		if (DEBUG_AUTHOR_LIST_ASSEMBLY) System.out.println("Got " + startAuthorNames.size() + " starting author names, " + continueAuthorNames.size() + " continuing ones, " + endAuthorNames.size() + " ending ones, and " + singleAuthorNames.size() + " single ones");
 		
 		//	get list separator(s) as a single pattern
-		String authorListSeparatorPattern = authorNameStyle.getStringProperty("nameListSeparatorPattern", "(\\,|\\;|\\&|and|et|e|y|und)");
-		Annotation[] authorListSeparators = Gamta.extractAllMatches(bibRefAnnot, authorListSeparatorPattern, true);
-		String authorListEndSeparatorPattern = authorNameStyle.getStringProperty("nameListEndSeparatorPattern", "((\\,\\;\\s*\\&)|(\\,\\s*and)|\\,|\\;|\\&|and|et|e|y|und)");
-		Annotation[] authorListEndSeparators = Gamta.extractAllMatches(bibRefAnnot, authorListEndSeparatorPattern, true);
+		Annotation[] authorListSeparators = Gamta.extractAllMatches(bibRefAnnot, authorNameStyle.listSeparatorPattern, true);
+		Annotation[] authorListEndSeparators = Gamta.extractAllMatches(bibRefAnnot, authorNameStyle.listEndSeparatorPattern, true);
 		
 		//	filter start author names if too many (see above) to prevent combinatoric runaway
 		if (startAuthorNames.size() > 25) {
@@ -5730,11 +6499,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		ArrayList newAuthorListAnnots = new ArrayList();
 		HashSet newAuthorListStrings = new HashSet();
 		do {
-			System.out.println("Attempting expansion");
+			if (DEBUG_AUTHOR_LIST_ASSEMBLY) System.out.println("Attempting expansion");
 			newAuthorListAnnots.clear();
 			newAuthorListStrings.clear();
-			MatchTree[] authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, "<authorList expandable=\"true\"> <separator> <cAuthorName>");
-			System.out.println(" - got " + authorListMatches.length + " expanded matches");
+			MatchTree[] authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, authorListExpansionPattern);
+			if (DEBUG_AUTHOR_LIST_ASSEMBLY) System.out.println(" - got " + authorListMatches.length + " expanded matches");
 			for (int l = 0; l < authorListMatches.length; l++) {
 				Annotation authorList = authorListMatches[l].getMatch();
 				authorList.changeTypeTo(AUTHOR_LIST_ANNOTATION_TYPE);
@@ -5750,7 +6519,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		
 		//	finalize author lists
 //		MatchTree[] authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, "<authorList expandable=\"true\"> ((<separator>|<endSeparator>) (<cAuthorName>|<eAuthorName>))?");
-		MatchTree[] authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, "<authorList> ((<separator>|<endSeparator>) (<cAuthorName>|<eAuthorName>))?");
+		MatchTree[] authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, authorListCompletionPattern);
 		for (int l = 0; l < authorListMatches.length; l++) {
 			Annotation authorList = authorListMatches[l].getMatch();
 			authorList.changeTypeTo(AUTHOR_LIST_ANNOTATION_TYPE);
@@ -5761,7 +6530,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		authorListAnnots.addAll(newAuthorListAnnots);
 		
 		//	finalize author lists
-		authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, "<authorList> <etAlAuthorName>");
+		authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, etAlAuthorListPattern);
 		for (int l = 0; l < authorListMatches.length; l++) {
 			Annotation authorList = authorListMatches[l].getMatch();
 			authorList.changeTypeTo(AUTHOR_LIST_ANNOTATION_TYPE);
@@ -5782,7 +6551,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			}
 			
 			//	attach leading editor list labels
-			authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, "<lEditorListLabel> ':'? <authorList>");
+			authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, leadingEditorListLabelPattern);
 			for (int l = 0; l < authorListMatches.length; l++) {
 				Annotation authorList = authorListMatches[l].getMatch();
 				authorList.changeTypeTo(AUTHOR_LIST_ANNOTATION_TYPE);
@@ -5792,7 +6561,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			}
 			
 			//	attach tailing editor list labels
-			authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, "<authorList> ','? <tEditorListLabel>");
+			authorListMatches = AnnotationPatternMatcher.getMatchTrees(bibRefAnnot, authorListPartIndex, tailingEditorListLabelPattern);
 			for (int l = 0; l < authorListMatches.length; l++) {
 				Annotation authorList = authorListMatches[l].getMatch();
 				authorList.changeTypeTo(AUTHOR_LIST_ANNOTATION_TYPE);
@@ -5854,7 +6623,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			AuthorList authorList = ((AuthorList) authorLists.get(l));
 			if (authorList.annotation.getEndIndex() == bibRefAnnot.size())
 				continue; // no following word at all
-			if (!authorList.tailingStopWords && !authorList.annotation.lastValue().matches("[A-Z][a-z]?"))
+			if (!authorList.tailingStopWords && !initialOrShortWordPattern.matcher(authorList.annotation.lastValue()).matches())
 				continue; // no tailing stop words or un-dotted initial that could be an overrun
 			String followingToken = bibRefAnnot.valueAt(authorList.annotation.getEndIndex());
 			if (!Gamta.isWord(followingToken))
@@ -6339,7 +7108,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 	}
 	
-	private void filterAuthorLists(BibRef[] bibRefs, AuthorListStyle authorListStyle, Dictionary nameStopWords, ProgressMonitor pm) {
+	private void filterAuthorLists(final BibRef[] bibRefs, AuthorListStyle authorListStyle, final Dictionary nameStopWords, ProgressMonitor pm) {
 		if (authorListStyle == null)
 			return;
 		
@@ -6397,21 +7166,23 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			return;
 		
 		//	sort out author lists
-		for (int r = 0; r < bibRefs.length; r++) {
-			pm.setProgress((r * 100) / bibRefs.length);
-			if (bibRefs[r].preExistingStructure)
-				continue;
-			
-			//	filter by style, and perform mergers
-			this.filterAuthorLists(bibRefs[r], authorListStyle, nameStopWords);
-			
-			//	filter late author lists if dealing with few references
-			if ((bibRefs.length < 3) && (bibRefs[r].authorLists.length > 1)) {
-				AuthorList[] fAuthorLists = {bibRefs[r].authorLists[0]};
-				bibRefs[r].authorLists = fAuthorLists;
-				if (DEBUG) System.out.println("  ==> reduced to " + bibRefs[r].authorLists[0].annotation.toXML());
+		final AuthorListStyle fAuthorListStyle = authorListStyle;
+		this.runBibRefStage(bibRefs, new BibRefStage() {
+			void process(BibRef bibRef) {
+				if (bibRef.preExistingStructure)
+					return;
+				
+				//	filter by style, and perform mergers
+				filterAuthorLists(bibRef, fAuthorListStyle, nameStopWords);
+				
+				//	filter late author lists if dealing with few references
+				if ((bibRefs.length < 3) && (bibRef.authorLists.length > 1)) {
+					AuthorList[] fAuthorLists = {bibRef.authorLists[0]};
+					bibRef.authorLists = fAuthorLists;
+					if (DEBUG) System.out.println("  ==> reduced to " + bibRef.authorLists[0].annotation.toXML());
+				}
 			}
-		}
+		}, pm);
 	}
 	
 	private void filterAuthorLists(BibRef bibRef, AuthorListStyle authorListStyle, Dictionary nameStopWords) {
@@ -6759,14 +7530,14 @@ Observe in the long haul if any of these rules does more harm than good !!!
 	private static boolean isAuthorListTerminated(BibRef bibRef, int endIndex) {
 		String lastValue = bibRef.annotation.valueAt(endIndex-1);
 		String nextValue = bibRef.annotation.valueAt(endIndex);
-		return isAuthorListTerminated(lastValue, nextValue);
+		return isAuthorListTerminated(lastValue, nextValue, bibRef.hasShape(endIndex, FOUR_DIGIT_YEAR_SHAPE));
 	}
-	private static boolean isAuthorListTerminated(String lastValue, String nextValue) {
+	private static boolean isAuthorListTerminated(String lastValue, String nextValue, boolean nextIsYear) {
 		if ("([{".indexOf(nextValue) != -1)
 			return true; // start of year in brackets following (including OCR error)
 		if (".,;".indexOf(nextValue) != -1)
 			return true; // classic separator following
-		if (nextValue.matches("[12][0-9]{3}"))
+		if (nextIsYear)
 			return true; // year following
 		if (":".equals(nextValue)) {
 			if (lastValue.length() > 2)
@@ -6844,7 +7615,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 				authorListGapStart = -1;
 				continue; // we've already found this one
 			}
-			if (Gamta.isWord(bibRef.annotation.valueAt(t)) && (authorListGapStart == -1))
+			if (bibRef.hasShape(t, WORD_SHAPE) && (authorListGapStart == -1))
 				authorListGapStart = t;
 		}
 		
@@ -6898,7 +7669,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 						if (DEBUG) System.out.println("   ==> bridged too frequently");
 						continue; // acts as separator in too many references
 					}
-					if (!separator.matches("(and|et|e|y|und)")) {
+					if (!authorNameSeparatorWordPattern.matcher(separator).matches()) {
 						if (DEBUG) System.out.println("   ==> not a conjunction");
 						continue; // we're only bridging 'and' here
 					}
@@ -6985,7 +7756,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		
 		//	extract author list as mutable char sequence
 		Annotation ala = this.markAuthorListGap(bibRef.annotation, authorListStart, authorListEnd);
-		StringBuffer alb = new StringBuffer(TokenSequenceUtils.concatTokens(ala, false, true));
+		String albString = TokenSequenceUtils.concatTokens(ala, false, true);
 		StringBuffer albFixed = new StringBuffer();
 		int albFixedStartOffset = bibRef.annotation.tokenAt(ala.getStartIndex()).getStartOffset();
 		int albFixedEndOffset = bibRef.annotation.tokenAt(ala.getEndIndex()-1).getEndOffset();
@@ -6997,70 +7768,76 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		while ((albFixedStartOffset + albFixed.length()) < albFixedEndOffset)
 			albFixed.append('_');
-		if (DEBUG) System.out.println("Original author list string is " + alb);
+		if (DEBUG) System.out.println("Original author list string is " + albString);
 		if (DEBUG) System.out.println("                    meaning is " + albFixed);
-		ArrayList albIndices = new ArrayList();
-		for (int i = 0; i < albFixed.length(); i++)
-			albIndices.add(Integer.valueOf(albFixedStartOffset + i));
+		AuthorListChars alb = new AuthorListChars(albString, albFixed, albFixedStartOffset);
+		
+		//	none of the edits below can give rise to a new match before the start of the match it's made in, so we can continue matching from there instead of from the very start
 		
 		//	remove any dot after two or more lower case letters (abbreviated last names, typos, etc.)
-		Pattern aa_dot = Pattern.compile("[a-z][a-z]\\.");
-		for (Matcher m = aa_dot.matcher(alb); m.find();) {
-			if (albFixed.charAt(m.start()) == 'A')
+		Matcher m = aa_dot.matcher(alb);
+		for (int from = 0; m.find(from);) {
+			if (alb.fixedAt(m.start()) == 'A') {
+				from = m.end();
 				continue;
-			alb.delete((m.start() + "aa".length()), (m.start() + "aa.".length()));
-			albFixed.delete((m.start() + "aa".length()), (m.start() + "aa.".length()));
-			albIndices.remove(m.start() + "aa".length());
-			m = aa_dot.matcher(alb); // let's be safe here, we've altered the char sequence in mid match
+			}
+			from = m.start();
+			alb.delete(from + "aa".length());
 		}
+		alb.endPass();
 		if (DEBUG) System.out.println("Dots after lower case eliminated to " + alb);
-		if (DEBUG) System.out.println("                         meaning is " + albFixed);
+		if (DEBUG) System.out.println("                         meaning is " + alb.fixedToString());
 		
 		//	remove space between capital letters or capitalized words and sequences of lower case letters that are not in stop word dictionary (broken-up names, etc.)
-		Pattern nameStart_space_aa = Pattern.compile("[A-Z][a-z]*\\s[a-z][a-z]");
-		for (Matcher m = nameStart_space_aa.matcher(alb); m.find();) {
-			if (albFixed.charAt(m.start()) == 'A')
+		m = nameStart_space_aa.matcher(alb);
+		for (int from = 0; m.find(from);) {
+			if (alb.fixedAt(m.start()) == 'A') {
+				from = m.end();
 				continue;
-			alb.delete((m.end() - " aa".length()), (m.end() - "aa".length()));
-			albFixed.delete((m.end() - " aa".length()), (m.end() - "aa".length()));
-			albIndices.remove(m.end() - " aa".length());
-			m = nameStart_space_aa.matcher(alb); // let's be safe here, we've altered the char sequence in mid match
+			}
+			from = m.start();
+			alb.delete(m.end() - " aa".length());
 		}
+		alb.endPass();
 		if (DEBUG) System.out.println("Spaces before lower case eliminated to " + alb);
-		if (DEBUG) System.out.println("                            meaning is " + albFixed);
+		if (DEBUG) System.out.println("                            meaning is " + alb.fixedToString());
 		
 		//	if NPO is 'LnIn', insert space before any terminating (sequence of) capital letters, especially if followed by dots (salvages author names with missing middle space)
 		if ((authorListStyle != null) && (authorListStyle.namePartOrders.size() == 1) && authorListStyle.namePartOrders.contains("LnIn")) {
-			Pattern aa_initial = Pattern.compile("[a-z][a-z][A-Z][a-z]?(\\.|\\b)");
-			for (Matcher m = aa_initial.matcher(alb); m.find();) {
-				if (albFixed.charAt(m.start()) == 'A')
+			m = aa_initial.matcher(alb);
+			for (int from = 0; m.find(from);) {
+				if (alb.fixedAt(m.start()) == 'A') {
+					from = m.end();
 					continue;
-				alb.insert((m.start() + "aa".length()), " ");
-				albFixed.insert((m.start() + "aa".length()), "_");
-				albIndices.add((m.start() + "aa".length()), albIndices.get(m.start() + "aa".length()));
-				m = aa_initial.matcher(alb); // let's be safe here, we've altered the char sequence in mid match
+				}
+				from = m.start();
+				alb.insert((from + "aa".length()), ' ', '_');
 			}
+			alb.endPass();
 			if (DEBUG) System.out.println("Spaces before initials added to " + alb);
-			if (DEBUG) System.out.println("                     meaning is " + albFixed);
+			if (DEBUG) System.out.println("                     meaning is " + alb.fixedToString());
 		}
 		
 		//	if FNS is 'I' and InS is 'D', append dot to every tailing or space-terminated sequence of a capital letter and at most one lower case one (salvages initials with missing dots)
 		if ((authorListStyle != null) && (authorListStyle.firstNameStyles.size() == 1) && authorListStyle.firstNameStyles.contains("I") && authorListStyle.initialsStyles.contains("D")) {
-			Pattern initial_noDot = Pattern.compile("[^a-zA-Z][A-Z][a-z]?[^\\.a-zA-Z]");
-			for (Matcher m = initial_noDot.matcher(alb); m.find();) {
-				if (albFixed.charAt(m.start()) == 'A')
+			m = initial_noDot.matcher(alb);
+			for (int from = 0; m.find(from);) {
+				if (alb.fixedAt(m.start()) == 'A') {
+					from = m.end();
 					continue;
-				alb.insert((m.end() - "_".length()), ".");
-				albFixed.insert((m.end() - "_".length()), "_");
-				albIndices.add((m.end() - "_".length()), albIndices.get(m.end() - "_".length()));
-				m = nameStart_space_aa.matcher(alb); // let's be safe here, we've altered the char sequence in mid match
+				}
+				alb.insert((m.end() - "_".length()), '.', '_');
+				alb.endPass(); // matching restarts at the very start, so we have to be able to edit anywhere
+				m = nameStart_space_aa.matcher(alb); // as ever, continue with name start pattern after first insertion, which leaves remaining initials as they are
+				from = 0;
 			}
+			alb.endPass();
 			if (DEBUG) System.out.println("Dots after initials added to " + alb);
-			if (DEBUG) System.out.println("                  meaning is " + albFixed);
+			if (DEBUG) System.out.println("                  meaning is " + alb.fixedToString());
 		}
 		
 		//	get author names on corrected author list
-		TokenSequence alTs = Gamta.newTokenSequence(alb, bibRef.annotation.getTokenizer());
+		TokenSequence alTs = Gamta.newTokenSequence(alb.toString(), bibRef.annotation.getTokenizer());
 		Annotation[] authorNames = this.getAuthorNames(alTs, null, nameStyle);
 		if (DEBUG) System.out.println("Got salvaged author names:");
 		for (int a = 0; a < authorNames.length; a++) {
@@ -7068,8 +7845,8 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			boolean authorNameCompatible = ((authorListStyle == null) || authorListStyle.isCompatible(authorNames[a]));
 			if (DEBUG) System.out.println("   style compatible is " + authorNameCompatible);
 			if (authorNameCompatible) {
-				int authorNameStartOffset = ((Integer) albIndices.get(authorNames[a].getStartOffset())).intValue();
-				int authorNameEndOffset = (((Integer) albIndices.get(authorNames[a].getEndOffset() - 1)).intValue() + 1);
+				int authorNameStartOffset = alb.indexAt(authorNames[a].getStartOffset());
+				int authorNameEndOffset = (alb.indexAt(authorNames[a].getEndOffset() - 1) + 1);
 				if (DEBUG) System.out.println("   attempting to fit into gap [" + authorNameStartOffset + "," + authorNameEndOffset + ")");
 				for (int g = 0; g < authorListGaps.size(); g++) {
 					Annotation authorListGap = ((Annotation) authorListGaps.get(g));
@@ -7127,6 +7904,118 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 	}
 	
+	/* Author list string under normalization, with the meaning of each char
+	 * ('A' for chars in author names already recognized, '_' otherwise) and
+	 * its offset in the reference. Normalization runs in left-to-right passes,
+	 * each of which only ever edits at or after the position it last edited
+	 * at. Chars are moved from the source arrays to the target arrays as
+	 * edits progress, so each pass takes linear time, while charAt() always
+	 * reflects all edits done so far, for the pattern matching to see them. */
+	private static class AuthorListChars implements CharSequence {
+		private char[] srcChars;
+		private char[] srcFixed;
+		private int[] srcIndices;
+		private int srcLength;
+		private int srcPos = 0;
+		private char[] chars;
+		private char[] fixed;
+		private int[] indices;
+		private int length = 0;
+		AuthorListChars(CharSequence chars, CharSequence fixed, int startOffset) {
+			this.srcLength = chars.length();
+			this.srcChars = new char[this.srcLength];
+			this.srcFixed = new char[this.srcLength];
+			this.srcIndices = new int[this.srcLength];
+			for (int c = 0; c < this.srcLength; c++) {
+				this.srcChars[c] = chars.charAt(c);
+				this.srcFixed[c] = ((c < fixed.length()) ? fixed.charAt(c) : '_');
+				this.srcIndices[c] = (startOffset + c);
+			}
+			this.chars = new char[this.srcLength + (this.srcLength / 2)];
+			this.fixed = new char[this.chars.length];
+			this.indices = new int[this.chars.length];
+		}
+		public int length() {
+			return (this.length + this.srcLength - this.srcPos);
+		}
+		public char charAt(int index) {
+			return ((index < this.length) ? this.chars[index] : this.srcChars[this.srcPos + index - this.length]);
+		}
+		char fixedAt(int index) {
+			return ((index < this.length) ? this.fixed[index] : this.srcFixed[this.srcPos + index - this.length]);
+		}
+		int indexAt(int index) {
+			return ((index < this.length) ? this.indices[index] : this.srcIndices[this.srcPos + index - this.length]);
+		}
+		void delete(int index) {
+			this.moveTo(index);
+			this.srcPos++;
+		}
+		void insert(int index, char ch, char fixedCh) {
+			this.moveTo(index);
+			this.ensureCapacity(this.length + 1);
+			this.chars[this.length] = ch;
+			this.fixed[this.length] = fixedCh;
+			this.indices[this.length] = this.srcIndices[this.srcPos]; // inserted chars map to the offset of their successor
+			this.length++;
+		}
+		private void moveTo(int index) {
+			if (index < this.length)
+				throw new IllegalArgumentException("Cannot edit at " + index + " after editing at " + this.length);
+			int move = (index - this.length);
+			this.ensureCapacity(index);
+			System.arraycopy(this.srcChars, this.srcPos, this.chars, this.length, move);
+			System.arraycopy(this.srcFixed, this.srcPos, this.fixed, this.length, move);
+			System.arraycopy(this.srcIndices, this.srcPos, this.indices, this.length, move);
+			this.length += move;
+			this.srcPos += move;
+		}
+		private void ensureCapacity(int capacity) {
+			if (capacity <= this.chars.length)
+				return;
+			capacity = Math.max(capacity, (this.chars.length * 2));
+			char[] chars = new char[capacity];
+			System.arraycopy(this.chars, 0, chars, 0, this.length);
+			this.chars = chars;
+			char[] fixed = new char[capacity];
+			System.arraycopy(this.fixed, 0, fixed, 0, this.length);
+			this.fixed = fixed;
+			int[] indices = new int[capacity];
+			System.arraycopy(this.indices, 0, indices, 0, this.length);
+			this.indices = indices;
+		}
+		void endPass() {
+			this.moveTo(this.length());
+			char[] chars = this.srcChars;
+			this.srcChars = this.chars;
+			this.chars = chars;
+			char[] fixed = this.srcFixed;
+			this.srcFixed = this.fixed;
+			this.fixed = fixed;
+			int[] indices = this.srcIndices;
+			this.srcIndices = this.indices;
+			this.indices = indices;
+			this.srcLength = this.length;
+			this.srcPos = 0;
+			this.length = 0;
+		}
+		public CharSequence subSequence(int start, int end) {
+			return this.toString().substring(start, end);
+		}
+		public String toString() {
+			StringBuffer sb = new StringBuffer(this.length());
+			for (int c = 0; c < this.length(); c++)
+				sb.append(this.charAt(c));
+			return sb.toString();
+		}
+		String fixedToString() {
+			StringBuffer sb = new StringBuffer(this.length());
+			for (int c = 0; c < this.length(); c++)
+				sb.append(this.fixedAt(c));
+			return sb.toString();
+		}
+	}
+	
 	private Annotation markAuthorListGap(Annotation bibRef, int start, int end) {
 		while ((start < end) && !Gamta.isWord(bibRef.valueAt(start)))
 			start++;
@@ -7135,11 +8024,11 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		return ((start < end) ? Gamta.newAnnotation(bibRef, "authorListGap", start, (end - start)) : null);
 	}
 	
-	private Annotation[] getYears(BibRef bibRef, boolean[] urlDoiFilter, boolean observeTitleNumbers) {
+	private Annotation[] getYears(BibRef bibRef, BaseDetailScan scan, boolean[] urlDoiFilter, boolean observeTitleNumbers) {
 		String currentYear = new SimpleDateFormat("yyyy").format(new Date());
 		//	TODO consider using year of publication instead if available (using current year as fallback)
 		
-		Annotation[] years = Gamta.extractAllMatches(bibRef.annotation, this.yearRegEx, false);
+		Annotation[] years = scan.getYearCandidates(); // second call only happens if first one turned up nothing, so no need to copy
 		ArrayList plausibleYears = new ArrayList();
 		for (int y = 0; y < years.length; y++) {
 			
@@ -7168,22 +8057,14 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		return ((Annotation[]) plausibleYears.toArray(new Annotation[plausibleYears.size()]));
 	}
 	
-	private Annotation[] getPageNumbers(BibRef bibRef, boolean[] urlDoiFilter) {
-		
-		//	annotate tokens forbidden before page numbers
-		Annotation[] pageNumberInvalidatorLeadingAnnots = Gamta.extractAllContained(bibRef.annotation, this.numberingInvalidatorsLeading, false);
-		HashMap pageNumberInvalidatorsLeading = new HashMap();
-		for (int i = 0; i < pageNumberInvalidatorLeadingAnnots.length; i++)
-			pageNumberInvalidatorsLeading.put(new Integer(pageNumberInvalidatorLeadingAnnots[i].getStartIndex()), pageNumberInvalidatorLeadingAnnots[i]);
+	private Annotation[] getPageNumbers(BibRef bibRef, BaseDetailScan scan, boolean[] urlDoiFilter) {
 		
-		//	annotate tokens forbidden after page numbers
-		Annotation[] pageNumberInvalidatorTailingAnnots = Gamta.extractAllContained(bibRef.annotation, this.numberingInvalidatorsTailing, false);
-		HashMap pageNumberInvalidatorsTailing = new HashMap();
-		for (int i = 0; i < pageNumberInvalidatorTailingAnnots.length; i++)
-			pageNumberInvalidatorsTailing.put(new Integer(pageNumberInvalidatorTailingAnnots[i].getStartIndex()), pageNumberInvalidatorTailingAnnots[i]);
+		//	get tokens forbidden before and after page numbers
+		HashMap pageNumberInvalidatorsLeading = scan.getNumberingInvalidatorsLeading();
+		HashMap pageNumberInvalidatorsTailing = scan.getNumberingInvalidatorsTailing();
 		
 		//	get candidate page numbers
-		Annotation[] pageNumberAnnots = Gamta.extractAllMatches(bibRef.annotation, this.pageRegEx, false);
+		Annotation[] pageNumberAnnots = bibRef.matchBudget.extractAllMatches(bibRef.annotation, this.pageRegEx, false);
 		ArrayList pageNumbers = new ArrayList();
 		ArrayList securePageNumbers = new ArrayList();
 		for (int n = 0; n < pageNumberAnnots.length; n++) {
@@ -7288,7 +8169,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 	}
 	
 	private Annotation[] getArabicPageRanges(BibRef bibRef, boolean[] urlDoiFilter) {
-		Annotation[] pageRangeAnnots = Gamta.extractAllMatches(bibRef.annotation, this.pageRangeArabicRegEx, false);
+		Annotation[] pageRangeAnnots = bibRef.matchBudget.extractAllMatches(bibRef.annotation, this.pageRangeArabicRegEx, false);
 		ArrayList pageRanges = new ArrayList();
 		for (int r = 0; r < pageRangeAnnots.length; r++) {
 			if (DEBUG) System.out.println("Checking possible page range: " + pageRangeAnnots[r].getValue());
@@ -7311,7 +8192,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			String firstNumber = null;
 			String secondNumber = null;
 			for (int t = 0; t < pageRangeAnnots[r].size(); t++)
-				if (Gamta.isNumber(pageRangeAnnots[r].valueAt(t))) {
+				if (bibRef.hasShape((pageRangeAnnots[r].getStartIndex() + t), NUMBER_SHAPE)) {
 					if (firstNumber == null)
 						firstNumber = pageRangeAnnots[r].valueAt(t);
 					else if (secondNumber == null)
@@ -7353,7 +8234,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 	}
 	
 	private Annotation[] getRomanPageRanges(BibRef bibRef, boolean[] urlDoiFilter) {
-		Annotation[] pageRangeAnnots = Gamta.extractAllMatches(bibRef.annotation, this.pageRangeRomanRegEx, false);
+		Annotation[] pageRangeAnnots = bibRef.matchBudget.extractAllMatches(bibRef.annotation, this.pageRangeRomanRegEx, false);
 		ArrayList pageRanges = new ArrayList();
 		for (int r = 0; r < pageRangeAnnots.length; r++) {
 			
@@ -7366,7 +8247,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			String firstNumber = null;
 			String secondNumber = null;
 			for (int t = 0; t < pageRangeAnnots[r].size(); t++)
-				if (pageRangeAnnots[r].valueAt(t).matches(this.romanNumberRegEx)) {
+				if (bibRef.hasShape((pageRangeAnnots[r].getStartIndex() + t), ROMAN_PAGE_NUMBER_SHAPE)) {
 					if (firstNumber == null)
 						firstNumber = pageRangeAnnots[r].valueAt(t);
 					else if (secondNumber == null)
@@ -7399,27 +8280,28 @@ Observe in the long haul if any of these rules does more harm than good !!!
 	}
 	
 	private void markTitleNumbers(BibRef bibRef) {
-		bibRef.titleNumberToken = new boolean[bibRef.annotation.size()];
-		Arrays.fill(bibRef.titleNumberToken, false);
-		for (int p = 0; p < this.titleNumberPatterns.size(); p++) {
-			Annotation[] titleNumberAnnots = Gamta.extractAllMatches(bibRef.annotation, this.titleNumberPatterns.get(p), false);
-			augmentFilteredTokens(bibRef.titleNumberToken, titleNumberAnnots, null);
-			if (DEBUG) {
-				for (int t = 0; t < titleNumberAnnots.length; t++)
-					System.out.println("Got title number [ " + this.titleNumberPatterns.get(p) + " ]: " + titleNumberAnnots[t].getValue());
-			}
-		}
+		bibRef.titleNumberToken = this.titleNumberMatcher.getTitleNumberTokens(bibRef.annotation, bibRef.matchBudget);
 	}
 	
-	private Annotation[] getLabeledDates(Annotation bibRef) {
+	private static final String[] labeledDatePatterns = {
+		"<label>? <day> <month> <year>",
+		"<label>? <month> <day> <year>",
+	};
+	private Annotation[] getLabeledDates(Annotation bibRef, BaseDetailScan scan) {
 		
-		//	get and index date components
+		//	get and index date components (all patterns require all three, so no use going on if any one is missing)
+		if (!scan.gotDigit)
+			return new Annotation[0];
 		AnnotationIndex datePartIndex = new AnnotationIndex();
-		Annotation[] days = Gamta.extractAllContained(bibRef, this.dateDays, false);
+		Annotation[] days = scan.getDateDays();
+		if (days.length == 0)
+			return new Annotation[0];
 		datePartIndex.addAnnotations(days, "day");
-		Annotation[] months = Gamta.extractAllContained(bibRef, this.dateMonths, false);
+		Annotation[] months = scan.getDateMonths();
+		if (months.length == 0)
+			return new Annotation[0];
 		datePartIndex.addAnnotations(months, "month");
-		Annotation[] years = Gamta.extractAllMatches(bibRef, "((199[0-9])|(2[0-9]{3}))"); // URL access dates before 1990 are somewhat unlikely ...
+		Annotation[] years = scan.matchBudget.extractAllMatches(bibRef, "((199[0-9])|(2[0-9]{3}))", false); // URL access dates before 1990 are somewhat unlikely ...
 		datePartIndex.addAnnotations(years, "year");
 		
 		//	tag and index date labels ('accessed', 'published online', etc.)
@@ -7429,53 +8311,55 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		//	tag dates TODO add other formats as they occur
 		ArrayList dateList = new ArrayList();
 		Annotation[] dates;
-		dates = AnnotationPatternMatcher.getMatches(bibRef, datePartIndex, "<label>? <day> <month> <year>");
-		dateList.addAll(Arrays.asList(dates));
-		dates = AnnotationPatternMatcher.getMatches(bibRef, datePartIndex, "<label>? <month> <day> <year>");
-		dateList.addAll(Arrays.asList(dates));
+		for (int p = 0; p < labeledDatePatterns.length; p++) {
+			dates = AnnotationPatternMatcher.getMatches(bibRef, datePartIndex, labeledDatePatterns[p]);
+			dateList.addAll(Arrays.asList(dates));
+		}
 		
 		//	finally ...
 		Collections.sort(dateList, AnnotationUtils.ANNOTATION_NESTING_ORDER);
 		return ((Annotation[]) dateList.toArray(new Annotation[dateList.size()]));
 	}
 	
-	private Annotation[] getDates(Annotation bibRef) {
+	private static final String[] datePatterns = {
+		"<day> <month> ','? <year>",
+		"<month> <day> ','? <year>",
+	};
+	private Annotation[] getDates(Annotation bibRef, BaseDetailScan scan) {
 		
-		//	get and index date components
+		//	get and index date components (all patterns require all three, so no use going on if any one is missing)
+		if (!scan.gotDigit)
+			return new Annotation[0];
 		AnnotationIndex datePartIndex = new AnnotationIndex();
-		Annotation[] days = Gamta.extractAllContained(bibRef, this.dateDays, false);
+		Annotation[] days = scan.getDateDays();
+		if (days.length == 0)
+			return new Annotation[0];
 		datePartIndex.addAnnotations(days, "day");
-		Annotation[] months = Gamta.extractAllContained(bibRef, this.dateMonths, false);
+		Annotation[] months = scan.getDateMonths();
+		if (months.length == 0)
+			return new Annotation[0];
 		datePartIndex.addAnnotations(months, "month");
-		Annotation[] years = Gamta.extractAllMatches(bibRef, "((1[5-9][0-9]{2})|(2[0-9]{3}))");
+		Annotation[] years = scan.matchBudget.extractAllMatches(bibRef, "((1[5-9][0-9]{2})|(2[0-9]{3}))", false);
 		datePartIndex.addAnnotations(years, "year");
 		
 		//	tag dates TODO add other formats as they occur
 		ArrayList dateList = new ArrayList();
 		Annotation[] dates;
-		dates = AnnotationPatternMatcher.getMatches(bibRef, datePartIndex, "<day> <month> ','? <year>");
-		dateList.addAll(Arrays.asList(dates));
-		dates = AnnotationPatternMatcher.getMatches(bibRef, datePartIndex, "<month> <day> ','? <year>");
-		dateList.addAll(Arrays.asList(dates));
+		for (int p = 0; p < datePatterns.length; p++) {
+			dates = AnnotationPatternMatcher.getMatches(bibRef, datePartIndex, datePatterns[p]);
+			dateList.addAll(Arrays.asList(dates));
+		}
 		
 		//	finally ...
 		Collections.sort(dateList, AnnotationUtils.ANNOTATION_NESTING_ORDER);
 		return ((Annotation[]) dateList.toArray(new Annotation[dateList.size()]));
 	}
 	
-	private Annotation[] getPartDesignators(BibRef bibRef, boolean[] urlDoiFilter) {
+	private Annotation[] getPartDesignators(BibRef bibRef, BaseDetailScan scan, boolean[] urlDoiFilter) {
 		
-		//	annotate tokens forbidden before part designators
-		Annotation[] partDesignatorInvalidatorLeadingAnnots = Gamta.extractAllContained(bibRef.annotation, this.numberingInvalidatorsLeading, false);
-		HashMap partDesignatorInvalidatorsLeading = new HashMap();
-		for (int i = 0; i < partDesignatorInvalidatorLeadingAnnots.length; i++)
-			partDesignatorInvalidatorsLeading.put(new Integer(partDesignatorInvalidatorLeadingAnnots[i].getStartIndex()), partDesignatorInvalidatorLeadingAnnots[i]);
-		
-		//	annotate tokens forbidden after part designators
-		Annotation[] partDesignatorInvalidatorTailingAnnots = Gamta.extractAllContained(bibRef.annotation, this.numberingInvalidatorsTailing, false);
-		HashMap partDesignatorInvalidatorsTailing = new HashMap();
-		for (int i = 0; i < partDesignatorInvalidatorTailingAnnots.length; i++)
-			partDesignatorInvalidatorsTailing.put(new Integer(partDesignatorInvalidatorTailingAnnots[i].getStartIndex()), partDesignatorInvalidatorTailingAnnots[i]);
+		//	get tokens forbidden before and after part designators
+		HashMap partDesignatorInvalidatorsLeading = scan.getNumberingInvalidatorsLeading();
+		HashMap partDesignatorInvalidatorsTailing = scan.getNumberingInvalidatorsTailing();
 		
 		//	find first actual word (part designators hardly ever occur at the start, or even before the journal name)
 		int firstWordIndex = 0;
@@ -7486,7 +8370,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		}
 		
 		//	get part designators
-		Annotation[] partDesignatorAnnots = Gamta.extractAllMatches(bibRef.annotation, this.partDesignatorRegEx, false);
+		Annotation[] partDesignatorAnnots = bibRef.matchBudget.extractAllMatches(bibRef.annotation, this.partDesignatorRegEx, false);
 		ArrayList partDesignators = new ArrayList();
 		ArrayList securePartDesignators = new ArrayList();
 		for (int p = 0; p < partDesignatorAnnots.length; p++) {
@@ -7598,6 +8482,29 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		return partDesignatorAnnots;
 	}
 	
+	private static final String[] subPartDesignatorPatterns = {
+		"'(' \"[a-z]{2,4}\\\\.?\" <part>@:part ')'",
+		"',' \"[a-z]{2,4}\\\\.?\" <part>@:part",
+	};
+	
+	//	part designator and punctuation blocks TODO add other formats as they occur
+	private static final String[] numberDetailBlockPatterns = {
+		
+		//	no issue number in parentheses, only accept e-page or page range
+		"(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? <part>@:part @:volume <subPart>?@:subPart @(./@part):issue ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',') 'e'? <pageRange>@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?",
+		"(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? <part>@:part @:volume <subPart>?@:subPart @(./@part):issue ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',') 'e'? <page test=\"(./@e)\">@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?",
+		"(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? <part>@:part @:volume <subPart>@:subPart @(./@part):issue ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',') <page>@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?",
+		"(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? <part>@:part @:volume ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? ':' <page>@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?",
+		"(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ',')) <part>@:part @:volume <subPart>?@:subPart @(./@part):subPartDes (':'|',')? 'e'? (<page>|<pageRange>)@:pagination",
+		"<part>@:part @:volume <subPart>?@:subPart @(./@part):subPartDes ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid)) (':'|',')? 'e'? (<page>|<pageRange>)@:pagination",
+		"<part>@:part @:volume <subPart>?@:subPart @(./@part):subPartDes (':'|',')? 'e'? (<page>|<pageRange>)@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))",
+		
+		//	single issue number or issue range in parentheses, accept absence of separator punctuation
+		"(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? (<part>@:volume '(' <part>@:issue ')')@:part <subPart>?@:subPart @(./@part):subPartDes ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',')? 'e'? (<page>|<pageRange>)@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?",
+		"(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? (<part>@:volume ',' <part>@:issue)@:part <subPart>?@:subPart @(./@part):subPartDes ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',')? 'e'? (<page>|<pageRange>)@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?",
+		"(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? (<part>@:volume '(' (<part> ('-'|'/'|\"[a-z]{1,4}\") <part>)@:issue ')')@:part <subPart>?@:subPart @(./@part):subPartDes ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',')? 'e'? (<page>|<pageRange>)@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?",
+	};
+	
 	private Annotation[] getNumberDetailBlocks(BibRef bibRef) {
 		
 		//	index part designators, page numbers, and page ranges
@@ -7623,52 +8530,26 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		if (noPartDesignators || noPaginations)
 			return new Annotation[0];
 		
+		//	wrap reference and index only once for all the patterns (wrapping on every call re-fetches the annotations of every type from the reference)
+		AnnotationIndex bibRefNumberIndex = new AnnotationIndex(bibRef.annotation, numberIndex);
+		
 		//	annotate sub part designators
 		Annotation[] subPartDesignators;
-		subPartDesignators = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "'(' \"[a-z]{2,4}\\\\.?\" <part>@:part ')'");
-		numberIndex.addAnnotations(subPartDesignators, "subPart");
-		subPartDesignators = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "',' \"[a-z]{2,4}\\\\.?\" <part>@:part");
-		numberIndex.addAnnotations(subPartDesignators, "subPart");
+		for (int p = 0; p < subPartDesignatorPatterns.length; p++) {
+			subPartDesignators = AnnotationPatternMatcher.getMatches(((TokenSequence) bibRef.annotation), bibRefNumberIndex, subPartDesignatorPatterns[p]);
+			numberIndex.addAnnotations(subPartDesignators, "subPart");
+		}
 //		subPartDesignators = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "'(' <part>@:firstPart ('-'|'/'|\"[a-z]{1,4}\\\\.?\") <part>@:lastPart ')'");
 //		numberIndex.addAnnotations(subPartDesignators, "subPart");
 		
-		//	tag part designator and punctuation blocks TODO add other formats as they occur
+		//	tag part designator and punctuation blocks
 		ArrayList ndBlockList = new ArrayList();
 		Annotation[] ndBlocks;
-		
-		//	no issue number in parentheses, only accept e-page or page range
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? <part>@:part @:volume <subPart>?@:subPart @(./@part):issue ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',') 'e'? <pageRange>@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? <part>@:part @:volume <subPart>?@:subPart @(./@part):issue ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',') 'e'? <page test=\"(./@e)\">@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? <part>@:part @:volume <subPart>@:subPart @(./@part):issue ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',') <page>@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? <part>@:part @:volume ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? ':' <page>@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ',')) <part>@:part @:volume <subPart>?@:subPart @(./@part):subPartDes (':'|',')? 'e'? (<page>|<pageRange>)@:pagination");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "<part>@:part @:volume <subPart>?@:subPart @(./@part):subPartDes ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid)) (':'|',')? 'e'? (<page>|<pageRange>)@:pagination");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "<part>@:part @:volume <subPart>?@:subPart @(./@part):subPartDes (':'|',')? 'e'? (<page>|<pageRange>)@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		
-		//	single issue number or issue range in parentheses, accept absence of separator punctuation
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? (<part>@:volume '(' <part>@:issue ')')@:part <subPart>?@:subPart @(./@part):subPartDes ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',')? 'e'? (<page>|<pageRange>)@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? (<part>@:volume ',' <part>@:issue)@:part <subPart>?@:subPart @(./@part):subPartDes ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',')? 'e'? (<page>|<pageRange>)@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
-		ndBlocks = AnnotationPatternMatcher.getMatches(bibRef.annotation, numberIndex, "(('(' <year>@:yearLead ')' ','?)|(<year>@:yearLead ','))? (<part>@:volume '(' (<part> ('-'|'/'|\"[a-z]{1,4}\") <part>)@:issue ')')@:part <subPart>?@:subPart @(./@part):subPartDes ((','? '(' <year>@:yearMid ')')|(',' <year>@:yearMid))? (':'|',')? 'e'? (<page>|<pageRange>)@:pagination ((','? '(' <year>@:yearTail ')')|(',' <year>@:yearTail))?");
-		ndBlocks = finishNumberDetailBlocks(ndBlocks);
-		ndBlockList.addAll(Arrays.asList(ndBlocks));
+		for (int p = 0; p < numberDetailBlockPatterns.length; p++) {
+			ndBlocks = AnnotationPatternMatcher.getMatches(((TokenSequence) bibRef.annotation), bibRefNumberIndex, numberDetailBlockPatterns[p]);
+			ndBlocks = finishNumberDetailBlocks(ndBlocks);
+			ndBlockList.addAll(Arrays.asList(ndBlocks));
+		}
 		
 		if (DEBUG) {
 			System.out.println("Number detail blocks:");
@@ -7832,12 +8713,12 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		else for (int b = 0; b < bibRef.numberDetailBlocks.length; b++) {
 			if (!bibRef.numberDetailBlocks[b].hasAttribute("pagination"))
 				continue;
-			String pagination = ((String) bibRef.numberDetailBlocks[b].getAttribute("pagination")).replaceAll("\\s+", "");
+			String pagination = whitespacePattern.matcher((String) bibRef.numberDetailBlocks[b].getAttribute("pagination")).replaceAll("");
 			if (pagination.length() < 3)
 				continue; // this one would be unsafe to filter by
 			ArrayList pageNumbers = new ArrayList();
 			for (int p = 0; p < bibRef.pageNumbers.length; p++) {
-				if (pagination.equals(bibRef.pageNumbers[p].getValue().replaceAll("\\s+", "")))
+				if (pagination.equals(whitespacePattern.matcher(bibRef.pageNumbers[p].getValue()).replaceAll("")))
 					pageNumbers.add(bibRef.pageNumbers[p]);
 			}
 			if (pageNumbers.size() < bibRef.pageNumbers.length)
@@ -7966,10 +8847,9 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			else if (bibRef.numberDetailBlock != null)
 				continue; // use order inference here
 			else if (bibRef.partDesignators[p].size() == 1) {
-				String partDesignator = bibRef.partDesignators[p].firstValue();
-				if (partDesignator.matches("[A-Z]"))
+				if (bibRef.hasShape(bibRef.partDesignators[p].getStartIndex(), CAPITAL_LETTER_SHAPE))
 					bibRef.partDesignators[p].setAttribute(TYPE_ATTRIBUTE, SERIES_DESIGNATOR_TYPE);
-				else if (partDesignator.matches("[IVXivx]+"))
+				else if (bibRef.hasShape(bibRef.partDesignators[p].getStartIndex(), ROMAN_PART_DESIGNATOR_SHAPE))
 					bibRef.partDesignators[p].setAttribute(TYPE_ATTRIBUTE, FASCICLE_DESIGNATOR_TYPE);
 			}
 		}
@@ -8067,6 +8947,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		bibRef.seriesDesignators = ((Annotation[]) seriesDesignators.toArray(new Annotation[seriesDesignators.size()]));
 	}
 	
+	private static final String labeledUrlPattern = "<label> ':'? <url>";
 	private Annotation[] getLabeledUrls(BibRef bibRef) {
 		
 		//	get and index date components
@@ -8081,7 +8962,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 		//	tag dates TODO add other formats as they occur
 		ArrayList labeledUrlList = new ArrayList();
 		Annotation[] labeledUrls;
-		labeledUrls = AnnotationPatternMatcher.getMatches(bibRef.annotation, urlPartIndex, "<label> ':'? <url>");
+		labeledUrls = AnnotationPatternMatcher.getMatches(bibRef.annotation, urlPartIndex, labeledUrlPattern);
 		labeledUrlList.addAll(Arrays.asList(labeledUrls));
 		
 		//	finally ...
@@ -8237,7 +9118,7 @@ Observe in the long haul if any of these rules does more harm than good !!!
 			//	set URL attribute, removing whitespace from DOIs and URLs
 			if (PUBLICATION_DOI_ANNOTATION_TYPE.equals(detailType) || PUBLICATION_URL_ANNOTATION_TYPE.equals(detailType)) {
 				if (details.length != 0) {
-					detail = TokenSequenceUtils.concatTokens(details[0], false, true).replaceAll("\\s+", "");
+					detail = whitespacePattern.matcher(TokenSequenceUtils.concatTokens(details[0], false, true)).replaceAll("");
 					if (PUBLICATION_DOI_ANNOTATION_TYPE.equals(detailType) && detail.toLowerCase().startsWith("doi:"))
 						detail = "http://dx.doi.org/" + detail.substring("doi:".length());
 				}
@@ -8714,18 +9595,22 @@ Observe in the long haul if any of these rules does more harm than good !!!
 	}
 	
 	/**
-	 * 
-	 * @param adp
-	 * @return
+	 * Retrieve the RefParse instance for a given data provider. Instances are
+	 * shared between all callers working on the same data, and are safe to use
+	 * for parsing multiple documents concurrently from different threads.
+	 * @param adp the data provider to load RefParse from
+	 * @return the RefParse instance for the argument data provider
 	 */
 	public static RefParse getInstance(AnalyzerDataProvider adp) {
-		RefParse rp = ((RefParse) instances.get(adp.getAbsolutePath()));
-		if (rp == null) {
-			rp = new RefParse() {};
-			rp.setDataProvider(adp);
-			instances.put(adp.getAbsolutePath(), rp);
+		synchronized (instances) {
+			RefParse rp = ((RefParse) instances.get(adp.getAbsolutePath()));
+			if (rp == null) {
+				rp = new RefParse() {};
+				rp.setDataProvider(adp);
+				instances.put(adp.getAbsolutePath(), rp);
+			}
+			return rp;
 		}
-		return rp;
 	}
 	private static HashMap instances = new HashMap(3);
 }
\ No newline at end of file
@@ -0,0 +1,270 @@
+/* RefParse, the algorithm for parsing lists of bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.plugins.bibRefs.refParse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Symbol table for the signatures of reference structures in a document,
+ * i.e., the sequences of detail types, summary elements, and punctuated
+ * summary elements. Each distinct signature gets an int ID, together with its
+ * distinct elements as an array of int element IDs in order of first
+ * occurrence, and a count. Signatures are equal if and only if their element
+ * sequences are equal, regardless of which kind of sequence they come from,
+ * just as their space concatenated strings would be. An inverted index from
+ * elements to the signatures containing them speeds up finding subsuming
+ * signatures.<br>
+ * Adding signatures is not thread safe, but all read access is, so a table
+ * can be filled in a single thread and then be shared between threads.
+ * 
+ * @author sautter
+ */
+class StructureSignatureTable {
+	private HashMap elementIds = new HashMap();
+	private ArrayList elementSignatures = new ArrayList();
+	
+	private HashMap signatureIds = new HashMap();
+	private int[][] signatureElementSets = new int[16][];
+	private BitSet[] signatureElementBits = new BitSet[16];
+	private int[] signatureCounts = new int[16];
+	private int signatureCount = 0;
+	
+	/**
+	 * @return the number of distinct signatures in the table
+	 */
+	int size() {
+		return this.signatureCount;
+	}
+	
+	/**
+	 * Retrieve the ID of a signature, adding the signature to the table if it
+	 * is not yet contained in it.
+	 * @param signature the elements of the signature
+	 * @return the ID of the signature
+	 */
+	int getId(String[] signature) {
+		int[] signatureElements = new int[signature.length];
+		for (int e = 0; e < signature.length; e++)
+			signatureElements[e] = this.getElementId(signature[e]);
+		SignatureKey key = new SignatureKey(signatureElements);
+		Integer id = ((Integer) this.signatureIds.get(key));
+		if (id != null)
+			return id.intValue();
+		
+		//	make room
+		if (this.signatureCount == this.signatureCounts.length) {
+			int capacity = (this.signatureCount * 2);
+			int[][] signatureElementSetsOld = this.signatureElementSets;
+			this.signatureElementSets = new int[capacity][];
+			System.arraycopy(signatureElementSetsOld, 0, this.signatureElementSets, 0, this.signatureCount);
+			BitSet[] signatureElementBitsOld = this.signatureElementBits;
+			this.signatureElementBits = new BitSet[capacity];
+			System.arraycopy(signatureElementBitsOld, 0, this.signatureElementBits, 0, this.signatureCount);
+			int[] signatureCountsOld = this.signatureCounts;
+			this.signatureCounts = new int[capacity];
+			System.arraycopy(signatureCountsOld, 0, this.signatureCounts, 0, this.signatureCount);
+		}
+		
+		//	collect distinct elements in order of first occurrence
+		BitSet elementBits = new BitSet();
+		int[] elementSet = new int[signatureElements.length];
+		int elementSetSize = 0;
+		for (int e = 0; e < signatureElements.length; e++) {
+			if (elementBits.get(signatureElements[e]))
+				continue;
+			elementBits.set(signatureElements[e]);
+			elementSet[elementSetSize++] = signatureElements[e];
+		}
+		if (elementSetSize < elementSet.length) {
+			int[] elementSetOld = elementSet;
+			elementSet = new int[elementSetSize];
+			System.arraycopy(elementSetOld, 0, elementSet, 0, elementSetSize);
+		}
+		
+		//	store signature
+		int signatureId = this.signatureCount++;
+		this.signatureElementSets[signatureId] = elementSet;
+		this.signatureElementBits[signatureId] = elementBits;
+		this.signatureIds.put(key, new Integer(signatureId));
+		for (int e = 0; e < elementSet.length; e++)
+			((BitSet) this.elementSignatures.get(elementSet[e])).set(signatureId);
+		return signatureId;
+	}
+	
+	private int getElementId(String element) {
+		Integer id = ((Integer) this.elementIds.get(element));
+		if (id != null)
+			return id.intValue();
+		int elementId = this.elementIds.size();
+		this.elementIds.put(element, new Integer(elementId));
+		this.elementSignatures.add(new BitSet());
+		return elementId;
+	}
+	
+	/**
+	 * Increment the count of a signature by one.
+	 * @param id the ID of the signature
+	 */
+	void count(int id) {
+		this.signatureCounts[id]++;
+	}
+	
+	/**
+	 * @param id the ID of the signature
+	 * @return the count of the signature with the argument ID
+	 */
+	int getCount(int id) {
+		return this.signatureCounts[id];
+	}
+	
+	/**
+	 * @param id the ID of the signature
+	 * @return the number of distinct elements in the signature with the
+	 *         argument ID
+	 */
+	int getElementSetSize(int id) {
+		return this.signatureElementSets[id].length;
+	}
+	
+	/**
+	 * Check if the distinct elements of one signature subsume the distinct
+	 * elements of another one, i.e., if the former has more distinct elements
+	 * than the latter, contains all of them, and in the same order.
+	 * @param higherId the ID of the potentially subsuming signature
+	 * @param lowerId the ID of the potentially subsumed signature
+	 * @return true if the higher signature subsumes the lower one
+	 */
+	boolean subsumes(int higherId, int lowerId) {
+		int[] higherElements = this.signatureElementSets[higherId];
+		int[] lowerElements = this.signatureElementSets[lowerId];
+		
+		//	lower structure larger than higher structure
+		//	==> subsumption match impossible
+		if (higherElements.length <= lowerElements.length)
+			return false;
+		
+		//	lower structure has elements not contained in higher structure
+		//	==> subsumption match impossible
+		BitSet higherElementBits = this.signatureElementBits[higherId];
+		for (int e = 0; e < lowerElements.length; e++) {
+			if (!higherElementBits.get(lowerElements[e]))
+				return false;
+		}
+		
+		//	check element order, ignoring elements not contained in lower structure
+		BitSet lowerElementBits = this.signatureElementBits[lowerId];
+		for (int h = 0, l = 0; h < higherElements.length; h++) {
+			if (!lowerElementBits.get(higherElements[h]))
+				continue;
+			if ((l == lowerElements.length) || (higherElements[h] != lowerElements[l++]))
+				return false;
+		}
+		
+		//	due to containment pre-condition, there cannot be left anything in lower structure
+		//	==> we have a subsumption match
+		return true;
+	}
+	
+	/**
+	 * Group of signatures from a table, e.g. all signatures of a specific
+	 * kind, with the best subsuming group member of each signature in the
+	 * table, as computed by indexSubsumers().
+	 * 
+	 * @author sautter
+	 */
+	static class Group {
+		private BitSet members = new BitSet();
+		private int[] bestSubsumers = new int[0];
+		
+		/**
+		 * Add a signature to the group.
+		 * @param id the ID of the signature
+		 */
+		void add(int id) {
+			this.members.set(id);
+		}
+		
+		/**
+		 * @param id the ID of the signature
+		 * @return true if the signature with the argument ID is in the group
+		 */
+		boolean contains(int id) {
+			return this.members.get(id);
+		}
+		
+		/**
+		 * Retrieve the best subsuming member of a signature, i.e., the group
+		 * member with the highest ratio of count to number of distinct
+		 * elements among the members subsuming the signature.
+		 * @param id the ID of the signature
+		 * @return the ID of the best subsuming member, or -1 if there is none
+		 */
+		int getBestSubsumer(int id) {
+			return ((id < this.bestSubsumers.length) ? this.bestSubsumers[id] : -1);
+		}
+	}
+	
+	/**
+	 * Find the best subsuming member of a group for each signature in the
+	 * table. This has to be done after all signatures are added and counted,
+	 * and before any calls to the getBestSubsumer() method of the group.
+	 * Instead of checking every group member for every signature, only group
+	 * members containing all elements of a signature (as found via the
+	 * inverted index) are checked for subsumption.
+	 * @param group the group to index
+	 */
+	void indexSubsumers(Group group) {
+		int[] bestSubsumers = new int[this.signatureCount];
+		for (int s = 0; s < this.signatureCount; s++) {
+			bestSubsumers[s] = -1;
+			
+			//	get group members containing all elements
+			BitSet candidates = ((BitSet) group.members.clone());
+			for (int e = 0; (e < this.signatureElementSets[s].length) && !candidates.isEmpty(); e++)
+				candidates.and((BitSet) this.elementSignatures.get(this.signatureElementSets[s][e]));
+			
+			//	find subsumer with best ratio of count to number of distinct elements
+			for (int c = candidates.nextSetBit(0); c != -1; c = candidates.nextSetBit(c+1)) {
+				if (!this.subsumes(c, s))
+					continue;
+				int b = bestSubsumers[s];
+				if ((b == -1) || ((((long) this.signatureCounts[c]) * this.signatureElementSets[b].length) > (((long) this.signatureCounts[b]) * this.signatureElementSets[c].length)))
+					bestSubsumers[s] = c;
+			}
+		}
+		group.bestSubsumers = bestSubsumers;
+	}
+	
+	private static class SignatureKey {
+		private int[] elements;
+		private int hash;
+		SignatureKey(int[] elements) {
+			this.elements = elements;
+			this.hash = Arrays.hashCode(elements);
+		}
+		public int hashCode() {
+			return this.hash;
+		}
+		public boolean equals(Object obj) {
+			return ((obj instanceof SignatureKey) && Arrays.equals(this.elements, ((SignatureKey) obj).elements));
+		}
+	}
+}
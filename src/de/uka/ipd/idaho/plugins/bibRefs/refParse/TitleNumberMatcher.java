@@ -0,0 +1,128 @@
+/* RefParse, the algorithm for parsing lists of bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.plugins.bibRefs.refParse;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.Token;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+
+/**
+ * Matcher marking the tokens of a reference that belong to numbers in
+ * titles, like 'Proc. 2nd Int. Conf.' or 'Part IV', as described by a list
+ * of regular expression patterns. Instead of having Gamta extract the matches
+ * of every single pattern from every reference, this class builds the match
+ * text of a reference once, the same way Gamta does, and only extracts the
+ * matches of those patterns that occur in that text at all. As any match Gamta
+ * extracts is a substring of the match text, this yields the very same result
+ * as extracting the matches of all patterns, while the cost of patterns that
+ * do not occur in a reference (the vast majority for any given reference)
+ * goes down to a single find() on a short string.
+ * 
+ * @author sautter
+ */
+class TitleNumberMatcher {
+	private static final boolean DEBUG = false;
+	
+	private String[] regExes;
+	private Pattern[] patterns;
+	
+	/** Constructor
+	 * @param regExes the regular expression patterns describing title numbers
+	 */
+	TitleNumberMatcher(String[] regExes) {
+		ArrayList validRegExes = new ArrayList();
+		ArrayList validPatterns = new ArrayList();
+		for (int r = 0; r < regExes.length; r++) try {
+			validPatterns.add(Pattern.compile(regExes[r]));
+			validRegExes.add(regExes[r]);
+		}
+		catch (PatternSyntaxException pse) {
+			System.out.println("Exception compiling title number pattern '" + regExes[r] + "': " + pse.getMessage());
+		}
+		this.regExes = ((String[]) validRegExes.toArray(new String[validRegExes.size()]));
+		this.patterns = ((Pattern[]) validPatterns.toArray(new Pattern[validPatterns.size()]));
+	}
+	
+	/**
+	 * @return the number of patterns in the matcher
+	 */
+	int size() {
+		return this.regExes.length;
+	}
+	
+	/**
+	 * Mark the tokens of a reference that belong to title numbers.
+	 * @param tokens the tokens of the reference
+	 * @return an array holding a flag for each token, true if the token
+	 *         belongs to a title number
+	 */
+	boolean[] getTitleNumberTokens(TokenSequence tokens) {
+		return this.getTitleNumberTokens(tokens, null);
+	}
+	
+	/**
+	 * Mark the tokens of a reference that belong to title numbers, observing
+	 * a budget of matching steps.
+	 * @param tokens the tokens of the reference
+	 * @param matchBudget the matching step budget of the reference
+	 * @return an array holding a flag for each token, true if the token
+	 *         belongs to a title number
+	 */
+	boolean[] getTitleNumberTokens(TokenSequence tokens, MatchBudget matchBudget) {
+		boolean[] isTitleNumberToken = new boolean[tokens.size()];
+		if (tokens.size() == 0)
+			return isTitleNumberToken;
+		String matchText = getMatchText(tokens);
+		for (int p = 0; p < this.patterns.length; p++) {
+			if (!this.patterns[p].matcher(matchText).find())
+				continue;
+			Annotation[] titleNumberAnnots = ((matchBudget == null) ? Gamta.extractAllMatches(tokens, this.regExes[p], false) : matchBudget.extractAllMatches(tokens, this.regExes[p], false));
+			for (int t = 0; t < titleNumberAnnots.length; t++) {
+				for (int i = titleNumberAnnots[t].getStartIndex(); i < titleNumberAnnots[t].getEndIndex(); i++)
+					isTitleNumberToken[i] = true;
+				if (DEBUG) System.out.println("Got title number [ " + this.regExes[p] + " ]: " + titleNumberAnnots[t].getValue());
+			}
+		}
+		return isTitleNumberToken;
+	}
+	
+	/**
+	 * Build the text Gamta.extractAllMatches() matches regular expression
+	 * patterns against by default, i.e., token values with normalized spaces
+	 * in between, and line breaks after paragraph ends.
+	 * @param tokens the tokens to concatenate
+	 * @return the match text
+	 */
+	static String getMatchText(TokenSequence tokens) {
+		StringBuffer matchText = new StringBuffer();
+		Token last = null;
+		for (int t = 0; t < tokens.size(); t++) {
+			Token token = tokens.tokenAt(t);
+			if ((last != null) && Gamta.insertSpace(last, token))
+				matchText.append(last.hasAttribute(Token.PARAGRAPH_END_ATTRIBUTE) ? "\r\n" : " ");
+			matchText.append(token.getValue());
+			last = token;
+		}
+		return matchText.toString();
+	}
+}
@@ -17,20 +17,30 @@
  */
 package de.uka.ipd.idaho.plugins.bibRefs.refParse;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
 
 import de.uka.ipd.idaho.gamta.Annotation;
-import de.uka.ipd.idaho.gamta.AnnotationUtils;
 import de.uka.ipd.idaho.gamta.Gamta;
 import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.gamta.TokenSequenceUtils;
 import de.uka.ipd.idaho.gamta.Tokenizer;
 import de.uka.ipd.idaho.stringUtils.Dictionary;
 import de.uka.ipd.idaho.stringUtils.StringIterator;
@@ -74,8 +84,8 @@ public class TokenBagDictionary implements Dictionary {
 	};
 //	/** normalized entries (concatenation of capitalized tokens in lexicographical or original order, depending on order sensitivity) */
 //	private Set tokenBagEntries = new HashSet();
-	/** complete entries (for quick lookup) */
-	private HashMap entries = new HashMap();
+	/** complete entries (for quick lookup, in insertion order for snapshots) */
+	private HashMap entries = new LinkedHashMap();
 //	/**  lower case parts allowed in lookups */
 //	private HashMap lowerCaseTokens = new HashMap();
 	/** normalized entries (concatenation of capitalized tokens in lexicographical or original order, depending on order sensitivity) */
@@ -86,21 +96,31 @@ public class TokenBagDictionary implements Dictionary {
 	/** mapping of the token bag keys of the entries to the respective token sets */
 	private HashMap stringTokenBagSets = new HashMap();
 	
+	/** compact replacement for the above entry data structures (null unless compact index mode is active) */
+	private EntryIndex entryIndex = null;
+	
 	private boolean orderSensitive = false;
 	private String reorderPunctuationMarks = null;
 	
 	private int maxEntryTokens = 0;
 	private int maxMissingTokens = 0;
-	private Dictionary externalLowerCaseTokens = null; // additional lower case parts for specifying allowed in lookups
 	
 //	private Set knownContainedEntries = new HashSet(); // cache for entries known to be contained (for quick lookup)
-	private HashMap knownContainedEntries = new HashMap(); // cache for entries known to be contained (for quick lookup)
+	private LookupCache knownContainedEntries = new LookupCache(cacheSize, cacheEvictionPolicy); // cache for entries known to be contained (for quick lookup)
 //	private Set knownNonContainedEntries = new HashSet(); // cache for entries known to be not contained (for quick lookup)
-	private HashMap knownNonContainedEntries = new LinkedHashMap(1024, 0.9f, true) { // cache for entries known to be not contained (for quick lookup)
-		protected boolean removeEldestEntry(Entry eldest) {
-			return (this.size() > 4096);
-		}
-	};
+	private LookupCache knownNonContainedEntries = new LookupCache(cacheSize, cacheEvictionPolicy); // cache for entries known to be not contained (for quick lookup)
+	
+	/** generation of the entry data, incremented with every added entry, for validating cached lookup results */
+	private volatile int generation = 0;
+	/** generation of the latest entry added under a token bag key or adding a lower case token that hashes to each slot */
+	private int[] generationStamps = new int[GENERATION_STAMP_SLOTS];
+	private static final int GENERATION_STAMP_SLOTS = 1024;
+	
+	/** guards the entry data structures: lookups hold the read lock, adding entries the write lock */
+	private ReentrantReadWriteLock entryLock = new ReentrantReadWriteLock();
+	
+	/** trie over the initials of all token bag keys, for pruning spans in extractAllContained() (built on demand) */
+	private volatile InitialTrie initialTrie = null;
 	
 	
 	/** Constructor
@@ -149,11 +169,54 @@ public class TokenBagDictionary implements Dictionary {
 		this.reorderPunctuationMarks = reorderPunctuationMarks;
 	}
 	
+	/** Constructor
+	 * @param orderSensitive observe order on lookups?
+	 * @param compactIndex store entries in compact index mode?
+	 */
+	public TokenBagDictionary(boolean orderSensitive, boolean compactIndex) {
+		this.orderSensitive = orderSensitive;
+		if (compactIndex)
+			this.entryIndex = new CompactIndex();
+	}
+	
+	/** Constructor
+	 * @param tokenizer the tokenizer to use
+	 * @param orderSensitive observe order on lookups?
+	 * @param compactIndex store entries in compact index mode?
+	 */
+	public TokenBagDictionary(Tokenizer tokenizer, boolean orderSensitive, boolean compactIndex) {
+		this.tokenizer = tokenizer;
+		this.orderSensitive = orderSensitive;
+		if (compactIndex)
+			this.entryIndex = new CompactIndex();
+	}
+	
+	/**
+	 * Test whether or not this dictionary stores its entries in compact index
+	 * mode. In this mode, all strings are interned to int IDs, and entries are
+	 * stored as arrays of these IDs rather than as individual objects. This
+	 * saves a lot of memory with large dictionaries, at the price of slightly
+	 * slower uncached lookups.
+	 * @return true if the dictionary uses the compact index
+	 */
+	public boolean isCompactIndex() {
+		return (this.entryIndex != null);
+	}
+	
 	/**
 	 * Add an entry to the dictionary.
 	 * @param entry the string to add
 	 */
 	public void addEntry(String entry) {
+		this.entryLock.writeLock().lock();
+		try {
+			this.doAddEntry(entry);
+		}
+		finally {
+			this.entryLock.writeLock().unlock();
+		}
+	}
+	private void doAddEntry(String entry) {
 		
 		//	TODO add 'dirty' flag to avoid writing unmodified dictionary
 		
@@ -165,6 +228,20 @@ public class TokenBagDictionary implements Dictionary {
 		}
 		
 		StringDataSet sd = getStringDataSet(entry, this.tokenizer, this.orderSensitive);
+		this.addEntryData(sd);
+	}
+	private void addEntryData(StringDataSet sd) {
+		
+		//	invalidate cached negative lookups the entry might turn positive
+		this.stampGeneration(sd);
+		
+		//	store entry in compact index
+		if (this.entryIndex != null) {
+			this.entryIndex.addEntry(sd);
+			this.maxEntryTokens = Math.max(this.maxEntryTokens, sd.stringTokens.length);
+			this.initialTrie = null;
+			return;
+		}
 		
 //		this.entries.add(sd.string);
 		this.entries.put(sd.string, sd);
@@ -194,7 +271,107 @@ public class TokenBagDictionary implements Dictionary {
 //		this.tokenBagEntries.add(sd.tokenBagString);
 		this.tokenBagEntries.put(sd.tokenBagString, sd);
 		
-		this.knownNonContainedEntries.clear();
+		this.initialTrie = null;
+	}
+	
+	/* An added entry can only turn a negative lookup positive if the looked
+	 * up string has the entry's token bag key or one of its sub keys (exact
+	 * and token bag matches have the same key), or if the entry adds a lower
+	 * case token the lookup failed on. We stamp the slots of these keys and
+	 * tokens with the new generation, so only negatives involving a stamped
+	 * slot become invalid, rather than flushing the whole cache. */
+	private void stampGeneration(StringDataSet sd) {
+		int generation = (this.generation + 1);
+		this.generationStamps[getGenerationStampSlot(sd.tokenBagKey)] = generation;
+		for (int s = 0; s < sd.tokenBagKey.length(); s++)
+			this.generationStamps[getGenerationStampSlot(sd.tokenBagKey.substring(0, s) + sd.tokenBagKey.substring(s+1))] = generation;
+		for (Iterator lit = sd.lowerCaseTokens.iterator(); lit.hasNext();) {
+			String lowerCaseToken = ((String) lit.next());
+			if (!this.containsLowerCaseToken(lowerCaseToken))
+				this.generationStamps[getGenerationStampSlot(lowerCaseToken)] = generation;
+		}
+		this.generation = generation; // volatile write publishes stamps to lookups
+	}
+	
+	private static int getGenerationStampSlot(String str) {
+		return (IdHashTable.spread(str.hashCode()) & (GENERATION_STAMP_SLOTS - 1));
+	}
+	
+	/* Cached lookup result, together with the conditions it was computed
+	 * under, so changes to the dictionary or its settings only invalidate
+	 * the results they can actually affect. */
+	private static class CachedLookup {
+		final int match;
+		final int generation;
+		final int maxMissingTokens;
+		final String tokenBagKey;
+		final String[] lowerCaseTokens;
+		CachedLookup(int match, int generation, int maxMissingTokens, StringDataSet sd) {
+			this.match = match;
+			this.generation = generation;
+			this.maxMissingTokens = maxMissingTokens;
+			this.tokenBagKey = ((sd == null) ? null : sd.tokenBagKey);
+			this.lowerCaseTokens = ((sd == null) ? null : ((String[]) sd.lowerCaseTokens.toArray(new String[sd.lowerCaseTokens.size()])));
+		}
+	}
+	
+	/* Key of a cached lookup result: lookups allowing extra lower case tokens
+	 * are cached under the string together with the dictionary of these
+	 * tokens, plain lookups under the string proper. */
+	private static Object getCacheKey(String string, Dictionary lowerCaseTokens) {
+		return ((lowerCaseTokens == null) ? ((Object) string) : new LookupKey(string, lowerCaseTokens));
+	}
+	private static class LookupKey {
+		private final String string;
+		private final Dictionary lowerCaseTokens;
+		LookupKey(String string, Dictionary lowerCaseTokens) {
+			this.string = string;
+			this.lowerCaseTokens = lowerCaseTokens;
+		}
+		public int hashCode() {
+			return ((this.string.hashCode() * 31) + System.identityHashCode(this.lowerCaseTokens));
+		}
+		public boolean equals(Object obj) {
+			return ((obj instanceof LookupKey) && this.string.equals(((LookupKey) obj).string) && (this.lowerCaseTokens == ((LookupKey) obj).lowerCaseTokens));
+		}
+	}
+	
+	private int getKnownMatch(Object cacheKey) {
+		CachedLookup cl = ((CachedLookup) this.knownContainedEntries.get(cacheKey));
+		
+		//	positives remain valid as entries are added, but stricter settings might turn them negative
+		if ((cl == null) || (cl.maxMissingTokens != this.maxMissingTokens))
+			return -1;
+		return cl.match;
+	}
+	
+	private boolean isKnownNonMatch(Object cacheKey) {
+		CachedLookup cl = ((CachedLookup) this.knownNonContainedEntries.get(cacheKey));
+		if (cl == null)
+			return false;
+		
+		//	negatives remain valid under stricter settings, but not under looser ones
+		if (cl.maxMissingTokens < this.maxMissingTokens)
+			return false;
+		
+		//	check if any entry added since might have turned the negative positive
+		int generation = this.generation; // volatile read before reading stamps
+		if (cl.generation == generation)
+			return true;
+		if (cl.maxMissingTokens > 1)
+			return false; // sparse matching considers all token bag keys
+		if (this.generationStamps[getGenerationStampSlot(cl.tokenBagKey)] > cl.generation)
+			return false;
+		for (int l = 0; l < cl.lowerCaseTokens.length; l++) {
+			if (this.generationStamps[getGenerationStampSlot(cl.lowerCaseTokens[l])] > cl.generation)
+				return false;
+		}
+		return true;
+	}
+	
+	private int cacheNonMatch(Object cacheKey, StringDataSet sd) {
+		this.knownNonContainedEntries.put(cacheKey, new CachedLookup(NOT_MATCHED, this.generation, this.maxMissingTokens, sd));
+		return NOT_MATCHED;
 	}
 	
 	/**
@@ -214,27 +391,6 @@ public class TokenBagDictionary implements Dictionary {
 		return this.maxMissingTokens;
 	}
 	
-	/**
-	 * Specify a dictionary containing lower case tokens allowed in lookups.
-	 * Specifying null will disallow all lower case tokens not added through
-	 * some string via the addEntry() method.
-	 * @param externalLowerCaseTokens a dictionary containing lower case tokens
-	 *            allowed in lookups
-	 */
-	private void setExternalLowerCaseTokens(Dictionary externalLowerCaseTokens) {
-		if (externalLowerCaseTokens != this.lowerCaseTokens) {
-			if (this.lowerCaseTokens == null)
-				this.knownNonContainedEntries.clear();
-			else if (externalLowerCaseTokens == null)
-				this.knownContainedEntries.clear();
-			else {
-				this.knownNonContainedEntries.clear();
-				this.knownContainedEntries.clear();
-			}
-		}
-		this.externalLowerCaseTokens = externalLowerCaseTokens;
-	}
-	
 	/**
 	 * Set the maximum number of tokens that may be missing in a lookup token
 	 * bag in comparison to a reference token bag in order for a match to
@@ -244,11 +400,7 @@ public class TokenBagDictionary implements Dictionary {
 	 *            bag match.
 	 */
 	public void setMaxMissingTokens(int maxMissingTokens) {
-		if (maxMissingTokens < this.maxMissingTokens)
-			this.knownContainedEntries.clear();
-		else if (this.maxMissingTokens < maxMissingTokens)
-			this.knownNonContainedEntries.clear();
-		this.maxMissingTokens = Math.max(maxMissingTokens, 0);
+		this.maxMissingTokens = Math.max(maxMissingTokens, 0); // cached lookups record the setting they were computed with
 	}
 	
 	/* (non-Javadoc)
@@ -269,17 +421,7 @@ public class TokenBagDictionary implements Dictionary {
 	 * @see de.uka.ipd.idaho.stringUtils.Dictionary#lookup(java.lang.String)
 	 */
 	public boolean lookup(String string) {
-		if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("Looking up: " + string);
-		if (this.knownContainedEntries.containsKey(string))
-			return true;
-		else if (this.knownNonContainedEntries.containsKey(string))
-			return false;
-		int match = this.doLookup(string);
-		if (match != NOT_MATCHED)
-			this.knownContainedEntries.put(string, new Integer(match));
-		else this.knownNonContainedEntries.put(string, "");
-		if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  ==> " + translate(match));
-		return (match != NOT_MATCHED);
+		return (this.lookupMatch(string) != NOT_MATCHED);
 //		if (this.knownContainedEntries.containsKey(string))
 //			return true;
 //		else if (this.knownNonContainedEntries.contains(string))
@@ -302,6 +444,39 @@ public class TokenBagDictionary implements Dictionary {
 //		return contained;
 	}
 	
+	/**
+	 * Look up a string and retrieve the quality of the match, i.e., how
+	 * exactly the string matches an entry of the dictionary. The result is
+	 * NOT_MATCHED if the string does not match any entry, EQUAL_MATCH if it
+	 * is equal to an entry, and otherwise MATCHED combined with any of the
+	 * flags ALL_TOKENS_MATCHED, NO_TOKENS_ABBREVIATED,
+	 * LOWER_CASE_TOKENS_MATCHED, and TOKEN_ORDER_MATCHED. This method uses
+	 * the same caches as lookup(), so retrieving the match quality of a
+	 * string after looking it up does not incur any extra effort.
+	 * @param string the string to look up
+	 * @return the quality of the match
+	 */
+	public int lookupMatch(String string) {
+		return this.lookupMatch(string, null);
+	}
+	
+	/* Look up a string, allowing the lower case tokens from the argument
+	 * dictionary in addition to the ones belonging to entries. */
+	private int lookupMatch(String string, Dictionary lowerCaseTokens) {
+		if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("Looking up: " + string);
+		Object cacheKey = getCacheKey(string, lowerCaseTokens);
+		int match = this.getKnownMatch(cacheKey);
+		if (match != -1)
+			return match;
+		else if (this.isKnownNonMatch(cacheKey))
+			return NOT_MATCHED;
+		match = this.doLookup(string, lowerCaseTokens, cacheKey); // caches negatives on its own, as it knows what might invalidate them
+		if (match != NOT_MATCHED)
+			this.knownContainedEntries.put(cacheKey, new CachedLookup(match, this.generation, this.maxMissingTokens, null));
+		if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  ==> " + translate(match));
+		return match;
+	}
+	
 	private static String translate(int match) {
 		if (match == NOT_MATCHED)
 			return "No Match";
@@ -319,35 +494,53 @@ public class TokenBagDictionary implements Dictionary {
 		return sb.toString();
 	}
 	
-	private static final int NOT_MATCHED = 0; // not a match
-	private static final int EQUAL_MATCH = 255; // full equals() match
-	private static final int MATCHED = 1; // some sort of match
-	private static final int ALL_TOKENS_MATCHED = 2; // all capitalized tokens matched
-	private static final int NO_TOKENS_ABBREVIATED = 4; // all capitalized tokens matched without abbreviation
-	private static final int LOWER_CASE_TOKENS_MATCHED = 8; // all lower tokens matched to single entry as well
-	private static final int TOKEN_ORDER_MATCHED = 16; // all (matched) tokens matched in original order
+	/** match quality: not a match */
+	public static final int NOT_MATCHED = 0;
+	/** match quality: full equals() match */
+	public static final int EQUAL_MATCH = 255;
+	/** match quality: some sort of match */
+	public static final int MATCHED = 1;
+	/** match quality flag: all capitalized tokens matched */
+	public static final int ALL_TOKENS_MATCHED = 2;
+	/** match quality flag: all capitalized tokens matched without abbreviation */
+	public static final int NO_TOKENS_ABBREVIATED = 4;
+	/** match quality flag: all lower tokens matched to single entry as well */
+	public static final int LOWER_CASE_TOKENS_MATCHED = 8;
+	/** match quality flag: all (matched) tokens matched in original order */
+	public static final int TOKEN_ORDER_MATCHED = 16;
 	
-	private int doLookup(String string) {
+	private int doLookup(String string, Dictionary lowerCaseTokens, Object cacheKey) {
+		this.entryLock.readLock().lock();
+		try {
+			return this.doLookupEntries(string, lowerCaseTokens, cacheKey);
+		}
+		finally {
+			this.entryLock.readLock().unlock();
+		}
+	}
+	private int doLookupEntries(String lookupString, Dictionary lowerCaseTokens, Object cacheKey) {
+		String string = lookupString;
 		if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("Looking up: " + string);
 		if (this.reorderPunctuationMarks != null) {
 			string = reorderAtPunctuationMarks(string, this.reorderPunctuationMarks);
 			if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println(" broken to " + string);
 		}
 		
-		//	look up cache for positives
-		if (this.knownContainedEntries.containsKey(string)) {
+		//	look up cache for positives (caches are keyed by the string as handed to lookup())
+		int knownMatch = this.getKnownMatch(cacheKey);
+		if (knownMatch != -1) {
 			if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - known positive: " + string);
-			return ((Integer) this.knownContainedEntries.get(string)).intValue();
+			return knownMatch;
 		}
 		
 		//	look up cache for negatives
-		if (this.knownNonContainedEntries.containsKey(string)) {
+		if (this.isKnownNonMatch(cacheKey)) {
 			if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - known negative: " + string);
 			return NOT_MATCHED;
 		}
 		
 		//	look up string as a whole
-		if (this.entries.containsKey(string)) {
+		if ((this.entryIndex == null) ? this.entries.containsKey(string) : this.entryIndex.containsEntry(string)) {
 			if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - known entry: " + string);
 			return EQUAL_MATCH;
 		}
@@ -356,20 +549,21 @@ public class TokenBagDictionary implements Dictionary {
 		StringDataSet sd = getStringDataSet(string, this.tokenizer, this.orderSensitive);
 		
 		//	check lower case tokens (ignore ones that have only a single letter)
-		if (!this.lowerCaseTokens.containsAll(sd.lowerCaseTokens)) {
-			if (this.externalLowerCaseTokens == null)
-				return NOT_MATCHED;
+		if (!this.containsLowerCaseTokens(sd.lowerCaseTokens)) {
+			if (lowerCaseTokens == null)
+				return this.cacheNonMatch(cacheKey, sd);
 			else for (Iterator lit = sd.lowerCaseTokens.iterator(); lit.hasNext();) {
 				String lowerCaseToken = ((String) lit.next());
-				if ((lowerCaseToken.length() > 1) && !this.lowerCaseTokens.contains(lowerCaseToken) && !this.externalLowerCaseTokens.lookup(lowerCaseToken))
-					return NOT_MATCHED;
+				if ((lowerCaseToken.length() > 1) && !this.containsLowerCaseToken(lowerCaseToken) && !lowerCaseTokens.lookup(lowerCaseToken))
+					return this.cacheNonMatch(cacheKey, sd);
 			}
 		}
 		
 		//	look up normalized string (helps with alternate orderings, e.g. in person names, or omitted internal stop words)
-		if (this.tokenBagEntries.containsKey(sd.tokenBagString)) {
+		StringDataSet tbsd = ((this.entryIndex == null) ? ((StringDataSet) this.tokenBagEntries.get(sd.tokenBagString)) : this.entryIndex.getTokenBagEntry(sd.tokenBag));
+		if (tbsd != null) {
 			if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - known token bag: " + string);
-			StringDataSet lsd = ((StringDataSet) this.tokenBagEntries.get(sd.tokenBagString));
+			StringDataSet lsd = tbsd;
 			int match = (MATCHED | ALL_TOKENS_MATCHED | NO_TOKENS_ABBREVIATED);
 			if (this.orderSensitive)
 				match = (match | TOKEN_ORDER_MATCHED);
@@ -379,67 +573,69 @@ public class TokenBagDictionary implements Dictionary {
 		}
 		
 		//	look up token bags (helps with abbreviated parts)
-		ArrayList stringTokenBagSet = ((ArrayList) this.stringTokenBagSets.get(sd.tokenBagKey));
+		TokenBagCandidates stringTokenBagSet = this.getTokenBagCandidates(sd.tokenBagKey);
 		if (stringTokenBagSet != null) {
-			StringDataSet msd = null;
-			for (Iterator sdit = stringTokenBagSet.iterator(); sdit.hasNext();) {
-				StringDataSet lsd = ((StringDataSet) sdit.next());
-				if ((sd.stringTokens.length == 1) && (lsd.stringTokens.length != 1))
+			int msc = -1;
+			for (int c = 0; c < stringTokenBagSet.size(); c++) {
+				if ((sd.stringTokens.length == 1) && (stringTokenBagSet.getStringTokenCount(c) != 1))
 					continue; // don't look up single word against word pairs
 				boolean matched;
-				if (this.orderSensitive)
-					matched = (isAbbreviationOf(sd.tokenBagString, lsd.tokenBagString) || ((sd.stringTokens.length > 1) && isAbbreviationOf(lsd.tokenBagString, sd.tokenBagString)));
-				else matched = bagEquals(sd.tokenBag, lsd.tokenBag, this.maxMissingTokens);
+				if (this.orderSensitive) {
+					String lsdTokenBagString = stringTokenBagSet.getTokenBagString(c);
+					matched = (isAbbreviationOf(sd.tokenBagString, lsdTokenBagString) || ((sd.stringTokens.length > 1) && isAbbreviationOf(lsdTokenBagString, sd.tokenBagString)));
+				}
+				else matched = bagEquals(sd.tokenBag, stringTokenBagSet.getTokenBag(c), this.maxMissingTokens);
 				if (matched) {
-					if (lsd.lowerCaseTokens.containsAll(sd.lowerCaseTokens)) {
+					if (stringTokenBagSet.containsLowerCaseTokens(c, sd.lowerCaseTokens)) {
 						int match = (MATCHED | ALL_TOKENS_MATCHED | LOWER_CASE_TOKENS_MATCHED);
 						if (this.orderSensitive)
 							match = (match | TOKEN_ORDER_MATCHED);
-						if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - direct matched against " + lsd.string);
+						if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - direct matched against " + stringTokenBagSet.getString(c));
 						return match;
 					}
-					else msd = lsd;
+					else msc = c;
 				}
 			}
-			if (msd != null) {
+			if (msc != -1) {
 				int match = (MATCHED | ALL_TOKENS_MATCHED);
 				if (this.orderSensitive)
 					match = (match | TOKEN_ORDER_MATCHED);
-				if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - matched against " + msd.string);
+				if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - matched against " + stringTokenBagSet.getString(msc));
 				return match;
 			}
 		}
 		
 		//	look for possibly matching token bag sets with difference larger than 1 (they are not indexed)
 		if (this.maxMissingTokens > 1) {
-			for (Iterator tbkit = this.stringTokenBagSets.keySet().iterator(); tbkit.hasNext();) {
+			for (Iterator tbkit = this.getTokenBagKeyIterator(); tbkit.hasNext();) {
 				String tokenBagKey = ((String) tbkit.next());
 				if (Math.abs(tokenBagKey.length() - sd.tokenBagKey.length()) <= this.maxMissingTokens)
 					continue;
 				if (isAbbreviationOf(sd.tokenBagKey, tokenBagKey)) {
-					StringDataSet msd = null;
-					for (Iterator sdit = stringTokenBagSet.iterator(); sdit.hasNext();) {
-						StringDataSet lsd = ((StringDataSet) sdit.next());
+					int msc = -1;
+					for (int c = 0; c < stringTokenBagSet.size(); c++) {
 						boolean matched;
-						if (this.orderSensitive)
-							matched = (isAbbreviationOf(sd.tokenBagString, lsd.tokenBagString) || ((sd.stringTokens.length > 1) && isAbbreviationOf(lsd.tokenBagString, sd.tokenBagString)));
-						else matched = bagEquals(sd.tokenBag, lsd.tokenBag, this.maxMissingTokens);
+						if (this.orderSensitive) {
+							String lsdTokenBagString = stringTokenBagSet.getTokenBagString(c);
+							matched = (isAbbreviationOf(sd.tokenBagString, lsdTokenBagString) || ((sd.stringTokens.length > 1) && isAbbreviationOf(lsdTokenBagString, sd.tokenBagString)));
+						}
+						else matched = bagEquals(sd.tokenBag, stringTokenBagSet.getTokenBag(c), this.maxMissingTokens);
 						if (matched) {
-							if (lsd.lowerCaseTokens.containsAll(sd.lowerCaseTokens)) {
+							if (stringTokenBagSet.containsLowerCaseTokens(c, sd.lowerCaseTokens)) {
 								int match = (MATCHED | LOWER_CASE_TOKENS_MATCHED);
 								if (this.orderSensitive)
 									match = (match | TOKEN_ORDER_MATCHED);
-								if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - direct sparse matched against " + lsd.string);
+								if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - direct sparse matched against " + stringTokenBagSet.getString(c));
 								return match;
 							}
-							else msd = lsd;
+							else msc = c;
 						}
 					}
-					if (msd != null) {
+					if (msc != -1) {
 						int match = MATCHED;
 						if (this.orderSensitive)
 							match = (match | TOKEN_ORDER_MATCHED);
-						if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - sparse matched against " + msd.string);
+						if (DEBUG && (this.orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("  - sparse matched against " + stringTokenBagSet.getString(msc));
 						return match;
 					}
 				}
@@ -447,7 +643,7 @@ public class TokenBagDictionary implements Dictionary {
 		}
 		
 		//	nothing helped ...
-		return NOT_MATCHED;
+		return this.cacheNonMatch(cacheKey, sd);
 	}
 	
 	/* (non-Javadoc)
@@ -461,14 +657,45 @@ public class TokenBagDictionary implements Dictionary {
 	 * @see de.uka.ipd.idaho.stringUtils.Dictionary#size()
 	 */
 	public int size() {
-		return this.stringTokens.size();
+		return ((this.entryIndex == null) ? this.stringTokens.size() : this.entryIndex.getStringTokenCount());
+	}
+	
+	private boolean containsStringToken(String token) {
+		return ((this.entryIndex == null) ? this.stringTokens.contains(token) : this.entryIndex.containsStringToken(token));
+	}
+	
+	private boolean containsLowerCaseToken(String token) {
+		return ((this.entryIndex == null) ? this.lowerCaseTokens.contains(token) : this.entryIndex.containsLowerCaseToken(token));
+	}
+	
+	private boolean containsLowerCaseTokens(Set tokens) {
+		if (this.entryIndex == null)
+			return this.lowerCaseTokens.containsAll(tokens);
+		for (Iterator tit = tokens.iterator(); tit.hasNext();) {
+			if (!this.entryIndex.containsLowerCaseToken((String) tit.next()))
+				return false;
+		}
+		return true;
+	}
+	
+	private TokenBagCandidates getTokenBagCandidates(String tokenBagKey) {
+		if (this.entryIndex == null) {
+			ArrayList stringTokenBagSet = ((ArrayList) this.stringTokenBagSets.get(tokenBagKey));
+			return ((stringTokenBagSet == null) ? null : new DataSetCandidates(stringTokenBagSet));
+		}
+		int[] entryIds = this.entryIndex.getTokenBagSetIds(tokenBagKey);
+		return ((entryIds == null) ? null : new EntryIndexCandidates(this.entryIndex, entryIds));
+	}
+	
+	private Iterator getTokenBagKeyIterator() {
+		return ((this.entryIndex == null) ? this.stringTokenBagSets.keySet().iterator() : this.entryIndex.getTokenBagKeyIterator());
 	}
 
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.stringUtils.Dictionary#getEntryIterator()
 	 */
 	public StringIterator getEntryIterator() {
-		final Iterator it = this.stringTokens.iterator();
+		final Iterator it = ((this.entryIndex == null) ? this.stringTokens.iterator() : this.entryIndex.getStringTokenIterator());
 		return new StringIterator() {
 			public boolean hasMoreStrings() {
 				return this.hasNext();
@@ -493,7 +720,7 @@ public class TokenBagDictionary implements Dictionary {
 	 *         the dictionary
 	 */
 	public StringIterator getStringEntryIterator() {
-		final Iterator it = this.entries.keySet().iterator();
+		final Iterator it = ((this.entryIndex == null) ? this.entries.keySet().iterator() : this.entryIndex.getEntryStringIterator());
 		return new StringIterator() {
 			public boolean hasMoreStrings() {
 				return this.hasNext();
@@ -539,135 +766,1414 @@ public class TokenBagDictionary implements Dictionary {
 		}
 	}
 	
-	private static HashMap stringDataSetCacheOI = new LinkedHashMap(1024, 0.9f, true) {
-		protected boolean removeEldestEntry(Entry eldest) {
-			return (this.size() > 2048);
+	private static final int SNAPSHOT_MAGIC = 0x54424453; // 'TBDS'
+	private static final int SNAPSHOT_VERSION = 1;
+	
+	/**
+	 * Write a binary snapshot of this dictionary to an output stream. The
+	 * snapshot contains all entries in their pre-processed form, so loading it
+	 * via readSnapshot() avoids tokenizing and analyzing every entry again.
+	 * The argument fingerprint identifies the source data the dictionary was
+	 * built from, e.g. a checksum of a text file holding the entries; a
+	 * snapshot only loads if the same fingerprint is handed to readSnapshot().
+	 * This method does not close the argument stream.
+	 * @param out the output stream to write to
+	 * @param sourceFingerprint the fingerprint of the source data
+	 * @throws IOException
+	 */
+	public void writeSnapshot(OutputStream out, String sourceFingerprint) throws IOException {
+		this.entryLock.readLock().lock();
+		try {
+			this.doWriteSnapshot(out, sourceFingerprint);
 		}
-	};
-	private static HashMap stringDataSetCacheOS = new LinkedHashMap(1024, 0.9f, true) {
-		protected boolean removeEldestEntry(Entry eldest) {
-			return (this.size() > 2048);
+		finally {
+			this.entryLock.readLock().unlock();
 		}
-	};
-	private static HashMap getStringDataSetCache(boolean orderSensitive) {
-		return (orderSensitive ? stringDataSetCacheOS : stringDataSetCacheOI);
 	}
-	private static StringDataSet getStringDataSet(String string, Tokenizer tokenizer, boolean orderSensitive) {
+	private void doWriteSnapshot(OutputStream out, String sourceFingerprint) throws IOException {
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeInt(SNAPSHOT_MAGIC);
+		dos.writeInt(SNAPSHOT_VERSION);
+		dos.writeUTF(sourceFingerprint);
+		dos.writeUTF(this.getSnapshotSettings());
 		
-		//	do cache lookup (if cache active)
-		HashMap stringDataSetCache = getStringDataSetCache(orderSensitive);
-		StringDataSet sd = ((stringDataSetCache == null) ? null : ((StringDataSet) stringDataSetCache.get(string)));
+		//	collect entries
+		ArrayList entries = new ArrayList();
+		if (this.entryIndex == null)
+			entries.addAll(this.entries.values());
+		else for (int e = 0; e < this.entryIndex.getEntryCount(); e++)
+			entries.add(this.entryIndex.getEntry(e));
 		
-		//	cahce hit, we're done
-		if (sd != null) {
-			if (DEBUG && (orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("TBD cache hit");
-			return sd;
+		//	build and write string table
+		HashMap stringIds = new LinkedHashMap();
+		for (int e = 0; e < entries.size(); e++) {
+			StringDataSet sd = ((StringDataSet) entries.get(e));
+			addSnapshotString(stringIds, sd.string);
+			addSnapshotStrings(stringIds, sd.stringTokens);
+			addSnapshotString(stringIds, sd.tokenBagKey);
+			addSnapshotStrings(stringIds, sd.tokenBag);
+			addSnapshotStrings(stringIds, ((String[]) sd.lowerCaseTokens.toArray(new String[sd.lowerCaseTokens.size()])));
 		}
+		dos.writeInt(stringIds.size());
+		for (Iterator sit = stringIds.keySet().iterator(); sit.hasNext();)
+			dos.writeUTF((String) sit.next());
 		
-		//	cache miss, parse string
-		TokenSequence stringTokenSequence = tokenizer.tokenize(Gamta.normalize(string));
-		
-		StringVector stringTokens = new StringVector();
-		StringVector stringSubTokenInitials = new StringVector();
-		StringVector stringSubTokens = new StringVector();
+		//	write entries
+		dos.writeInt(entries.size());
+		for (int e = 0; e < entries.size(); e++) {
+			StringDataSet sd = ((StringDataSet) entries.get(e));
+			dos.writeInt(((Integer) stringIds.get(sd.string)).intValue());
+			writeSnapshotStringIds(dos, stringIds, sd.stringTokens);
+			dos.writeInt(((Integer) stringIds.get(sd.tokenBagKey)).intValue());
+			writeSnapshotStringIds(dos, stringIds, sd.tokenBag);
+			writeSnapshotStringIds(dos, stringIds, ((String[]) sd.lowerCaseTokens.toArray(new String[sd.lowerCaseTokens.size()])));
+		}
+		dos.flush();
+	}
+	
+	private static void addSnapshotString(HashMap stringIds, String str) {
+		if (!stringIds.containsKey(str))
+			stringIds.put(str, new Integer(stringIds.size()));
+	}
+	private static void addSnapshotStrings(HashMap stringIds, String[] strs) {
+		for (int s = 0; s < strs.length; s++)
+			addSnapshotString(stringIds, strs[s]);
+	}
+	private static void writeSnapshotStringIds(DataOutputStream dos, HashMap stringIds, String[] strs) throws IOException {
+		dos.writeInt(strs.length);
+		for (int s = 0; s < strs.length; s++)
+			dos.writeInt(((Integer) stringIds.get(strs[s])).intValue());
+	}
+	
+	/**
+	 * Read a binary snapshot previously written by writeSnapshot() into this
+	 * dictionary. This only works if the dictionary is empty, and if the
+	 * snapshot matches both the argument source fingerprint and the settings
+	 * of this dictionary (tokenizer, order sensitivity, and reordering
+	 * punctuation marks). Otherwise, this method returns false, and the
+	 * dictionary remains empty. This method does not close the argument
+	 * stream.
+	 * @param in the input stream to read from
+	 * @param sourceFingerprint the fingerprint of the current source data
+	 * @return true if the snapshot was loaded, false otherwise
+	 * @throws IOException
+	 */
+	public boolean readSnapshot(InputStream in, String sourceFingerprint) throws IOException {
+		this.entryLock.writeLock().lock();
+		try {
+			return this.doReadSnapshot(in, sourceFingerprint);
+		}
+		finally {
+			this.entryLock.writeLock().unlock();
+		}
+	}
+	private boolean doReadSnapshot(InputStream in, String sourceFingerprint) throws IOException {
+		if (this.size() != 0)
+			return false;
+		DataInputStream dis = new DataInputStream(in);
+		if (dis.readInt() != SNAPSHOT_MAGIC)
+			return false;
+		if (dis.readInt() != SNAPSHOT_VERSION)
+			return false;
+		if (!sourceFingerprint.equals(dis.readUTF()))
+			return false;
+		if (!this.getSnapshotSettings().equals(dis.readUTF()))
+			return false;
 		
-		Set lowerCaseTokens = new HashSet();
+		//	read string table
+		String[] strings = new String[dis.readInt()];
+		for (int s = 0; s < strings.length; s++)
+			strings[s] = dis.readUTF();
 		
-		for (int t = 0; t < stringTokenSequence.size(); t++) {
-			String stringToken = stringTokenSequence.valueAt(t);
-			char ch = stringToken.charAt(0);
-			if (('A' <= ch) && (ch <= 'Z')) {
-				stringTokens.addElement(stringToken);
-				
-				//	upper case only at start, store complete token
-				if (Gamta.isCapitalizedWord(stringToken)) {
-					stringSubTokenInitials.addElement("" + ch);
-					stringSubTokens.addElement(stringToken);
-				}
-				
-				//	more than one upper case letter, cut token apart
-				else {
-					StringBuffer subToken = new StringBuffer();
-					for (int c = 0; c < stringToken.length(); c++) {
-						ch = stringToken.charAt(c);
-						if (('A' <= ch) && (ch <= 'Z')) {
-							if (subToken.length() != 0) {
-								stringSubTokens.addElement(subToken.toString());
-								subToken = new StringBuffer();
-							}
-							stringSubTokenInitials.addElement("" + ch);
-						}
-						subToken.append(ch);
-					}
-					if (subToken.length() != 0)
-						stringSubTokens.addElement(subToken.toString());
-				}
-			}
-			
-			else if (('0' <= ch) && (ch <= '9')) {
-				stringTokens.addElement(stringToken);
-				
-				//	extract digit blocks
-				StringBuffer subToken = new StringBuffer();
-				for (int c = 0; c < stringToken.length(); c++) {
-					ch = stringToken.charAt(c);
-					if (('0' <= ch) && (ch <= '9')) {
-						subToken.append(ch);
-					}
-					else if (subToken.length() != 0) {
-						stringSubTokens.addElement(subToken.toString());
-						stringSubTokenInitials.addElement("" + subToken.charAt(0));
-						subToken = new StringBuffer();
-					}
-				}
-				if (subToken.length() != 0) {
-					stringSubTokens.addElement(subToken.toString());
-					stringSubTokenInitials.addElement("" + subToken.charAt(0));
-				}
+		//	read entries (into an array first, so a broken snapshot doesn't leave us half filled)
+		StringDataSet[] entries = new StringDataSet[dis.readInt()];
+		for (int e = 0; e < entries.length; e++) {
+			String string = strings[dis.readInt()];
+			String[] stringTokens = readSnapshotStrings(dis, strings);
+			String tokenBagKey = strings[dis.readInt()];
+			String[] tokenBag = readSnapshotStrings(dis, strings);
+			Set lowerCaseTokens = new HashSet(Arrays.asList(readSnapshotStrings(dis, strings)));
+			StringBuffer tokenBagString = new StringBuffer();
+			for (int t = 0; t < tokenBag.length; t++) {
+				if (t != 0)
+					tokenBagString.append(' ');
+				tokenBagString.append(tokenBag[t]);
 			}
-			
-			else if (('a' <= ch) && (ch <= 'z'))
-				lowerCaseTokens.add(stringToken);
+			entries[e] = new StringDataSet(string, stringTokens, tokenBagKey, tokenBag, tokenBagString.toString(), lowerCaseTokens);
 		}
 		
-		if (!orderSensitive) {
-			stringSubTokenInitials.sortLexicographically();
-			stringSubTokens.sortLexicographically();
+		//	index entries
+		for (int e = 0; e < entries.length; e++)
+			this.addEntryData(entries[e]);
+		if (this.entryIndex != null)
+			this.entryIndex.compact();
+		return true;
+	}
+	
+	private static String[] readSnapshotStrings(DataInputStream dis, String[] strings) throws IOException {
+		String[] strs = new String[dis.readInt()];
+		for (int s = 0; s < strs.length; s++)
+			strs[s] = strings[dis.readInt()];
+		return strs;
+	}
+	
+	private String getSnapshotSettings() {
+		return (this.tokenizer.getClass().getName() + "|" + this.orderSensitive + "|" + ((this.reorderPunctuationMarks == null) ? "" : this.reorderPunctuationMarks));
+	}
+	
+	/**
+	 * Compact the entry index, so all entries for any given token bag key are
+	 * stored in one contiguous range. The index compacts itself as entries are
+	 * added, so calling this method is only useful after adding a large number
+	 * of entries, e.g. after loading the dictionary. In normal mode, this
+	 * method has no effect.
+	 */
+	public void compact() {
+		if (this.entryIndex == null)
+			return;
+		this.entryLock.writeLock().lock();
+		try {
+			this.entryIndex.compact();
 		}
-		
-		if (DEBUG && (orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) {
-			System.out.println("SubTokenInitials: " + stringSubTokenInitials.concatStrings(" - "));
-			System.out.println("SubTokens: " + stringSubTokens.concatStrings(" - "));
-			System.out.println("LowerCase: " + lowerCaseTokens);
+		finally {
+			this.entryLock.writeLock().unlock();
+		}
+	}
+	
+	private static final int INDEX_FILE_MAGIC = 0x5442444D; // 'TBDM'
+	private static final int INDEX_FILE_VERSION = 1;
+	
+	/**
+	 * Write the entries of this dictionary to an index file that can be memory
+	 * mapped via mapIndexFile(). The index is written to a temporary file
+	 * first and then renamed, so other JVMs that currently have an older
+	 * version of the index file mapped keep working on that older version.
+	 * The argument fingerprint identifies the source data the dictionary was
+	 * built from, as with writeSnapshot().
+	 * @param file the index file to write
+	 * @param sourceFingerprint the fingerprint of the source data
+	 * @throws IOException
+	 */
+	public void writeIndexFile(File file, String sourceFingerprint) throws IOException {
+		this.entryLock.readLock().lock();
+		try {
+			this.doWriteIndexFile(file, sourceFingerprint);
 		}
+		finally {
+			this.entryLock.readLock().unlock();
+		}
+	}
+	private void doWriteIndexFile(File file, String sourceFingerprint) throws IOException {
 		
-		sd = new StringDataSet(string, stringTokens.toStringArray(), stringSubTokenInitials.concatStrings(""), stringSubTokens.toStringArray(), stringSubTokens.concatStrings(" "), lowerCaseTokens);
-		if (stringDataSetCache != null) stringDataSetCache.put(string, sd);
+		//	get entries into compact form
+		CompactIndex ci;
+		if (this.entryIndex instanceof CompactIndex)
+			ci = ((CompactIndex) this.entryIndex);
+		else {
+			ci = new CompactIndex();
+			if (this.entryIndex == null) {
+				for (Iterator eit = this.entries.values().iterator(); eit.hasNext();)
+					ci.addEntry((StringDataSet) eit.next());
+			}
+			else for (int e = 0; e < this.entryIndex.getEntryCount(); e++)
+				ci.addEntry(this.entryIndex.getEntry(e));
+		}
 		
-		//	down here, we got the data either way
-		return sd;
+		//	write temporary file
+		file = file.getAbsoluteFile();
+		File tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(INDEX_FILE_MAGIC);
+			out.writeInt(INDEX_FILE_VERSION);
+			MappedStringTable.writeString(out, sourceFingerprint);
+			MappedStringTable.writeString(out, this.getSnapshotSettings());
+			MappedIndex.write(out, ci, this.maxEntryTokens);
+			out.flush();
+		}
+		finally {
+			out.close();
+		}
+		MappedStringTable.replaceFile(tempFile, file);
 	}
 	
-	private static boolean bagEquals(String[] test, String[] reference, int maxMissingTokens) {
-		if (DEBUG && DEBUG_BAG_MATCH) {
-			System.out.print("Test:");
-			for (int t = 0; t < test.length; t++)
-				System.out.print(" " + test[t]);
-			System.out.println();
-			System.out.print("Reference:");
-			for (int r = 0; r < reference.length; r++)
-				System.out.print(" " + reference[r]);
-			System.out.println();
+	/**
+	 * Memory map an index file previously written by writeIndexFile() as the
+	 * entries of this dictionary. This only works if the dictionary is empty,
+	 * and if the index file matches both the argument source fingerprint and
+	 * the settings of this dictionary. Otherwise, this method returns false,
+	 * and the dictionary remains empty. After mapping, entries are read from
+	 * the index file as they are looked up, and entries added later on are
+	 * held in a small in-memory index on top of the mapped one.
+	 * @param file the index file to map
+	 * @param sourceFingerprint the fingerprint of the current source data
+	 * @return true if the index file was mapped, false otherwise
+	 * @throws IOException
+	 */
+	public boolean mapIndexFile(File file, String sourceFingerprint) throws IOException {
+		this.entryLock.writeLock().lock();
+		try {
+			return this.doMapIndexFile(file, sourceFingerprint);
 		}
-		
-		//	consider maximum length difference between test and reference arrays
-		if (Math.abs(test.length - reference.length) > maxMissingTokens)
+		finally {
+			this.entryLock.writeLock().unlock();
+		}
+	}
+	private boolean doMapIndexFile(File file, String sourceFingerprint) throws IOException {
+		if (this.size() != 0)
 			return false;
+		ByteBuffer data = MappedStringTable.map(file);
+		MappedIndex mi;
+		try {
+			if (data.getInt(0) != INDEX_FILE_MAGIC)
+				return false;
+			if (data.getInt(4) != INDEX_FILE_VERSION)
+				return false;
+			String fingerprint = MappedStringTable.readString(data, 8);
+			if (!sourceFingerprint.equals(fingerprint))
+				return false;
+			int pos = (8 + MappedStringTable.getStringBytes(fingerprint));
+			String settings = MappedStringTable.readString(data, pos);
+			if (!this.getSnapshotSettings().equals(settings))
+				return false;
+			pos += MappedStringTable.getStringBytes(settings);
+			mi = new MappedIndex(data, pos);
+			if (mi.getEnd() != data.capacity())
+				return false;
+		}
+		catch (IndexOutOfBoundsException ioobe) {
+			return false; // truncated file
+		}
+		catch (NegativeArraySizeException nase) {
+			return false; // broken file
+		}
+		this.entryIndex = new OverlayIndex(mi);
+		this.maxEntryTokens = mi.maxEntryTokens;
+		this.knownNonContainedEntries.clear();
+		this.initialTrie = null;
+		return true;
+	}
+	
+	/**
+	 * Test whether the entries of the dictionary reside in a memory mapped
+	 * index file, which is the case after mapIndexFile() succeeded.
+	 * @return true if the dictionary is backed by a mapped index file
+	 */
+	public boolean isMappedIndex() {
+		return (this.entryIndex instanceof OverlayIndex);
+	}
+	
+	/* Storage for entries other than the plain hash maps and sets used in
+	 * normal mode, handing out StringDataSet objects created on the fly. */
+	private static abstract class EntryIndex {
+		abstract void addEntry(StringDataSet sd);
+		abstract void compact();
+		abstract boolean containsEntry(String string);
+		abstract boolean containsStringToken(String token);
+		abstract boolean containsLowerCaseToken(String token);
+		abstract StringDataSet getTokenBagEntry(String[] tokenBag);
+		abstract int[] getTokenBagSetIds(String tokenBagKey);
+		abstract int getEntryCount();
+		abstract StringDataSet getEntry(int entryId);
+		abstract String getEntryString(int entryId);
+		abstract int getEntryStringTokenCount(int entryId);
+		abstract String[] getEntryTokenBag(int entryId);
+		abstract boolean entryContainsLowerCaseTokens(int entryId, Set tokens);
+		abstract int getStringTokenCount();
+		abstract Iterator getStringTokenIterator();
+		abstract Iterator getTokenBagKeyIterator();
+		abstract Iterator getEntryStringIterator();
+	}
+	
+	/* Entries indexed under a token bag key, as candidates for matching a
+	 * lookup against. */
+	private static abstract class TokenBagCandidates {
+		abstract int size();
+		abstract String getString(int c);
+		abstract int getStringTokenCount(int c);
+		abstract String[] getTokenBag(int c);
+		abstract String getTokenBagString(int c);
+		abstract boolean containsLowerCaseTokens(int c, Set tokens);
+	}
+	
+	/* Candidates from the plain hash maps used in normal mode. */
+	private static class DataSetCandidates extends TokenBagCandidates {
+		private final ArrayList dataSets;
+		DataSetCandidates(ArrayList dataSets) {
+			this.dataSets = dataSets;
+		}
+		int size() {
+			return this.dataSets.size();
+		}
+		String getString(int c) {
+			return ((StringDataSet) this.dataSets.get(c)).string;
+		}
+		int getStringTokenCount(int c) {
+			return ((StringDataSet) this.dataSets.get(c)).stringTokens.length;
+		}
+		String[] getTokenBag(int c) {
+			return ((StringDataSet) this.dataSets.get(c)).tokenBag;
+		}
+		String getTokenBagString(int c) {
+			return ((StringDataSet) this.dataSets.get(c)).tokenBagString;
+		}
+		boolean containsLowerCaseTokens(int c, Set tokens) {
+			return ((StringDataSet) this.dataSets.get(c)).lowerCaseTokens.containsAll(tokens);
+		}
+	}
+	
+	/* Candidates from an entry index, read by entry ID right from the
+	 * interned entry data, without creating StringDataSet objects. */
+	private static class EntryIndexCandidates extends TokenBagCandidates {
+		private final EntryIndex entryIndex;
+		private final int[] entryIds;
+		EntryIndexCandidates(EntryIndex entryIndex, int[] entryIds) {
+			this.entryIndex = entryIndex;
+			this.entryIds = entryIds;
+		}
+		int size() {
+			return this.entryIds.length;
+		}
+		String getString(int c) {
+			return this.entryIndex.getEntryString(this.entryIds[c]);
+		}
+		int getStringTokenCount(int c) {
+			return this.entryIndex.getEntryStringTokenCount(this.entryIds[c]);
+		}
+		String[] getTokenBag(int c) {
+			return this.entryIndex.getEntryTokenBag(this.entryIds[c]);
+		}
+		String getTokenBagString(int c) {
+			String[] tokenBag = this.getTokenBag(c);
+			StringBuffer tokenBagString = new StringBuffer();
+			for (int t = 0; t < tokenBag.length; t++) {
+				if (t != 0)
+					tokenBagString.append(' ');
+				tokenBagString.append(tokenBag[t]);
+			}
+			return tokenBagString.toString();
+		}
+		boolean containsLowerCaseTokens(int c, Set tokens) {
+			return this.entryIndex.entryContainsLowerCaseTokens(this.entryIds[c], tokens);
+		}
+	}
+	
+	/* Compact entry storage: all strings (sub-tokens, tokens, lower case
+	 * tokens, and token bag keys) are interned to int IDs, and entries are
+	 * stored as arrays of such IDs. The entries for each token bag key lie in
+	 * a range of a single postings array, with entries added after the last
+	 * compaction held in per-key overflow arrays until the next compaction.
+	 * Lookups get StringDataSet objects created on the fly. */
+	private static class CompactIndex extends EntryIndex {
+		private static final byte STRING_TOKEN = 1;
+		private static final byte LOWER_CASE_TOKEN = 2;
+		private static final byte TOKEN_BAG_KEY = 4;
+		private static final int[] NO_IDS = new int[0];
+		
+		//	string pool
+		private String[] strings = new String[256];
+		private byte[] stringFlags = new byte[256];
+		private int stringCount = 0;
+		private IdHashTable stringIds = new IdHashTable() {
+			int hashOf(int id) {
+				return strings[id].hashCode();
+			}
+			int hashOf(Object key) {
+				return key.hashCode();
+			}
+			boolean isKeyOf(int id, Object key) {
+				return strings[id].equals(key);
+			}
+		};
+		int stringTokenCount = 0;
+		
+		//	entries
+		private String[] entryStrings = new String[256];
+		private int[][] entryStringTokens = new int[256][];
+		private int[] entryTokenBagKeys = new int[256];
+		private int[][] entryTokenBags = new int[256][];
+		private int[][] entryLowerCaseTokens = new int[256][];
+		private int entryCount = 0;
+		private IdHashTable entryIds = new IdHashTable() {
+			int hashOf(int id) {
+				return entryStrings[id].hashCode();
+			}
+			int hashOf(Object key) {
+				return key.hashCode();
+			}
+			boolean isKeyOf(int id, Object key) {
+				return entryStrings[id].equals(key);
+			}
+		};
+		private IdHashTable tokenBagIds = new IdHashTable() {
+			int hashOf(int id) {
+				return Arrays.hashCode(entryTokenBags[id]);
+			}
+			int hashOf(Object key) {
+				return Arrays.hashCode((int[]) key);
+			}
+			boolean isKeyOf(int id, Object key) {
+				return Arrays.equals(entryTokenBags[id], ((int[]) key));
+			}
+		};
+		
+		//	entry IDs by token bag key ID
+		private int[] postings = NO_IDS;
+		private int[] postingStarts = new int[256];
+		private int[] postingCounts = new int[256];
+		private int[][] overflowPostings = new int[256][];
+		private int[] overflowCounts = new int[256];
+		private int overflowPostingCount = 0;
+		
+		void addEntry(StringDataSet sd) {
+			
+			//	we already have this one, only make it the latest entry for its token bag
+			int entryId = this.entryIds.get(sd.string);
+			if (entryId != -1) {
+				this.tokenBagIds.put(this.entryTokenBags[entryId], entryId);
+				return;
+			}
+			
+			//	make room
+			if (this.entryCount == this.entryStrings.length) {
+				int capacity = (this.entryStrings.length * 2);
+				String[] entryStrings = new String[capacity];
+				System.arraycopy(this.entryStrings, 0, entryStrings, 0, this.entryCount);
+				this.entryStrings = entryStrings;
+				this.entryStringTokens = grow(this.entryStringTokens, capacity);
+				int[] entryTokenBagKeys = new int[capacity];
+				System.arraycopy(this.entryTokenBagKeys, 0, entryTokenBagKeys, 0, this.entryCount);
+				this.entryTokenBagKeys = entryTokenBagKeys;
+				this.entryTokenBags = grow(this.entryTokenBags, capacity);
+				this.entryLowerCaseTokens = grow(this.entryLowerCaseTokens, capacity);
+			}
+			
+			//	store entry
+			entryId = this.entryCount++;
+			this.entryStrings[entryId] = sd.string;
+			this.entryStringTokens[entryId] = this.intern(sd.stringTokens, STRING_TOKEN);
+			this.entryTokenBags[entryId] = this.intern(sd.tokenBag, ((byte) 0));
+			if (sd.lowerCaseTokens.isEmpty())
+				this.entryLowerCaseTokens[entryId] = NO_IDS;
+			else {
+				this.entryLowerCaseTokens[entryId] = this.intern(((String[]) sd.lowerCaseTokens.toArray(new String[sd.lowerCaseTokens.size()])), LOWER_CASE_TOKEN);
+				Arrays.sort(this.entryLowerCaseTokens[entryId]);
+			}
+			this.entryTokenBagKeys[entryId] = this.intern(sd.tokenBagKey, TOKEN_BAG_KEY);
+			this.entryIds.put(sd.string, entryId);
+			this.tokenBagIds.put(this.entryTokenBags[entryId], entryId);
+			
+			//	index entry by token bag key, and by keys leaving out any one initial
+			this.addPosting(this.entryTokenBagKeys[entryId], entryId);
+			for (int s = 0; s < sd.tokenBagKey.length(); s++)
+				this.addPosting(this.intern((sd.tokenBagKey.substring(0, s) + sd.tokenBagKey.substring(s+1)), TOKEN_BAG_KEY), entryId);
+			
+			//	compact postings if overflow becomes too large
+			if (this.overflowPostingCount > Math.max(1024, (this.postings.length / 4)))
+				this.compact();
+		}
+		
+		private int[] intern(String[] strs, byte flag) {
+			if (strs.length == 0)
+				return NO_IDS;
+			int[] ids = new int[strs.length];
+			for (int s = 0; s < strs.length; s++)
+				ids[s] = this.intern(strs[s], flag);
+			return ids;
+		}
+		
+		private int intern(String str, byte flag) {
+			int id = this.stringIds.get(str);
+			if (id == -1) {
+				if (this.stringCount == this.strings.length) {
+					int capacity = (this.strings.length * 2);
+					String[] strings = new String[capacity];
+					System.arraycopy(this.strings, 0, strings, 0, this.stringCount);
+					this.strings = strings;
+					byte[] stringFlags = new byte[capacity];
+					System.arraycopy(this.stringFlags, 0, stringFlags, 0, this.stringCount);
+					this.stringFlags = stringFlags;
+					int[] postingStarts = new int[capacity];
+					System.arraycopy(this.postingStarts, 0, postingStarts, 0, this.stringCount);
+					this.postingStarts = postingStarts;
+					int[] postingCounts = new int[capacity];
+					System.arraycopy(this.postingCounts, 0, postingCounts, 0, this.stringCount);
+					this.postingCounts = postingCounts;
+					this.overflowPostings = grow(this.overflowPostings, capacity);
+					int[] overflowCounts = new int[capacity];
+					System.arraycopy(this.overflowCounts, 0, overflowCounts, 0, this.stringCount);
+					this.overflowCounts = overflowCounts;
+				}
+				id = this.stringCount++;
+				this.strings[id] = str;
+				this.stringIds.put(str, id);
+			}
+			if ((flag == STRING_TOKEN) && ((this.stringFlags[id] & STRING_TOKEN) == 0))
+				this.stringTokenCount++;
+			this.stringFlags[id] |= flag;
+			return id;
+		}
+		
+		private static int[][] grow(int[][] arrays, int capacity) {
+			int[][] grown = new int[capacity][];
+			System.arraycopy(arrays, 0, grown, 0, arrays.length);
+			return grown;
+		}
+		
+		private void addPosting(int keyId, int entryId) {
+			int[] overflow = this.overflowPostings[keyId];
+			if (overflow == null) {
+				overflow = new int[2];
+				this.overflowPostings[keyId] = overflow;
+			}
+			else if (this.overflowCounts[keyId] == overflow.length) {
+				overflow = new int[overflow.length * 2];
+				System.arraycopy(this.overflowPostings[keyId], 0, overflow, 0, this.overflowCounts[keyId]);
+				this.overflowPostings[keyId] = overflow;
+			}
+			overflow[this.overflowCounts[keyId]++] = entryId;
+			this.overflowPostingCount++;
+		}
+		
+		void compact() {
+			if (this.overflowPostingCount == 0)
+				return;
+			int[] postings = new int[this.postings.length + this.overflowPostingCount];
+			int postingCount = 0;
+			for (int k = 0; k < this.stringCount; k++) {
+				if ((this.stringFlags[k] & TOKEN_BAG_KEY) == 0)
+					continue;
+				int postingStart = postingCount;
+				System.arraycopy(this.postings, this.postingStarts[k], postings, postingCount, this.postingCounts[k]);
+				postingCount += this.postingCounts[k];
+				if (this.overflowPostings[k] != null) {
+					System.arraycopy(this.overflowPostings[k], 0, postings, postingCount, this.overflowCounts[k]);
+					postingCount += this.overflowCounts[k];
+					this.overflowPostings[k] = null;
+					this.overflowCounts[k] = 0;
+				}
+				this.postingStarts[k] = postingStart;
+				this.postingCounts[k] = (postingCount - postingStart);
+			}
+			this.postings = postings;
+			this.overflowPostingCount = 0;
+		}
+		
+		boolean containsEntry(String string) {
+			return (this.entryIds.get(string) != -1);
+		}
+		
+		boolean containsStringToken(String token) {
+			int id = this.stringIds.get(token);
+			return ((id != -1) && ((this.stringFlags[id] & STRING_TOKEN) != 0));
+		}
+		
+		boolean containsLowerCaseToken(String token) {
+			if ((token.length() == 1) && Character.isLetter(token.charAt(0)) && Character.isLowerCase(token.charAt(0)))
+				return true;
+			int id = this.stringIds.get(token);
+			return ((id != -1) && ((this.stringFlags[id] & LOWER_CASE_TOKEN) != 0));
+		}
+		
+		StringDataSet getTokenBagEntry(String[] tokenBag) {
+			int[] tokenBagIds = new int[tokenBag.length];
+			for (int t = 0; t < tokenBag.length; t++) {
+				tokenBagIds[t] = this.stringIds.get(tokenBag[t]);
+				if (tokenBagIds[t] == -1)
+					return null;
+			}
+			int entryId = this.tokenBagIds.get(tokenBagIds);
+			return ((entryId == -1) ? null : this.getEntry(entryId));
+		}
+		
+		int[] getTokenBagSetIds(String tokenBagKey) {
+			int keyId = this.stringIds.get(tokenBagKey);
+			if (keyId == -1)
+				return null;
+			if ((this.postingCounts[keyId] + this.overflowCounts[keyId]) == 0)
+				return null;
+			int[] entryIds = new int[this.postingCounts[keyId] + this.overflowCounts[keyId]];
+			System.arraycopy(this.postings, this.postingStarts[keyId], entryIds, 0, this.postingCounts[keyId]);
+			if (this.overflowCounts[keyId] != 0)
+				System.arraycopy(this.overflowPostings[keyId], 0, entryIds, this.postingCounts[keyId], this.overflowCounts[keyId]);
+			return entryIds;
+		}
+		
+		String getEntryString(int entryId) {
+			return this.entryStrings[entryId];
+		}
+		
+		int getEntryStringTokenCount(int entryId) {
+			return this.entryStringTokens[entryId].length;
+		}
+		
+		String[] getEntryTokenBag(int entryId) {
+			return this.getStrings(this.entryTokenBags[entryId]);
+		}
+		
+		boolean entryContainsLowerCaseTokens(int entryId, Set tokens) {
+			for (Iterator tit = tokens.iterator(); tit.hasNext();) {
+				int id = this.stringIds.get(tit.next());
+				if ((id == -1) || (Arrays.binarySearch(this.entryLowerCaseTokens[entryId], id) < 0))
+					return false;
+			}
+			return true;
+		}
+		
+		StringDataSet getEntry(int entryId) {
+			String[] stringTokens = this.getStrings(this.entryStringTokens[entryId]);
+			String[] tokenBag = this.getStrings(this.entryTokenBags[entryId]);
+			StringBuffer tokenBagString = new StringBuffer();
+			for (int t = 0; t < tokenBag.length; t++) {
+				if (t != 0)
+					tokenBagString.append(' ');
+				tokenBagString.append(tokenBag[t]);
+			}
+			Set lowerCaseTokens = new HashSet();
+			for (int l = 0; l < this.entryLowerCaseTokens[entryId].length; l++)
+				lowerCaseTokens.add(this.strings[this.entryLowerCaseTokens[entryId][l]]);
+			return new StringDataSet(this.entryStrings[entryId], stringTokens, this.strings[this.entryTokenBagKeys[entryId]], tokenBag, tokenBagString.toString(), lowerCaseTokens);
+		}
+		
+		private String[] getStrings(int[] ids) {
+			String[] strs = new String[ids.length];
+			for (int i = 0; i < ids.length; i++)
+				strs[i] = this.strings[ids[i]];
+			return strs;
+		}
+		
+		int getEntryCount() {
+			return this.entryCount;
+		}
+		
+		int getStringTokenCount() {
+			return this.stringTokenCount;
+		}
+		
+		Iterator getStringTokenIterator() {
+			return new StringIdIterator(STRING_TOKEN);
+		}
+		
+		Iterator getTokenBagKeyIterator() {
+			return new StringIdIterator(TOKEN_BAG_KEY);
+		}
+		
+		Iterator getEntryStringIterator() {
+			return Arrays.asList(this.entryStrings).subList(0, this.entryCount).iterator();
+		}
+		
+		private class StringIdIterator implements Iterator {
+			private byte flag;
+			private int id = -1;
+			StringIdIterator(byte flag) {
+				this.flag = flag;
+				this.findNext();
+			}
+			private void findNext() {
+				do {
+					this.id++;
+				} while ((this.id < stringCount) && ((stringFlags[this.id] & this.flag) == 0));
+			}
+			public boolean hasNext() {
+				return (this.id < stringCount);
+			}
+			public Object next() {
+				String str = strings[this.id];
+				this.findNext();
+				return str;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		}
+	}
+	
+	/* Read-only entry storage in a (usually memory mapped) byte buffer, laid
+	 * out like a compacted compact index, so multiple JVMs mapping the same
+	 * index file share one copy of the entries in the operating system page
+	 * cache. Entries are only read from the buffer as they are looked up. */
+	private static class MappedIndex extends EntryIndex {
+		private final ByteBuffer data;
+		private final MappedStringTable strings;
+		private final int stringFlagsStart;
+		private final int postingStartsStart;
+		private final int postingCountsStart;
+		private final int postingsStart;
+		private final MappedStringTable entryStrings;
+		private final int entryOffsetsStart;
+		private final int entryDataStart;
+		private final int tokenBagSlotCount;
+		private final int tokenBagSlotsStart;
+		final int maxEntryTokens;
+		private final int stringTokenCount;
+		
+		MappedIndex(ByteBuffer data, int start) {
+			this.data = data;
+			this.maxEntryTokens = data.getInt(start);
+			this.stringTokenCount = data.getInt(start + 4);
+			this.strings = new MappedStringTable(data, (start + 8));
+			this.stringFlagsStart = this.strings.getEnd();
+			this.postingStartsStart = (this.stringFlagsStart + (this.strings.size() * 4));
+			this.postingCountsStart = (this.postingStartsStart + (this.strings.size() * 4));
+			this.postingsStart = (this.postingCountsStart + (this.strings.size() * 4) + 4);
+			this.entryStrings = new MappedStringTable(data, (this.postingsStart + (data.getInt(this.postingsStart - 4) * 4)));
+			this.entryOffsetsStart = this.entryStrings.getEnd();
+			this.entryDataStart = (this.entryOffsetsStart + (this.entryStrings.size() * 4) + 4);
+			int entryDataSize = data.getInt(this.entryDataStart - 4);
+			this.tokenBagSlotCount = data.getInt(this.entryDataStart + (entryDataSize * 4));
+			this.tokenBagSlotsStart = (this.entryDataStart + (entryDataSize * 4) + 4);
+		}
+		
+		int getEnd() {
+			return (this.tokenBagSlotsStart + (this.tokenBagSlotCount * 4));
+		}
+		
+		static void write(DataOutputStream out, CompactIndex ci, int maxEntryTokens) throws IOException {
+			out.writeInt(maxEntryTokens);
+			out.writeInt(ci.stringTokenCount);
+			
+			//	write string pool and flags
+			String[] strings = new String[ci.stringCount];
+			System.arraycopy(ci.strings, 0, strings, 0, ci.stringCount);
+			MappedStringTable.write(out, strings);
+			for (int s = 0; s < ci.stringCount; s++)
+				out.writeInt(ci.stringFlags[s]);
+			
+			//	write postings, merging in overflow on the fly
+			int postingCount = 0;
+			for (int k = 0; k < ci.stringCount; k++) {
+				out.writeInt(postingCount);
+				postingCount += (ci.postingCounts[k] + ci.overflowCounts[k]);
+			}
+			for (int k = 0; k < ci.stringCount; k++)
+				out.writeInt(ci.postingCounts[k] + ci.overflowCounts[k]);
+			out.writeInt(postingCount);
+			for (int k = 0; k < ci.stringCount; k++) {
+				for (int p = ci.postingStarts[k]; p < (ci.postingStarts[k] + ci.postingCounts[k]); p++)
+					out.writeInt(ci.postings[p]);
+				for (int p = 0; p < ci.overflowCounts[k]; p++)
+					out.writeInt(ci.overflowPostings[k][p]);
+			}
+			
+			//	write entry strings and entry data offsets
+			String[] entryStrings = new String[ci.entryCount];
+			System.arraycopy(ci.entryStrings, 0, entryStrings, 0, ci.entryCount);
+			MappedStringTable.write(out, entryStrings);
+			int entryDataSize = 0;
+			for (int e = 0; e < ci.entryCount; e++) {
+				out.writeInt(entryDataSize);
+				entryDataSize += (4 + ci.entryStringTokens[e].length + ci.entryTokenBags[e].length + ci.entryLowerCaseTokens[e].length);
+			}
+			out.writeInt(entryDataSize);
+			
+			//	write entry data
+			for (int e = 0; e < ci.entryCount; e++) {
+				out.writeInt(ci.entryTokenBagKeys[e]);
+				writeIds(out, ci.entryStringTokens[e]);
+				writeIds(out, ci.entryTokenBags[e]);
+				writeIds(out, ci.entryLowerCaseTokens[e]);
+			}
+			
+			//	write token bag hash slots (only the latest entry for each token bag is reachable, as in the compact index)
+			int[] tokenBagSlots = new int[MappedStringTable.getSlotCount(ci.entryCount)];
+			for (int e = 0; e < ci.entryCount; e++) {
+				if (ci.tokenBagIds.get(ci.entryTokenBags[e]) == e)
+					MappedStringTable.addToSlots(tokenBagSlots, Arrays.hashCode(ci.entryTokenBags[e]), e);
+			}
+			out.writeInt(tokenBagSlots.length);
+			for (int s = 0; s < tokenBagSlots.length; s++)
+				out.writeInt(tokenBagSlots[s]);
+		}
+		
+		private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+			out.writeInt(ids.length);
+			for (int i = 0; i < ids.length; i++)
+				out.writeInt(ids[i]);
+		}
+		
+		void addEntry(StringDataSet sd) {
+			throw new UnsupportedOperationException("Mapped index is read-only");
+		}
+		
+		void compact() {}
+		
+		boolean containsEntry(String string) {
+			return (this.entryStrings.getId(string) != -1);
+		}
+		
+		boolean containsStringToken(String token) {
+			return this.hasFlag(this.strings.getId(token), CompactIndex.STRING_TOKEN);
+		}
+		
+		boolean containsLowerCaseToken(String token) {
+			if ((token.length() == 1) && Character.isLetter(token.charAt(0)) && Character.isLowerCase(token.charAt(0)))
+				return true;
+			return this.hasFlag(this.strings.getId(token), CompactIndex.LOWER_CASE_TOKEN);
+		}
+		
+		boolean hasFlag(int id, byte flag) {
+			return ((id != -1) && ((this.data.getInt(this.stringFlagsStart + (id * 4)) & flag) != 0));
+		}
+		
+		StringDataSet getTokenBagEntry(String[] tokenBag) {
+			if (this.tokenBagSlotCount == 0)
+				return null;
+			int[] tokenBagIds = new int[tokenBag.length];
+			for (int t = 0; t < tokenBag.length; t++) {
+				tokenBagIds[t] = this.strings.getId(tokenBag[t]);
+				if (tokenBagIds[t] == -1)
+					return null;
+			}
+			int mask = (this.tokenBagSlotCount - 1);
+			for (int s = (MappedStringTable.spread(Arrays.hashCode(tokenBagIds)) & mask);; s = ((s + 1) & mask)) {
+				int slot = this.data.getInt(this.tokenBagSlotsStart + (s * 4));
+				if (slot == 0)
+					return null;
+				if (this.isTokenBagOf((slot - 1), tokenBagIds))
+					return this.getEntry(slot - 1);
+			}
+		}
+		
+		private boolean isTokenBagOf(int entryId, int[] tokenBagIds) {
+			int pos = this.getEntryDataStart(entryId);
+			pos += (8 + (this.data.getInt(pos + 4) * 4)); // skip token bag key and string tokens
+			if (this.data.getInt(pos) != tokenBagIds.length)
+				return false;
+			for (int t = 0; t < tokenBagIds.length; t++) {
+				if (this.data.getInt(pos + 4 + (t * 4)) != tokenBagIds[t])
+					return false;
+			}
+			return true;
+		}
+		
+		int[] getTokenBagSetIds(String tokenBagKey) {
+			int keyId = this.strings.getId(tokenBagKey);
+			if (keyId == -1)
+				return null;
+			int postingCount = this.data.getInt(this.postingCountsStart + (keyId * 4));
+			if (postingCount == 0)
+				return null;
+			int postingStart = this.data.getInt(this.postingStartsStart + (keyId * 4));
+			int[] entryIds = new int[postingCount];
+			for (int p = 0; p < postingCount; p++)
+				entryIds[p] = this.data.getInt(this.postingsStart + ((postingStart + p) * 4));
+			return entryIds;
+		}
+		
+		String getEntryString(int entryId) {
+			return this.entryStrings.get(entryId);
+		}
+		
+		int getEntryStringTokenCount(int entryId) {
+			return this.data.getInt(this.getEntryDataStart(entryId) + 4);
+		}
+		
+		String[] getEntryTokenBag(int entryId) {
+			int pos = this.getEntryDataStart(entryId);
+			pos += (8 + (this.data.getInt(pos + 4) * 4)); // skip token bag key and string tokens
+			return this.getStrings(pos);
+		}
+		
+		boolean entryContainsLowerCaseTokens(int entryId, Set tokens) {
+			if (tokens.isEmpty())
+				return true;
+			int pos = this.getEntryDataStart(entryId);
+			pos += (8 + (this.data.getInt(pos + 4) * 4)); // skip token bag key and string tokens
+			pos += (4 + (this.data.getInt(pos) * 4)); // skip token bag
+			int lowerCaseTokenCount = this.data.getInt(pos);
+			for (Iterator tit = tokens.iterator(); tit.hasNext();) {
+				int id = this.strings.getId((String) tit.next());
+				if (id == -1)
+					return false;
+				int l = 0;
+				while ((l < lowerCaseTokenCount) && (this.data.getInt(pos + 4 + (l * 4)) != id))
+					l++;
+				if (l == lowerCaseTokenCount)
+					return false;
+			}
+			return true;
+		}
+		
+		int getEntryCount() {
+			return this.entryStrings.size();
+		}
+		
+		private int getEntryDataStart(int entryId) {
+			return (this.entryDataStart + (this.data.getInt(this.entryOffsetsStart + (entryId * 4)) * 4));
+		}
+		
+		StringDataSet getEntry(int entryId) {
+			int pos = this.getEntryDataStart(entryId);
+			String tokenBagKey = this.strings.get(this.data.getInt(pos));
+			pos += 4;
+			String[] stringTokens = this.getStrings(pos);
+			pos += (4 + (stringTokens.length * 4));
+			String[] tokenBag = this.getStrings(pos);
+			pos += (4 + (tokenBag.length * 4));
+			String[] lowerCaseTokens = this.getStrings(pos);
+			StringBuffer tokenBagString = new StringBuffer();
+			for (int t = 0; t < tokenBag.length; t++) {
+				if (t != 0)
+					tokenBagString.append(' ');
+				tokenBagString.append(tokenBag[t]);
+			}
+			return new StringDataSet(this.entryStrings.get(entryId), stringTokens, tokenBagKey, tokenBag, tokenBagString.toString(), new HashSet(Arrays.asList(lowerCaseTokens)));
+		}
+		
+		private String[] getStrings(int pos) {
+			String[] strs = new String[this.data.getInt(pos)];
+			for (int s = 0; s < strs.length; s++)
+				strs[s] = this.strings.get(this.data.getInt(pos + 4 + (s * 4)));
+			return strs;
+		}
+		
+		int getStringTokenCount() {
+			return this.stringTokenCount;
+		}
+		
+		Iterator getStringTokenIterator() {
+			return this.getStringIterator(CompactIndex.STRING_TOKEN);
+		}
+		
+		Iterator getTokenBagKeyIterator() {
+			return this.getStringIterator(CompactIndex.TOKEN_BAG_KEY);
+		}
+		
+		private Iterator getStringIterator(final byte flag) {
+			return new Iterator() {
+				private int id = this.findNext(-1);
+				private int findNext(int id) {
+					do {
+						id++;
+					} while ((id < strings.size()) && !hasFlag(id, flag));
+					return id;
+				}
+				public boolean hasNext() {
+					return (this.id < strings.size());
+				}
+				public Object next() {
+					String str = strings.get(this.id);
+					this.id = this.findNext(this.id);
+					return str;
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		
+		Iterator getEntryStringIterator() {
+			return new Iterator() {
+				private int id = 0;
+				public boolean hasNext() {
+					return (this.id < entryStrings.size());
+				}
+				public Object next() {
+					return entryStrings.get(this.id++);
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+	
+	/* Mapped entry storage with an on-heap compact index on top, which takes
+	 * entries added after mapping, e.g. ones learned while parsing. */
+	private static class OverlayIndex extends EntryIndex {
+		private final MappedIndex base;
+		private final CompactIndex overlay = new CompactIndex();
+		private int overlayStringTokenCount = 0;
+		
+		OverlayIndex(MappedIndex base) {
+			this.base = base;
+		}
+		
+		void addEntry(StringDataSet sd) {
+			if (this.base.containsEntry(sd.string))
+				return;
+			HashSet newStringTokens = new HashSet();
+			for (int t = 0; t < sd.stringTokens.length; t++) {
+				if (!this.base.containsStringToken(sd.stringTokens[t]) && !this.overlay.containsStringToken(sd.stringTokens[t]))
+					newStringTokens.add(sd.stringTokens[t]);
+			}
+			this.overlay.addEntry(sd);
+			this.overlayStringTokenCount += newStringTokens.size();
+		}
+		
+		void compact() {
+			this.overlay.compact();
+		}
+		
+		boolean containsEntry(String string) {
+			return (this.base.containsEntry(string) || this.overlay.containsEntry(string));
+		}
+		
+		boolean containsStringToken(String token) {
+			return (this.base.containsStringToken(token) || this.overlay.containsStringToken(token));
+		}
+		
+		boolean containsLowerCaseToken(String token) {
+			return (this.base.containsLowerCaseToken(token) || this.overlay.containsLowerCaseToken(token));
+		}
+		
+		StringDataSet getTokenBagEntry(String[] tokenBag) {
+			StringDataSet sd = this.overlay.getTokenBagEntry(tokenBag);
+			return ((sd == null) ? this.base.getTokenBagEntry(tokenBag) : sd);
+		}
+		
+		int[] getTokenBagSetIds(String tokenBagKey) {
+			int[] baseEntryIds = this.base.getTokenBagSetIds(tokenBagKey);
+			int[] overlayEntryIds = this.overlay.getTokenBagSetIds(tokenBagKey);
+			if (overlayEntryIds == null)
+				return baseEntryIds;
+			int baseEntryCount = this.base.getEntryCount();
+			int baseLength = ((baseEntryIds == null) ? 0 : baseEntryIds.length);
+			int[] entryIds = new int[baseLength + overlayEntryIds.length];
+			if (baseEntryIds != null)
+				System.arraycopy(baseEntryIds, 0, entryIds, 0, baseLength);
+			for (int e = 0; e < overlayEntryIds.length; e++)
+				entryIds[baseLength + e] = (overlayEntryIds[e] + baseEntryCount);
+			return entryIds;
+		}
+		
+		int getEntryCount() {
+			return (this.base.getEntryCount() + this.overlay.getEntryCount());
+		}
+		
+		StringDataSet getEntry(int entryId) {
+			return ((entryId < this.base.getEntryCount()) ? this.base.getEntry(entryId) : this.overlay.getEntry(entryId - this.base.getEntryCount()));
+		}
+		
+		String getEntryString(int entryId) {
+			return ((entryId < this.base.getEntryCount()) ? this.base.getEntryString(entryId) : this.overlay.getEntryString(entryId - this.base.getEntryCount()));
+		}
+		
+		int getEntryStringTokenCount(int entryId) {
+			return ((entryId < this.base.getEntryCount()) ? this.base.getEntryStringTokenCount(entryId) : this.overlay.getEntryStringTokenCount(entryId - this.base.getEntryCount()));
+		}
+		
+		String[] getEntryTokenBag(int entryId) {
+			return ((entryId < this.base.getEntryCount()) ? this.base.getEntryTokenBag(entryId) : this.overlay.getEntryTokenBag(entryId - this.base.getEntryCount()));
+		}
+		
+		boolean entryContainsLowerCaseTokens(int entryId, Set tokens) {
+			return ((entryId < this.base.getEntryCount()) ? this.base.entryContainsLowerCaseTokens(entryId, tokens) : this.overlay.entryContainsLowerCaseTokens((entryId - this.base.getEntryCount()), tokens));
+		}
+		
+		int getStringTokenCount() {
+			return (this.base.getStringTokenCount() + this.overlayStringTokenCount);
+		}
+		
+		Iterator getStringTokenIterator() {
+			return this.getIterator(this.base.getStringTokenIterator(), this.overlay.getStringTokenIterator(), CompactIndex.STRING_TOKEN);
+		}
+		
+		Iterator getTokenBagKeyIterator() {
+			return this.getIterator(this.base.getTokenBagKeyIterator(), this.overlay.getTokenBagKeyIterator(), CompactIndex.TOKEN_BAG_KEY);
+		}
+		
+		Iterator getEntryStringIterator() {
+			return this.getIterator(this.base.getEntryStringIterator(), this.overlay.getEntryStringIterator(), ((byte) 0));
+		}
+		
+		//	iterate through base, then through overlay, skipping strings the base already had
+		private Iterator getIterator(final Iterator baseIt, final Iterator overlayIt, final byte baseFlag) {
+			return new Iterator() {
+				private Object next = null;
+				public boolean hasNext() {
+					if (this.next != null)
+						return true;
+					if (baseIt.hasNext())
+						this.next = baseIt.next();
+					else while (overlayIt.hasNext()) {
+						String next = ((String) overlayIt.next());
+						if ((baseFlag == 0) || !base.hasFlag(base.strings.getId(next), baseFlag)) {
+							this.next = next;
+							break;
+						}
+					}
+					return (this.next != null);
+				}
+				public Object next() {
+					this.hasNext();
+					Object next = this.next;
+					this.next = null;
+					return next;
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+	
+	/* Open addressing hash table mapping keys to int IDs, with the keys
+	 * themselves stored by whoever assigns the IDs. */
+	private static abstract class IdHashTable {
+		private int[] slots = new int[64]; // IDs plus 1, as 0 marks empty slots
+		private int size = 0;
+		abstract int hashOf(int id);
+		abstract int hashOf(Object key);
+		abstract boolean isKeyOf(int id, Object key);
+		int get(Object key) {
+			int mask = (this.slots.length - 1);
+			for (int s = (spread(this.hashOf(key)) & mask);; s = ((s + 1) & mask)) {
+				if (this.slots[s] == 0)
+					return -1;
+				if (this.isKeyOf((this.slots[s] - 1), key))
+					return (this.slots[s] - 1);
+			}
+		}
+		void put(Object key, int id) {
+			if (((this.size + 1) * 4) > (this.slots.length * 3))
+				this.rehash();
+			int mask = (this.slots.length - 1);
+			for (int s = (spread(this.hashOf(key)) & mask);; s = ((s + 1) & mask)) {
+				if (this.slots[s] == 0) {
+					this.slots[s] = (id + 1);
+					this.size++;
+					return;
+				}
+				if (this.isKeyOf((this.slots[s] - 1), key)) {
+					this.slots[s] = (id + 1);
+					return;
+				}
+			}
+		}
+		private void rehash() {
+			int[] slots = this.slots;
+			this.slots = new int[slots.length * 2];
+			int mask = (this.slots.length - 1);
+			for (int o = 0; o < slots.length; o++) {
+				if (slots[o] == 0)
+					continue;
+				int s = (spread(this.hashOf(slots[o] - 1)) & mask);
+				while (this.slots[s] != 0)
+					s = ((s + 1) & mask);
+				this.slots[s] = slots[o];
+			}
+		}
+		private static int spread(int hash) {
+			hash ^= ((hash >>> 20) ^ (hash >>> 12));
+			return (hash ^ (hash >>> 7) ^ (hash >>> 4));
+		}
+	}
+	
+	/** evict least recently used entries from lookup caches */
+	public static final String LRU_EVICTION = "LRU";
+	/** evict least recently added entries from lookup caches */
+	public static final String FIFO_EVICTION = "FIFO";
+	
+	private static volatile int cacheSize = 4096;
+	private static volatile String cacheEvictionPolicy = LRU_EVICTION;
+	
+	/**
+	 * Configure the lookup caches of token bag dictionaries. The argument
+	 * size applies to each individual cache, i.e., to the positive and
+	 * negative lookup result caches of every dictionary created after the
+	 * call to this method, as well as to the shared caches for parsed lookup
+	 * strings, which are reset right away. The eviction policy has to be
+	 * either LRU_EVICTION or FIFO_EVICTION. Either way, eviction is by cache
+	 * segment, and thus approximate.
+	 * @param size the maximum number of entries per cache
+	 * @param evictionPolicy the eviction policy to use
+	 */
+	public static synchronized void setCacheConfiguration(int size, String evictionPolicy) {
+		if (!LRU_EVICTION.equals(evictionPolicy) && !FIFO_EVICTION.equals(evictionPolicy))
+			throw new IllegalArgumentException("Invalid cache eviction policy '" + evictionPolicy + "'");
+		if ((size == cacheSize) && evictionPolicy.equals(cacheEvictionPolicy))
+			return;
+		cacheSize = Math.max(size, 0);
+		cacheEvictionPolicy = evictionPolicy;
+		stringDataSetCacheOI = new LookupCache(cacheSize, cacheEvictionPolicy);
+		stringDataSetCacheOS = new LookupCache(cacheSize, cacheEvictionPolicy);
+	}
+	
+	/**
+	 * @return the maximum number of entries per lookup cache
+	 */
+	public static int getCacheSize() {
+		return cacheSize;
+	}
+	
+	/**
+	 * @return the eviction policy of the lookup caches
+	 */
+	public static String getCacheEvictionPolicy() {
+		return cacheEvictionPolicy;
+	}
+	
+	/* Bounded cache striped over independently locked segments, so threads
+	 * only contend if looking up keys that fall into the same segment. */
+	private static class LookupCache {
+		private final CacheSegment[] segments;
+		LookupCache(int size, String evictionPolicy) {
+			int segmentCount = 1;
+			while ((segmentCount < (Runtime.getRuntime().availableProcessors() * 4)) && (segmentCount < 64))
+				segmentCount <<= 1;
+			this.segments = new CacheSegment[segmentCount];
+			for (int s = 0; s < this.segments.length; s++)
+				this.segments[s] = new CacheSegment(((size + segmentCount - 1) / segmentCount), LRU_EVICTION.equals(evictionPolicy));
+		}
+		Object get(Object key) {
+			CacheSegment segment = this.getSegment(key);
+			synchronized (segment) {
+				return segment.get(key);
+			}
+		}
+		void put(Object key, Object value) {
+			CacheSegment segment = this.getSegment(key);
+			synchronized (segment) {
+				segment.put(key, value);
+			}
+		}
+		void clear() {
+			for (int s = 0; s < this.segments.length; s++)
+				synchronized (this.segments[s]) {
+					this.segments[s].clear();
+				}
+		}
+		private CacheSegment getSegment(Object key) {
+			int hash = key.hashCode();
+			hash ^= ((hash >>> 20) ^ (hash >>> 12));
+			hash ^= ((hash >>> 7) ^ (hash >>> 4));
+			return this.segments[hash & (this.segments.length - 1)];
+		}
+	}
+	private static class CacheSegment extends LinkedHashMap {
+		private static final long serialVersionUID = 5827619442107453106L;
+		private final int capacity;
+		CacheSegment(int capacity, boolean accessOrder) {
+			super(Math.min(((capacity * 4) / 3), 256), 0.9f, accessOrder);
+			this.capacity = capacity;
+		}
+		protected boolean removeEldestEntry(Entry eldest) {
+			return (this.size() > this.capacity);
+		}
+	}
+	
+	private static volatile LookupCache stringDataSetCacheOI = new LookupCache(cacheSize, cacheEvictionPolicy);
+	private static volatile LookupCache stringDataSetCacheOS = new LookupCache(cacheSize, cacheEvictionPolicy);
+	private static LookupCache getStringDataSetCache(boolean orderSensitive) {
+		return (orderSensitive ? stringDataSetCacheOS : stringDataSetCacheOI);
+	}
+	private static StringDataSet getStringDataSet(String string, Tokenizer tokenizer, boolean orderSensitive) {
+		
+		//	do cache lookup (if cache active)
+		LookupCache stringDataSetCache = getStringDataSetCache(orderSensitive);
+		StringDataSet sd = ((stringDataSetCache == null) ? null : ((StringDataSet) stringDataSetCache.get(string)));
+		
+		//	cahce hit, we're done
+		if (sd != null) {
+			if (DEBUG && (orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) System.out.println("TBD cache hit");
+			return sd;
+		}
+		
+		//	cache miss, parse string
+		TokenSequence stringTokenSequence = tokenizer.tokenize(Gamta.normalize(string));
+		
+		StringVector stringTokens = new StringVector();
+		StringVector stringSubTokenInitials = new StringVector();
+		StringVector stringSubTokens = new StringVector();
+		
+		Set lowerCaseTokens = new HashSet();
+		
+		for (int t = 0; t < stringTokenSequence.size(); t++) {
+			String stringToken = stringTokenSequence.valueAt(t);
+			char ch = stringToken.charAt(0);
+			if (('A' <= ch) && (ch <= 'Z')) {
+				stringTokens.addElement(stringToken);
+				
+				//	upper case only at start, store complete token
+				if (Gamta.isCapitalizedWord(stringToken)) {
+					stringSubTokenInitials.addElement("" + ch);
+					stringSubTokens.addElement(stringToken);
+				}
+				
+				//	more than one upper case letter, cut token apart
+				else {
+					StringBuffer subToken = new StringBuffer();
+					for (int c = 0; c < stringToken.length(); c++) {
+						ch = stringToken.charAt(c);
+						if (('A' <= ch) && (ch <= 'Z')) {
+							if (subToken.length() != 0) {
+								stringSubTokens.addElement(subToken.toString());
+								subToken = new StringBuffer();
+							}
+							stringSubTokenInitials.addElement("" + ch);
+						}
+						subToken.append(ch);
+					}
+					if (subToken.length() != 0)
+						stringSubTokens.addElement(subToken.toString());
+				}
+			}
+			
+			else if (('0' <= ch) && (ch <= '9')) {
+				stringTokens.addElement(stringToken);
+				
+				//	extract digit blocks
+				StringBuffer subToken = new StringBuffer();
+				for (int c = 0; c < stringToken.length(); c++) {
+					ch = stringToken.charAt(c);
+					if (('0' <= ch) && (ch <= '9')) {
+						subToken.append(ch);
+					}
+					else if (subToken.length() != 0) {
+						stringSubTokens.addElement(subToken.toString());
+						stringSubTokenInitials.addElement("" + subToken.charAt(0));
+						subToken = new StringBuffer();
+					}
+				}
+				if (subToken.length() != 0) {
+					stringSubTokens.addElement(subToken.toString());
+					stringSubTokenInitials.addElement("" + subToken.charAt(0));
+				}
+			}
+			
+			else if (('a' <= ch) && (ch <= 'z'))
+				lowerCaseTokens.add(stringToken);
+		}
+		
+		if (!orderSensitive) {
+			stringSubTokenInitials.sortLexicographically();
+			stringSubTokens.sortLexicographically();
+		}
+		
+		if (DEBUG && (orderSensitive ? DEBUG_ABBREVIATION_MATCH : DEBUG_BAG_MATCH)) {
+			System.out.println("SubTokenInitials: " + stringSubTokenInitials.concatStrings(" - "));
+			System.out.println("SubTokens: " + stringSubTokens.concatStrings(" - "));
+			System.out.println("LowerCase: " + lowerCaseTokens);
+		}
+		
+		sd = new StringDataSet(string, stringTokens.toStringArray(), stringSubTokenInitials.concatStrings(""), stringSubTokens.toStringArray(), stringSubTokens.concatStrings(" "), lowerCaseTokens);
+		if (stringDataSetCache != null) stringDataSetCache.put(string, sd);
+		
+		//	down here, we got the data either way
+		return sd;
+	}
+	
+	private static boolean bagEquals(String[] test, String[] reference, int maxMissingTokens) {
+		if (DEBUG && DEBUG_BAG_MATCH) {
+			System.out.print("Test:");
+			for (int t = 0; t < test.length; t++)
+				System.out.print(" " + test[t]);
+			System.out.println();
+			System.out.print("Reference:");
+			for (int r = 0; r < reference.length; r++)
+				System.out.print(" " + reference[r]);
+			System.out.println();
+		}
+		
+		//	consider maximum length difference between test and reference arrays
+		if (Math.abs(test.length - reference.length) > maxMissingTokens)
+			return false;
+		
+		//	keep track of matched reference tokens in bit mask (arrays only for unusually long reference bags), so not to modify argument arrays
+		long referenceUsedMask = 0;
+		boolean[] referenceUsed = ((reference.length > 64) ? new boolean[reference.length] : null);
 		
-		//	clone arrays in order not to destroy argument data structures
-		test = clone(test);
-		reference = clone(reference);
-		
 		//	test all tokens individually
 		int maxMatchLength = 0;
 		boolean testIsAbbreviated = false;
@@ -679,11 +2185,11 @@ public class TokenBagDictionary implements Dictionary {
 			int bestMatchLengthDifference = Integer.MAX_VALUE;
 			int bestMatchIndex = -1;
 			for (int r = 0; r < reference.length; r++) {
-				if (reference[r] == null)
+				if ((referenceUsed == null) ? ((referenceUsedMask & (1L << r)) != 0) : referenceUsed[r])
 					continue;
 				if ((test[t].charAt(0) != reference[r].charAt(0)))
 					continue;
-				if (!isAbbreviationOf(test[t], reference[r]) && !isAbbreviationOf(reference[r], test[t]))
+				if (!((test[t].length() <= reference[r].length()) && isAbbreviationOf(test[t], reference[r])) && !((reference[r].length() <= test[t].length()) && isAbbreviationOf(reference[r], test[t])))
 					continue;
 				int matchLength = Math.min(test[t].length(), reference[r].length());
 				int matchLengthDifference = Math.abs(test[t].length() - reference[r].length());
@@ -704,7 +2210,9 @@ public class TokenBagDictionary implements Dictionary {
 			if (test[t].length() > reference[bestMatchIndex].length())
 				referenceIsAbbreviated = true;
 			maxMatchLength = Math.max(maxMatchLength, bestMatchLength);
-			reference[bestMatchIndex] = null;
+			if (referenceUsed == null)
+				referenceUsedMask |= (1L << bestMatchIndex);
+			else referenceUsed[bestMatchIndex] = true;
 		}
 		
 		//	if parts of both test and reference have been matched as abbreviations, we need some additional safety
@@ -712,12 +2220,6 @@ public class TokenBagDictionary implements Dictionary {
 		return (maxMatchLength > ((testIsAbbreviated && referenceIsAbbreviated) ? 3 : 1));
 	}
 	
-	private static String[] clone(String[] source) {
-		String[] clone = new String[source.length];
-		System.arraycopy(source, 0, clone, 0, source.length);
-		return clone;
-	}
-	
 	private static boolean isAbbreviationOf(String abbreviation, String full) {
 		if (DEBUG && DEBUG_ABBREVIATION_MATCH) System.out.println("Abbreviation matching " + abbreviation + " against " + full);
 		
@@ -727,19 +2229,16 @@ public class TokenBagDictionary implements Dictionary {
 			return false;
 		}
 		
-		//	remove dots
-		full = removeDots(full);
-		abbreviation = removeDots(abbreviation);
-		
-		//	abbreviation longer than full form ==> abbreviation match impossible
-		if (full.length() < abbreviation.length()) {
+		//	abbreviation longer than full form ==> abbreviation match impossible (we skip dots in place rather than removing them)
+		if (countNonDots(full) < countNonDots(abbreviation)) {
 			if (DEBUG && DEBUG_ABBREVIATION_MATCH) System.out.println(" ==> de-dotted full too short");
 			return false;
 		}
 		
 		//	check letter by letter
-		int a = 0;
-		for (int f = 0; f < full.length(); f++) {
+		int a = skipDots(abbreviation, 0);
+		char lastAch = 0; // last consumed character of abbreviation, 0 if none so far
+		for (int f = skipDots(full, 0); f < full.length(); f = skipDots(full, (f+1))) {
 			
 			//	we've reached the end of the abbreviation, so it fits
 			if (a == abbreviation.length()) {
@@ -755,13 +2254,15 @@ public class TokenBagDictionary implements Dictionary {
 			
 			//	letters match, continue to next one
 			if (ach == fch) {
-				a++;
+				lastAch = ach;
+				a = skipDots(abbreviation, (a+1));
 				continue;
 			}
 			
 			//	jump over internal high commas (may mark omission in abbreviations like "Intern'l")
 			if (ach == '\'') {
-				a++;
+				lastAch = ach;
+				a = skipDots(abbreviation, (a+1));
 				if (a == abbreviation.length()) {
 					if (DEBUG && DEBUG_ABBREVIATION_MATCH) System.out.println(" ==> prefix match");
 					return true;
@@ -770,11 +2271,13 @@ public class TokenBagDictionary implements Dictionary {
 			}
 			
 			//	letters match, proceed to next one 
-			if (ach == fch)
-				a++;
+			if (ach == fch) {
+				lastAch = ach;
+				a = skipDots(abbreviation, (a+1));
+			}
 			
 			//	break and fail if next letter in abbreviation is non-space and not a word start and next letter in full form is space
-			if ((fch == ' ') && (ach != ' ') && (a != 0) && (abbreviation.charAt(a-1) != ' ')) {
+			if ((fch == ' ') && (ach != ' ') && (lastAch != 0) && (lastAch != ' ')) {
 				if (DEBUG && DEBUG_ABBREVIATION_MATCH) System.out.println(" ==> no match for incomplete token coverage");
 				return false;
 			}
@@ -787,14 +2290,19 @@ public class TokenBagDictionary implements Dictionary {
 		return (a == abbreviation.length());
 	}
 	
-	private static String removeDots(String str) {
-		StringBuffer dotFreeStr = new StringBuffer();
+	private static int countNonDots(String str) {
+		int nonDots = 0;
 		for (int c = 0; c < str.length(); c++) {
-			char ch = str.charAt(c);
-			if (ch != '.')
-				dotFreeStr.append(ch);
+			if (str.charAt(c) != '.')
+				nonDots++;
 		}
-		return dotFreeStr.toString();
+		return nonDots;
+	}
+	
+	private static int skipDots(String str, int from) {
+		while ((from < str.length()) && (str.charAt(from) == '.'))
+			from++;
+		return from;
 	}
 	
 	private static String reorderAtPunctuationMarks(String str, String punctuationMarks) {
@@ -828,6 +2336,9 @@ public class TokenBagDictionary implements Dictionary {
 		return extractAllContained(tokens, this, allowOverlap, lowerCaseTokens);
 	}
 	
+	//	name with lower case prefix, e.g. d'Orbigny, retained at span boundaries
+	private static final Pattern prefixedNamePattern = Pattern.compile("[a-z]++\\'[A-Z][a-zA-Z]*+");
+	
 	/**
 	 * Create annotations marking all parts of a token sequence that are
 	 * contained in a token bag dictionary. This method uses
@@ -845,42 +2356,27 @@ public class TokenBagDictionary implements Dictionary {
 	 */
 	public static Annotation[] extractAllContained(TokenSequence tokens, TokenBagDictionary tbd, boolean allowOverlap, Dictionary lowerCaseTokens) {
 		
-		//	allow extra lower case tokens
-		tbd.setExternalLowerCaseTokens(lowerCaseTokens);
-		
-		//	extract annotations
-		Annotation[] preResult = Gamta.extractAllContained(tokens, tbd, (tbd.getMaxEntryTokens() * 3), true, true, false);
+		//	extract matching spans, together with match quality (allowing extra lower case tokens)
+		MatchedSpan[] spans = tbd.extractMatchingSpans(tokens, (tbd.getMaxEntryTokens() * 3), lowerCaseTokens);
 		
 		//	truncate leading and tailing non-capitalized tokens
-		for (int r = 0; r < preResult.length; r++) {
+		for (int r = 0; r < spans.length; r++) {
 			
-			//	check quality of match (lookup goes to cache anyways)
-			int match = tbd.doLookup(preResult[r].getValue());
-			if (match == EQUAL_MATCH) {
-				preResult[r].setAttribute("matchedWholeString", "true");
+			//	check quality of match
+			int match = spans[r].match;
+			if (match == EQUAL_MATCH)
 				continue;
-			}
-			
-			//	match detail attributes
-			if ((match & ALL_TOKENS_MATCHED) != 0)
-				preResult[r].setAttribute("matchedAllTokens", "true");
-			if ((match & NO_TOKENS_ABBREVIATED) != 0)
-				preResult[r].setAttribute("matchedFullTokens", "true");
-			if ((match & LOWER_CASE_TOKENS_MATCHED) != 0)
-				preResult[r].setAttribute("matchedLowerCase", "true");
-			if ((match & TOKEN_ORDER_MATCHED) != 0)
-				preResult[r].setAttribute("matchedTokenOrder", "true");
 			
 			//	retain leading and tailing lower case tokens?
 			boolean retainLowerCaseLeadAndTail = ((match & LOWER_CASE_TOKENS_MATCHED) != 0);
 			
 			//	truncate tokens
-			int start = preResult[r].getStartIndex();
-			int end = preResult[r].getEndIndex();
+			int start = spans[r].start;
+			int end = spans[r].end;
 			while (start < end) {
 				if (Gamta.isFirstLetterUpWord(tokens.valueAt(start)))
 					break;
-				if (tokens.valueAt(start).matches("[a-z]++\\'[A-Z][a-zA-Z]*+"))
+				if (prefixedNamePattern.matcher(tokens.valueAt(start)).matches())
 					break;
 				if (Gamta.isNumber(tokens.valueAt(start)))
 					break;
@@ -891,7 +2387,7 @@ public class TokenBagDictionary implements Dictionary {
 			while (end > start) {
 				if (Gamta.isFirstLetterUpWord(tokens.valueAt(end-1)))
 					break;
-				if (tokens.valueAt(end-1).matches("[a-z]++\\'[A-Z][a-zA-Z]*+"))
+				if (prefixedNamePattern.matcher(tokens.valueAt(end-1)).matches())
 					break;
 				if (Gamta.isNumber(tokens.valueAt(end-1)))
 					break;
@@ -908,33 +2404,364 @@ public class TokenBagDictionary implements Dictionary {
 				else if ((openBracket != null) && Gamta.closes(tokens.valueAt(t), openBracket))
 					openBracket = null;
 			}
-			while ((openBracket != null) && (end < preResult[r].getEndIndex()) && !Gamta.closes(tokens.valueAt(end-1), openBracket))
+			while ((openBracket != null) && (end < spans[r].end) && !Gamta.closes(tokens.valueAt(end-1), openBracket))
 				end++;
 			
 			//	do modifications (if any)
-			if ((end - start) < preResult[r].size())
-				preResult[r] = Gamta.newAnnotation(tokens, preResult[r].getType(), start, (end - start));
+			if ((end - start) < (spans[r].end - spans[r].start)) {
+				spans[r].start = start;
+				spans[r].end = end;
+				spans[r].truncated = true;
+			}
 		}
 		
-		//	sort out duplicates
-		Set resultKeys = new HashSet();
-		ArrayList resultList = new ArrayList();
-		for (int r = 0; r < preResult.length; r++)
-			if (resultKeys.add(preResult[r].getStartIndex() + "-" + preResult[r].getEndIndex()))
-				resultList.add(preResult[r]);
-		Collections.sort(resultList);
+		//	sort spans by start, longer ones first (stable, so the first of any duplicates stays in front)
+		Arrays.sort(spans);
 		
-		//	sort out overlapping matches if required
-		if (!allowOverlap) {
-			for (int r = 1; r < resultList.size(); r++)
-				if (AnnotationUtils.overlaps(((Annotation) resultList.get(r-1)), ((Annotation) resultList.get(r))))
-					resultList.remove(r--);
+		//	sort out duplicates, as well as overlapping matches if required, in a single sweep
+		ArrayList resultList = new ArrayList();
+		MatchedSpan lastSpan = null;
+		for (int r = 0; r < spans.length; r++) {
+			if ((lastSpan != null) && (lastSpan.start == spans[r].start) && (lastSpan.end == spans[r].end))
+				continue;
+			if (!allowOverlap && (lastSpan != null) && (lastSpan.start < spans[r].end) && (spans[r].start < lastSpan.end))
+				continue;
+			resultList.add(spans[r].toAnnotation(tokens));
+			lastSpan = spans[r];
 		}
 		
 		//	return remainder
 		return ((Annotation[]) resultList.toArray(new Annotation[resultList.size()]));
 	}
 	
+	/* A span of a token sequence matching a dictionary entry, together with
+	 * the quality of the match; the annotation is the one the span came from,
+	 * if any. */
+	private static class MatchedSpan implements Comparable {
+		int start;
+		int end;
+		final int match;
+		final Annotation annotation;
+		boolean truncated = false;
+		MatchedSpan(int start, int end, int match, Annotation annotation) {
+			this.start = start;
+			this.end = end;
+			this.match = match;
+			this.annotation = annotation;
+		}
+		public int compareTo(Object obj) {
+			MatchedSpan ms = ((MatchedSpan) obj);
+			return ((this.start == ms.start) ? (ms.end - this.end) : (this.start - ms.start));
+		}
+		Annotation toAnnotation(TokenSequence tokens) {
+			String type = ((this.annotation == null) ? null : this.annotation.getType());
+			Annotation annotation = (((this.annotation == null) || this.truncated) ? Gamta.newAnnotation(tokens, type, this.start, (this.end - this.start)) : this.annotation);
+			
+			//	match detail attributes (truncated spans never got these)
+			if (this.truncated)
+				return annotation;
+			if (this.match == EQUAL_MATCH) {
+				annotation.setAttribute("matchedWholeString", "true");
+				return annotation;
+			}
+			if ((this.match & ALL_TOKENS_MATCHED) != 0)
+				annotation.setAttribute("matchedAllTokens", "true");
+			if ((this.match & NO_TOKENS_ABBREVIATED) != 0)
+				annotation.setAttribute("matchedFullTokens", "true");
+			if ((this.match & LOWER_CASE_TOKENS_MATCHED) != 0)
+				annotation.setAttribute("matchedLowerCase", "true");
+			if ((this.match & TOKEN_ORDER_MATCHED) != 0)
+				annotation.setAttribute("matchedTokenOrder", "true");
+			return annotation;
+		}
+	}
+	
+	/* Extracts all spans of up to maxTokens+1 tokens (the same as in
+	 * Gamta.extractAllContained()) that start with a dictionary token and
+	 * are contained in this dictionary. Other than the generic extraction,
+	 * this stops extending a span as soon as its sub-token initials do not
+	 * lead into any token bag key anymore, or as soon as it includes a lower
+	 * case token that fails any lookup. */
+	private MatchedSpan[] extractMatchingSpans(TokenSequence tokens, int maxTokens, Dictionary lowerCaseTokens) {
+		
+		//	spans and keys do not relate by prefix if we reorder at punctuation marks, and sparse matches do not use the index
+		InitialTrie initialTrie = (((this.reorderPunctuationMarks == null) && (this.maxMissingTokens < 2)) ? this.getInitialTrie() : null);
+		if ((initialTrie == null) || !initialTrie.complete) {
+			Annotation[] annotations = Gamta.extractAllContained(tokens, new LowerCaseTokenLookup(lowerCaseTokens), maxTokens, true, true, false);
+			MatchedSpan[] spans = new MatchedSpan[annotations.length];
+			for (int a = 0; a < annotations.length; a++)
+				spans[a] = new MatchedSpan(annotations[a].getStartIndex(), annotations[a].getEndIndex(), this.lookupMatch(annotations[a].getValue(), lowerCaseTokens), annotations[a]); // lookup goes to cache
+			return spans;
+		}
+		
+		//	check parameters
+		if ((tokens == null) || this.isEmpty())
+			return new MatchedSpan[0];
+		
+		//	get initials of individual tokens, and mark lower case tokens no lookup can match
+		String[] tokenInitials = new String[tokens.size()];
+		boolean[] isTokenExcluded = new boolean[tokens.size()];
+		this.getTokenInitials(tokens, 0, tokens.size(), lowerCaseTokens, tokenInitials, isTokenExcluded);
+		
+		//	find matches, trying all spans from each start token
+		ArrayList spans = new ArrayList();
+		this.entryLock.readLock().lock();
+		try {
+			for (int s = 0; s < tokens.size(); s++) {
+				if (!this.containsStringToken(tokens.valueAt(s)))
+					continue;
+				InitialTrie node = initialTrie;
+				StringBuffer spanInitials = new StringBuffer();
+				for (int e = s; (e < tokens.size()) && ((e - s) <= maxTokens); e++) {
+					if (isTokenExcluded[e])
+						break;
+					
+					//	extend initials, and check if we're still on track to some key
+					node = this.extendSpanInitials(initialTrie, node, tokenInitials[e], spanInitials);
+					if (node == null)
+						break;
+					
+					//	check if current span matches (annotations are only created for final results)
+					String spanString = TokenSequenceUtils.concatTokens(tokens, s, (e - s + 1), true, true);
+					int match = this.lookupMatch(spanString, lowerCaseTokens);
+					if (match == NOT_MATCHED)
+						continue;
+					
+					//	get quality of match from span value with original whitespace, just as for annotation values
+					String spanValue = tokens.subSequence(tokens.tokenAt(s).getStartOffset(), tokens.tokenAt(e).getEndOffset()).toString();
+					if (!spanValue.equals(spanString))
+						match = this.lookupMatch(spanValue, lowerCaseTokens);
+					spans.add(new MatchedSpan(s, (e + 1), match, null));
+				}
+			}
+		}
+		finally {
+			this.entryLock.readLock().unlock();
+		}
+		
+		//	finally ...
+		return ((MatchedSpan[]) spans.toArray(new MatchedSpan[spans.size()]));
+	}
+	
+	/**
+	 * Look up the spans of a token sequence that start at a given token and
+	 * end at a series of given tokens, in a single forward pass. Other than
+	 * looking up each span on its own, this stops as soon as the initials of
+	 * the tokens do not lead into any token bag key anymore, or as soon as a
+	 * lower case token fails any lookup, so longer spans are not even
+	 * concatenated for lookup.
+	 * @param tokens the token sequence the spans lie in
+	 * @param start the index of the first token of the spans
+	 * @param ends the indexes of the tokens after the ends of the spans, in
+	 *            ascending order
+	 * @return an array holding the quality of the match for each span
+	 */
+	public int[] lookupMatchSpans(TokenSequence tokens, int start, int[] ends) {
+		int[] matches = new int[ends.length];
+		if (ends.length == 0)
+			return matches;
+		
+		//	spans and keys do not relate by prefix if we reorder at punctuation marks, and sparse matches do not use the index
+		InitialTrie initialTrie = (((this.reorderPunctuationMarks == null) && (this.maxMissingTokens < 2)) ? this.getInitialTrie() : null);
+		if ((initialTrie == null) || !initialTrie.complete) {
+			for (int s = 0; s < ends.length; s++)
+				matches[s] = this.lookupMatch(TokenSequenceUtils.concatTokens(tokens, start, (ends[s] - start), true, true));
+			return matches;
+		}
+		
+		//	get initials of individual tokens, and mark lower case tokens no lookup can match
+		String[] tokenInitials = new String[tokens.size()];
+		boolean[] isTokenExcluded = new boolean[tokens.size()];
+		this.getTokenInitials(tokens, start, ends[ends.length-1], null, tokenInitials, isTokenExcluded);
+		
+		//	extend span token by token, looking up at the span ends
+		this.entryLock.readLock().lock();
+		try {
+			InitialTrie node = initialTrie;
+			StringBuffer spanInitials = new StringBuffer();
+			for (int e = start, s = 0; s < ends.length; e++) {
+				if (isTokenExcluded[e])
+					break;
+				node = this.extendSpanInitials(initialTrie, node, tokenInitials[e], spanInitials);
+				if (node == null)
+					break;
+				if ((e + 1) == ends[s])
+					matches[s++] = this.lookupMatch(TokenSequenceUtils.concatTokens(tokens, start, (e - start + 1), true, true));
+			}
+		}
+		finally {
+			this.entryLock.readLock().unlock();
+		}
+		return matches;
+	}
+	
+	/* Gets the initials the tokens in a range contribute to token bag keys,
+	 * and marks the lower case tokens no lookup can match. */
+	private void getTokenInitials(TokenSequence tokens, int start, int end, Dictionary lowerCaseTokens, String[] tokenInitials, boolean[] isTokenExcluded) {
+		for (int t = start; t < end; t++) {
+			TokenSequence subTokens = this.tokenizer.tokenize(Gamta.normalize(tokens.valueAt(t)));
+			StringBuffer initials = new StringBuffer();
+			for (int s = 0; s < subTokens.size(); s++) {
+				String subToken = subTokens.valueAt(s);
+				if (addInitials(subToken, initials))
+					continue;
+				if (this.containsLowerCaseToken(subToken))
+					continue;
+				if ((lowerCaseTokens == null) || ((subToken.length() > 1) && !lowerCaseTokens.lookup(subToken)))
+					isTokenExcluded[t] = true;
+			}
+			tokenInitials[t] = initials.toString();
+		}
+	}
+	
+	/* Adds the initials of a further token to those of a span, and returns
+	 * the trie node the span has reached, or null if the span cannot lead
+	 * into any token bag key anymore. */
+	private InitialTrie extendSpanInitials(InitialTrie initialTrie, InitialTrie node, String tokenInitials, StringBuffer spanInitials) {
+		if (this.orderSensitive)
+			return node.getNode(tokenInitials, 0);
+		for (int i = 0; i < tokenInitials.length(); i++) {
+			char ch = tokenInitials.charAt(i);
+			int pos = spanInitials.length();
+			while ((pos != 0) && (ch < spanInitials.charAt(pos-1)))
+				pos--;
+			spanInitials.insert(pos, ch);
+		}
+		return initialTrie.getNode(spanInitials, 0);
+	}
+	
+	/* View of this dictionary whose lookups allow the lower case tokens from
+	 * a specific dictionary, for handing to Gamta.extractAllContained(). */
+	private class LowerCaseTokenLookup implements Dictionary {
+		private final Dictionary lowerCaseTokens;
+		LowerCaseTokenLookup(Dictionary lowerCaseTokens) {
+			this.lowerCaseTokens = lowerCaseTokens;
+		}
+		public boolean lookup(String string) {
+			return (lookupMatch(string, this.lowerCaseTokens) != NOT_MATCHED);
+		}
+		public boolean lookup(String string, boolean caseSensitive) {
+			return this.lookup(string);
+		}
+		public boolean isDefaultCaseSensitive() {
+			return TokenBagDictionary.this.isDefaultCaseSensitive();
+		}
+		public boolean isEmpty() {
+			return TokenBagDictionary.this.isEmpty();
+		}
+		public int size() {
+			return TokenBagDictionary.this.size();
+		}
+		public StringIterator getEntryIterator() {
+			return TokenBagDictionary.this.getEntryIterator();
+		}
+	}
+	
+	/* Appends the initials a (normalized) token contributes to a token bag
+	 * key, exactly as getStringDataSet() computes them, and indicates whether
+	 * or not the token is a lower case token. */
+	private static boolean addInitials(String token, StringBuffer initials) {
+		char ch = token.charAt(0);
+		if (('A' <= ch) && (ch <= 'Z')) {
+			if (Gamta.isCapitalizedWord(token))
+				initials.append(ch);
+			else for (int c = 0; c < token.length(); c++) {
+				ch = token.charAt(c);
+				if (('A' <= ch) && (ch <= 'Z'))
+					initials.append(ch);
+			}
+			return true;
+		}
+		else if (('0' <= ch) && (ch <= '9')) {
+			boolean inDigitBlock = false;
+			for (int c = 0; c < token.length(); c++) {
+				ch = token.charAt(c);
+				if (('0' <= ch) && (ch <= '9')) {
+					if (!inDigitBlock)
+						initials.append(ch);
+					inDigitBlock = true;
+				}
+				else inDigitBlock = false;
+			}
+			return true;
+		}
+		else return !(('a' <= ch) && (ch <= 'z'));
+	}
+	
+	private InitialTrie getInitialTrie() {
+		InitialTrie initialTrie = this.initialTrie;
+		if (initialTrie != null)
+			return initialTrie;
+		initialTrie = new InitialTrie();
+		this.entryLock.readLock().lock();
+		try {
+			for (Iterator tbkit = this.getTokenBagKeyIterator(); tbkit.hasNext();) {
+				String tokenBagKey = ((String) tbkit.next());
+				
+				//	order sensitive, spans can only extend keys at the end
+				if (this.orderSensitive)
+					initialTrie.addPath(tokenBagKey, 0);
+				
+				//	order insensitive, spans can add initials anywhere, so we need all sub bags (which become too many with long keys)
+				else if (tokenBagKey.length() <= maxSubBagKeyLength)
+					initialTrie.addSubPaths(tokenBagKey, 0);
+				else {
+					initialTrie.complete = false;
+					break;
+				}
+			}
+		}
+		finally {
+			this.entryLock.readLock().unlock();
+		}
+		this.initialTrie = initialTrie;
+		return initialTrie;
+	}
+	private static final int maxSubBagKeyLength = 12;
+	
+	private static class InitialTrie {
+		boolean complete = true;
+		char[] chars = new char[0];
+		InitialTrie[] children = new InitialTrie[0];
+		InitialTrie getChild(char ch) {
+			for (int c = 0; c < this.chars.length; c++) {
+				if (this.chars[c] == ch)
+					return this.children[c];
+			}
+			return null;
+		}
+		InitialTrie getNode(CharSequence path, int from) {
+			InitialTrie node = this;
+			for (int c = from; (node != null) && (c < path.length()); c++)
+				node = node.getChild(path.charAt(c));
+			return node;
+		}
+		private InitialTrie addChild(char ch) {
+			InitialTrie child = this.getChild(ch);
+			if (child != null)
+				return child;
+			child = new InitialTrie();
+			char[] chars = new char[this.chars.length + 1];
+			System.arraycopy(this.chars, 0, chars, 0, this.chars.length);
+			chars[this.chars.length] = ch;
+			InitialTrie[] children = new InitialTrie[this.children.length + 1];
+			System.arraycopy(this.children, 0, children, 0, this.children.length);
+			children[this.children.length] = child;
+			this.chars = chars;
+			this.children = children;
+			return child;
+		}
+		void addPath(String path, int from) {
+			InitialTrie node = this;
+			for (int c = from; c < path.length(); c++)
+				node = node.addChild(path.charAt(c));
+		}
+		void addSubPaths(String path, int from) {
+			for (int c = from; c < path.length(); c++)
+				this.addChild(path.charAt(c)).addSubPaths(path, (c+1));
+		}
+	}
+	
 	//	for test purposes only
 	public static void main(String[] args) {
 //		System.out.println(isAbbreviationOf("Verhandlung", "Verh"));
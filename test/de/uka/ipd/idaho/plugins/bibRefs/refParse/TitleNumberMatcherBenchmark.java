@@ -0,0 +1,127 @@
+/* RefParse, the algorithm for parsing lists of bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.plugins.bibRefs.refParse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+import de.uka.ipd.idaho.stringUtils.StringVector;
+
+/**
+ * Benchmark for marking title numbers in references, showing how the cost
+ * per reference grows with the length of the title number pattern list, both
+ * for extracting the matches of every pattern and for the prefiltering
+ * TitleNumberMatcher. Lists longer than the given one are simulated by
+ * repeating it. Arguments are the title number pattern list and optionally a
+ * file holding one reference per line.
+ * 
+ * @author sautter
+ */
+public class TitleNumberMatcherBenchmark {
+
+	private static final String[] sampleReferences = {
+		"Bolton, B. 1995. A new general catalogue of the ants of the world. Harvard University Press, Cambridge, Mass. 504 pp.",
+		"Fisher BL, Smith J (2005) A Model for a Global Inventory of Ants. Journal of Natural History 12: 23-45.",
+		"Wilson, E. O. & Brown, W. L. Jr. 1953. The subspecies concept and its taxonomic application. Systematic Zoology 2: 97-111.",
+		"Smith, J. 2001. On the 3-D structure of ant nests. Proc. 2nd Int. Congr. Entomol. Vol. 3, Part II: 112-118.",
+		"Meier, R. (Ed.) 1998. Proceedings of the ECCB '98 Conference. Springer, Berlin. Chapter 12, pp. 1-20.",
+		"Mueller, K. 1987. Die Ameisen Mitteleuropas. 2. Teil. Bd. 4. Verlag der Zoologischen Gesellschaft, Wien.",
+	};
+	
+	/**
+	 * @param args the pattern list file, and optionally a file holding references
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] regExes = loadList(new File((args.length == 0) ? "dataFiles/RefParseData/titleNumberPatterns.list.txt" : args[0]));
+		String[] references = ((args.length < 2) ? sampleReferences : loadList(new File(args[1])));
+		TokenSequence[] tokens = new TokenSequence[references.length];
+		for (int r = 0; r < references.length; r++)
+			tokens[r] = Gamta.newTokenSequence(references[r], Gamta.INNER_PUNCTUATION_TOKENIZER);
+		System.out.println("Benchmarking " + regExes.length + " title number patterns on " + references.length + " references");
+		
+		//	warm up (JIT, Gamta pattern cache)
+		TitleNumberMatcher tnm = new TitleNumberMatcher(regExes);
+		for (int w = 0; w < 20; w++)
+			for (int r = 0; r < tokens.length; r++) {
+				tnm.getTitleNumberTokens(tokens[r]);
+				getTitleNumberTokensUnfiltered(regExes, tokens[r]);
+			}
+		
+		//	measure for growing pattern lists
+		System.out.println("patterns\tunfiltered us/ref\tprefiltered us/ref");
+		int[] factors = {1, 2, 4, 8};
+		for (int f = 0; f < factors.length; f++)
+			for (int s = ((f == 0) ? 1 : regExes.length); s <= regExes.length; s = ((s < regExes.length) ? Math.min((s * 2), regExes.length) : (regExes.length + 1))) {
+				String[] testRegExes = new String[s * factors[f]];
+				for (int p = 0; p < testRegExes.length; p++)
+					testRegExes[p] = regExes[p % s];
+				tnm = new TitleNumberMatcher(testRegExes);
+				
+				//	make sure prefiltering doesn't change anything
+				for (int r = 0; r < tokens.length; r++) {
+					if (!Arrays.equals(tnm.getTitleNumberTokens(tokens[r]), getTitleNumberTokensUnfiltered(testRegExes, tokens[r])))
+						System.out.println("Prefiltered title numbers differ for " + references[r]);
+				}
+				
+				int rounds = Math.max(1, (2000 / testRegExes.length));
+				long start = System.nanoTime();
+				for (int round = 0; round < rounds; round++)
+					for (int r = 0; r < tokens.length; r++)
+						getTitleNumberTokensUnfiltered(testRegExes, tokens[r]);
+				long unfiltered = ((System.nanoTime() - start) / (1000 * rounds * tokens.length));
+				start = System.nanoTime();
+				for (int round = 0; round < rounds; round++)
+					for (int r = 0; r < tokens.length; r++)
+						tnm.getTitleNumberTokens(tokens[r]);
+				long prefiltered = ((System.nanoTime() - start) / (1000 * rounds * tokens.length));
+				System.out.println(testRegExes.length + "\t" + unfiltered + "\t" + prefiltered);
+			}
+	}
+	
+	/* Marks the tokens of a reference that belong to title numbers, extracting
+	 * the matches of each and every pattern, regardless of whether or not it
+	 * occurs in the reference. This is the behavior the prefiltering in
+	 * TitleNumberMatcher.getTitleNumberTokens() has to be equivalent to. */
+	private static boolean[] getTitleNumberTokensUnfiltered(String[] regExes, TokenSequence tokens) {
+		boolean[] isTitleNumberToken = new boolean[tokens.size()];
+		for (int p = 0; p < regExes.length; p++) {
+			Annotation[] titleNumberAnnots = Gamta.extractAllMatches(tokens, regExes[p], false);
+			for (int t = 0; t < titleNumberAnnots.length; t++) {
+				for (int i = titleNumberAnnots[t].getStartIndex(); i < titleNumberAnnots[t].getEndIndex(); i++)
+					isTitleNumberToken[i] = true;
+			}
+		}
+		return isTitleNumberToken;
+	}
+	
+	private static String[] loadList(File file) throws Exception {
+		StringVector list = StringVector.loadList(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		StringVector entries = new StringVector();
+		for (int e = 0; e < list.size(); e++) {
+			String entry = list.get(e).trim();
+			if ((entry.length() != 0) && !entry.startsWith("//"))
+				entries.addElement(entry);
+		}
+		return entries.toStringArray();
+	}
+}
@@ -0,0 +1,84 @@
+/* RefParse, the algorithm for parsing lists of bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.plugins.bibRefs.refParse;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.TokenSequence;
+
+/**
+ * Regression test for TokenBagDictionary.extractAllContained(), checking
+ * that the quality of a match is determined from the value of the matched
+ * span with its original whitespace, so spans written exactly like an entry
+ * count as whole string matches even if normalizing spaces changes them.
+ * Exits with a non-zero status if any check fails.
+ * 
+ * @author sautter
+ */
+public class TokenBagDictionaryTest {
+
+	private static int failures = 0;
+	
+	/**
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+	
+		//	order sensitive dictionary, entry without space after the dot
+		TokenBagDictionary orderSensitive = new TokenBagDictionary(true);
+		orderSensitive.addEntry("Univ.Napoli");
+		checkMatch(orderSensitive, "Published by Univ.Napoli in 1998", "Univ.Napoli", "matchedWholeString");
+		checkMatch(orderSensitive, "Published by Univ. Napoli in 1998", "Univ. Napoli", "matchedAllTokens");
+		
+		//	order insensitive dictionary, entry with initials not separated by spaces
+		TokenBagDictionary orderInsensitive = new TokenBagDictionary(false);
+		orderInsensitive.addEntry("Miller, R.M.");
+		checkMatch(orderInsensitive, "as shown by Miller, R.M. and others", "Miller, R.M.", "matchedWholeString");
+		checkMatch(orderInsensitive, "as shown by Miller, R. M. and others", "Miller, R. M", "matchedAllTokens"); // tailing dot truncated as for any partial match
+		
+		//	same again in compact index mode
+		TokenBagDictionary compact = new TokenBagDictionary(false, true);
+		compact.addEntry("Miller, R.M.");
+		checkMatch(compact, "as shown by Miller, R.M. and others", "Miller, R.M.", "matchedWholeString");
+		
+		if (failures == 0)
+			System.out.println("All checks passed");
+		else {
+			System.out.println(failures + " checks failed");
+			System.exit(1);
+		}
+	}
+	
+	private static void checkMatch(TokenBagDictionary tbd, String text, String expectedValue, String expectedAttribute) {
+		TokenSequence tokens = Gamta.newTokenSequence(text, null);
+		Annotation[] matches = tbd.extractAllContained(tokens, false, null);
+		for (int m = 0; m < matches.length; m++) {
+			if (!expectedValue.equals(matches[m].getValue()))
+				continue;
+			if ("true".equals(matches[m].getAttribute(expectedAttribute)))
+				System.out.println("OK: '" + expectedValue + "' in '" + text + "' has " + expectedAttribute);
+			else {
+				System.out.println("FAILED: '" + expectedValue + "' in '" + text + "' lacks " + expectedAttribute + ": " + matches[m].toXML());
+				failures++;
+			}
+			return;
+		}
+		System.out.println("FAILED: '" + expectedValue + "' not found in '" + text + "'");
+		failures++;
+	}
+}